@@ -0,0 +1,180 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.item.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the byte-at-a-time line counting formerly used by the partitioner with the {@link LineScanner}.
+ * <p/>
+ * Input files of the requested sizes are generated once in <tt>java.io.tmpdir</tt> (or <tt>-Dbenchmark.dir</tt>)
+ * and reused by later runs. Besides the operations per second the <tt>bytes</tt> counter reports the scanned
+ * bytes per second of each variant. Run with:
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="LineScannerBenchmark -p sizeInMb=100,1024,10240"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class LineScannerBenchmark {
+
+    private static final int LEGACY_BUFFER_SIZE = 4096;
+
+    @Param({ "100", "1024", "10240" })
+    public int sizeInMb;
+
+    private File file;
+
+    private long expectedLines;
+
+    /**
+     * Reports the number of scanned bytes as a rate next to the benchmark score.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        final File directory = new File(System.getProperty("benchmark.dir", System.getProperty("java.io.tmpdir")));
+        file = new File(directory, "line-scanner-" + sizeInMb + "mb.txt");
+        final long size = sizeInMb * 1024L * 1024L;
+        if (!file.isFile() || file.length() != size) {
+            writeLines(file, size);
+        }
+        expectedLines = legacyCount(file);
+    }
+
+    @Benchmark
+    public long legacyByteLoop(Bytes bytes) throws IOException {
+        bytes.bytes += file.length();
+        return check(legacyCount(file));
+    }
+
+    @Benchmark
+    public long scannerMapped(Bytes bytes) throws IOException {
+        bytes.bytes += file.length();
+        final LineScanner.Source source = LineScanner.Source.map(file, 0, -1, LineScanner.DEFAULT_WINDOW_SIZE);
+        try {
+            return check(new LineScanner('\n').countLines(source, 0).getLinesCount());
+        }
+        finally {
+            source.close();
+        }
+    }
+
+    @Benchmark
+    public long scannerDirectBuffer(Bytes bytes) throws IOException {
+        bytes.bytes += file.length();
+        final InputStream in = new FileInputStream(file);
+        final LineScanner.Source source = LineScanner.Source.read(in, LineScanner.DEFAULT_BUFFER_SIZE, true);
+        try {
+            return check(new LineScanner('\n').countLines(source, 0).getLinesCount());
+        }
+        finally {
+            source.close();
+        }
+    }
+
+    private long check(long lines) {
+        if (lines != expectedLines) {
+            throw new IllegalStateException("Counted " + lines + " lines instead of " + expectedLines);
+        }
+        return lines;
+    }
+
+    /**
+     * The loop used by the partitioner before the {@link LineScanner}.
+     */
+    private static long legacyCount(File file) throws IOException {
+        final InputStream is = new BufferedInputStream(new FileInputStream(file));
+        try {
+            byte[] c = new byte[LEGACY_BUFFER_SIZE];
+            long count = 0;
+            int readChars;
+            byte lastChar = 0;
+            boolean contentExists = false;
+            while ((readChars = is.read(c)) != -1) {
+                for (int i = 0; i < readChars; ++i) {
+                    contentExists = true;
+                    lastChar = c[i];
+                    if (c[i] == '\n') {
+                        ++count;
+                    }
+                }
+            }
+            if (contentExists && lastChar != '\n') {
+                count++;
+            }
+            return count;
+        }
+        finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Writes lines of 1 to 120 printable characters until the file has the requested size.
+     */
+    private static void writeLines(File file, long size) throws IOException {
+        final Random random = new Random(size);
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024);
+        try {
+            long written = 0;
+            while (written < size) {
+                final int length = (int) Math.min(1 + random.nextInt(120), size - written);
+                for (int i = 0; i < length - 1; i++) {
+                    out.write('0' + random.nextInt(75));
+                }
+                out.write('\n');
+                written += length;
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+}
@@ -1,13 +1,55 @@
 package com.st.batch.foundation;
 
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
 import org.springframework.batch.item.ItemWriter;
+import org.springframework.batch.support.metrics.Histogram;
+import org.springframework.batch.support.metrics.MetricRegistry;
+import org.springframework.batch.support.metrics.StripedCounter;
+import org.springframework.beans.factory.DisposableBean;
 
+import com.st.symfony.GroupCommitLogWriter;
 import com.st.symfony.Symfony;
+import com.st.symfony.SymfonyBatchException;
+import com.st.symfony.SymfonyBatchResult;
+import com.st.symfony.SymfonyBatchTimeoutException;
 import com.st.symfony.SymfonyInt;
+import com.st.symfony.SymfonyOutputHandler;
 
-public class ImportExchangesItemWriter<T> implements ItemWriter<T> {
+public class ImportExchangesItemWriter<T> implements ItemWriter<T>, StepExecutionListener, DisposableBean {
+
+	private static Log logger = LogFactory.getLog(ImportExchangesItemWriter.class);
+
+	/**
+	 * The number of exchanges written by the partition, the line numbers of the log records continue from it
+	 * on restart.
+	 */
+	private static final String LINE_COUNT_KEY = "ImportExchangesItemWriter.line.count";
+
+	private static final Histogram CHUNK_TIME = MetricRegistry.getInstance().histogram("writer.chunk.us");
+
+	private static final StripedCounter ITEMS = MetricRegistry.getInstance().counter("writer.items");
 
 	long replyTimeout;
 
@@ -15,6 +57,36 @@ public class ImportExchangesItemWriter<T> implements ItemWriter<T> {
 
 	String logFilePath;
 
+	boolean batchMode = false;
+
+	int subBatchSize = 0;
+
+	long batchItemTimeout = 0;
+
+	String batchCommand = "cat";
+
+	int concurrency = 1;
+
+	RateLimiter rateLimiter = new RateLimiter(6000);
+
+	private ExecutorService executor;
+
+	private Semaphore permits;
+
+	GroupCommitLogWriter logWriter;
+
+	private GroupCommitLogWriter.PartitionLog partitionLog;
+
+	private StepExecution stepExecution;
+
+	private long lineCount = 0;
+
+	/**
+	 * The exchanges of failed chunks that did get imported, by identity since two exchanges may be equal.
+	 */
+	private final Set<Object> imported = Collections.synchronizedSet(Collections
+			.newSetFromMap(new IdentityHashMap<Object, Boolean>()));
+
 	public String getLogFilePath() {
 		return logFilePath;
 	}
@@ -39,18 +111,340 @@ public class ImportExchangesItemWriter<T> implements ItemWriter<T> {
 		this.replyTimeout = replyTimeout;
 	}
 
+	public GroupCommitLogWriter getLogWriter() {
+		return logWriter;
+	}
+
+	/**
+	 * Sends the console output to the log file through the group commit writer, tagged with the partition and
+	 * the line of the exchange, instead of having each console run append to the file.
+	 */
+	public void setLogWriter(GroupCommitLogWriter logWriter) {
+		this.logWriter = logWriter;
+	}
+
+	public boolean isBatchMode() {
+		return batchMode;
+	}
+
+	/**
+	 * Runs the console once per chunk, or per sub-batch, with all the exchanges in a file instead of once per
+	 * exchange.
+	 */
+	public void setBatchMode(boolean batchMode) {
+		this.batchMode = batchMode;
+	}
+
+	public int getSubBatchSize() {
+		return subBatchSize;
+	}
+
+	/**
+	 * The maximal number of exchanges per console run in batch mode, 0 for the whole chunk.
+	 */
+	public void setSubBatchSize(int subBatchSize) {
+		this.subBatchSize = subBatchSize;
+	}
+
+	public long getBatchItemTimeout() {
+		return batchItemTimeout;
+	}
+
+	/**
+	 * The time in milliseconds a batch run may take per exchange, a run of n exchanges being killed after n times
+	 * this time. 0, the default, allows the {@link #setReplyTimeout(long) replyTimeout} of a single exchange per
+	 * exchange.
+	 */
+	public void setBatchItemTimeout(long batchItemTimeout) {
+		this.batchItemTimeout = batchItemTimeout;
+	}
+
+	public String getBatchCommand() {
+		return batchCommand;
+	}
+
+	/**
+	 * The command of the batch mode, it gets the path of the exchanges file appended.
+	 */
+	public void setBatchCommand(String batchCommand) {
+		this.batchCommand = batchCommand;
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * The maximal number of console runs of a chunk in flight at once, 1 runs them one after the other.
+	 * They run on virtual threads where the JDK has them and on a fixed pool of threads otherwise.
+	 */
+	public void setConcurrency(int concurrency) {
+		this.concurrency = concurrency;
+	}
+
+	public long getWriteInterval() {
+		return rateLimiter.getInterval();
+	}
+
+	/**
+	 * The minimal time in milliseconds between the starts of two console runs, 0 for no limit.
+	 */
+	public void setWriteInterval(long writeInterval) {
+		this.rateLimiter = new RateLimiter(writeInterval);
+	}
+
+	/**
+	 * Writes the exchanges not imported yet. When a chunk fails, the exchanges of its commands that succeeded are
+	 * remembered, so the retries of the chunk and the one by one writes of a fault tolerant step scanning it do not
+	 * import them twice.
+	 */
 	@Override
 	public void write(List<? extends T> exchanges) throws Exception {
+
+		final long started = System.nanoTime();
+		try {
+			final List<T> pending = new ArrayList<T>(exchanges.size());
+			for (T exchange : exchanges) {
+				if (!imported.contains(exchange)) {
+					pending.add(exchange);
+				}
+			}
+			if (!pending.isEmpty()) {
+				doWrite(pending);
+			}
+			for (T exchange : exchanges) {
+				imported.remove(exchange);
+			}
+			if (partitionLog != null) {
+				lineCount += exchanges.size();
+				stepExecution.getExecutionContext().putLong(LINE_COUNT_KEY, lineCount);
+			}
+			ITEMS.add(pending.size());
+		} finally {
+			CHUNK_TIME.recordSince(started);
+		}
+	}
+
+	private void doWrite(List<? extends T> exchanges) throws Exception {
 		
 		symfony.setLogFilePath(this.logFilePath);
 
-		for (T exchange : exchanges) {
+		List<Callable<Void>> commands = batchMode ? batchCommands(exchanges) : itemCommands(exchanges);
+
+		if (concurrency > 1) {
+			runConcurrently(commands);
+		} else {
+			for (Callable<Void> command : commands) {
+				rateLimiter.acquire();
+				command.call();
+			}
+		}
+
+		if (partitionLog != null) {
+			partitionLog.flush();
+		}
+	}
+
+	@Override
+	public void beforeStep(StepExecution stepExecution) {
+		this.stepExecution = stepExecution;
+		if (logWriter != null) {
+			lineCount = stepExecution.getExecutionContext().getLong(LINE_COUNT_KEY, 0L);
+			try {
+				partitionLog = logWriter.open(logFilePath, stepExecution.getStepName());
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not open the log file " + logFilePath, e);
+			}
+		}
+	}
+
+	@Override
+	public ExitStatus afterStep(StepExecution stepExecution) {
+		if (partitionLog != null) {
+			try {
+				partitionLog.close();
+			} catch (IOException e) {
+				logger.warn("Could not flush the log file " + logFilePath, e);
+			}
+			partitionLog = null;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the handler of the output of the exchange at the given index of the chunk, null to log to the file
+	 */
+	private SymfonyOutputHandler outputHandler(int index) {
+		return partitionLog == null ? null : partitionLog.handler(lineCount + index + 1);
+	}
+
+	private List<Callable<Void>> itemCommands(List<? extends T> exchanges) {
+
+		List<Callable<Void>> commands = new ArrayList<Callable<Void>>(exchanges.size());
+
+		for (int i = 0; i < exchanges.size(); i++) {
 
-			 Thread.sleep(6000);
-			String command = "echo" + " " + exchange.toString() + " ";
+			final T exchange = exchanges.get(i);
+			final String command = "echo" + " " + exchange.toString() + " ";
+			final SymfonyOutputHandler handler = outputHandler(i);
 
-			symfony.run(command, this.replyTimeout);	
+			commands.add(new Callable<Void>() {
+				public Void call() throws Exception {
+					if (handler == null) {
+						symfony.run(command, replyTimeout);
+					} else {
+						symfony.run(command, replyTimeout, handler);
+					}
+					imported.add(exchange);
+					return null;
+				}
+			});
 		}
+		return commands;
+	}
+
+	/**
+	 * A sub-batch with failed exchanges fails the chunk once its other exchanges are remembered as imported. A
+	 * retry of the chunk then runs the failed exchanges only, and a fault tolerant step skipping them writes the
+	 * chunk one by one to find them.
+	 * <p/>
+	 * A sub-batch killed on timeout fails the step with a {@link SymfonyBatchTimeoutException}, which is neither
+	 * retried nor skipped: the console does not report the exchanges it imported before it was killed, so they are
+	 * logged as unconfirmed and have to be checked before a restart runs them again.
+	 */
+	private List<Callable<Void>> batchCommands(List<? extends T> exchanges) {
+
+		int size = subBatchSize > 0 ? subBatchSize : exchanges.size();
+		List<Callable<Void>> commands = new ArrayList<Callable<Void>>();
+
+		for (int from = 0; from < exchanges.size(); from += size) {
+
+			final List<? extends T> batch = exchanges.subList(from, Math.min(from + size, exchanges.size()));
+			final List<String> items = new ArrayList<String>(batch.size());
+			for (T exchange : batch) {
+				items.add(exchange.toString());
+			}
+
+			final SymfonyOutputHandler handler = outputHandler(from);
+			final long firstLine = lineCount + from + 1;
+			final long timeout = (batchItemTimeout > 0 ? batchItemTimeout : replyTimeout) * items.size();
+
+			commands.add(new Callable<Void>() {
+				public Void call() throws Exception {
+					SymfonyBatchResult result;
+					try {
+						result = symfony.runBatch(batchCommand, items, timeout, handler);
+					} catch (TimeoutException e) {
+						String message = "Batch run of the " + items.size() + " exchanges from line " + firstLine
+								+ " was killed after " + timeout + " ms, they may be partly imported";
+						logger.error(message + ": " + items);
+						throw new SymfonyBatchTimeoutException(message, items, e);
+					}
+					int firstFailed = -1;
+					for (int i = 0; i < items.size(); i++) {
+						if (!result.isFailed(i)) {
+							imported.add(batch.get(i));
+						} else if (firstFailed < 0) {
+							firstFailed = i;
+						}
+					}
+					if (firstFailed >= 0) {
+						throw new SymfonyBatchException(result.getFailedCount() + " of " + items.size()
+								+ " exchanges failed, first [" + items.get(firstFailed) + "]: "
+								+ result.getFailure(firstFailed), result);
+					}
+					return null;
+				}
+			});
+		}
+		return commands;
+	}
+
+	/**
+	 * Runs the commands with at most {@link #concurrency} of them in flight. Once a command failed the ones
+	 * not yet started are dropped, the first failure is thrown after all started commands have finished.
+	 */
+	private void runConcurrently(List<Callable<Void>> commands) throws Exception {
+
+		ExecutorService executor = executor();
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(commands.size());
 
+		try {
+			for (final Callable<Void> command : commands) {
+				if (failed.get()) {
+					break;
+				}
+				permits.acquire();
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						try {
+							if (!failed.get()) {
+								rateLimiter.acquire();
+								command.call();
+							}
+							return null;
+						} catch (Exception e) {
+							failed.set(true);
+							throw e;
+						} finally {
+							permits.release();
+						}
+					}
+				}));
+			}
+		} finally {
+			Exception failure = null;
+			for (Future<Void> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+					}
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+
+	private synchronized ExecutorService executor() {
+		if (executor == null) {
+			executor = createExecutor(concurrency);
+			permits = new Semaphore(concurrency);
+		}
+		return executor;
+	}
+
+	/**
+	 * Creates a virtual thread per task executor on JDKs that have one, a fixed pool of daemon threads otherwise.
+	 */
+	static ExecutorService createExecutor(int concurrency) {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (NoSuchMethodException e) {
+			logger.debug("No virtual threads, writing on a pool of " + concurrency + " threads");
+		} catch (Exception e) {
+			logger.warn("Virtual threads could not be created, writing on a pool of " + concurrency + " threads", e);
+		}
+		final AtomicInteger count = new AtomicInteger();
+		return Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "exchanges-writer-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	@Override
+	public synchronized void destroy() throws Exception {
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
 	}
 }
@@ -0,0 +1,57 @@
+package com.st.batch.foundation;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+
+import com.st.symfony.GroupCommitLogWriter;
+
+/**
+ * Merges the records the partitions wrote through the {@link GroupCommitLogWriter} into input order once the job
+ * has finished. The merged log is written next to the log file with the suffix <tt>.merged</tt>.
+ * <p/>
+ * The log file has to be on the node running the job, which is the case when the master also consumes the
+ * partitions.
+ */
+public class LogMergeJobListener implements JobExecutionListener {
+
+	private static Log logger = LogFactory.getLog(LogMergeJobListener.class);
+
+	GroupCommitLogWriter logWriter;
+
+	String logFilePath;
+
+	boolean enabled = false;
+
+	public void setLogWriter(GroupCommitLogWriter logWriter) {
+		this.logWriter = logWriter;
+	}
+
+	public void setLogFilePath(String logFilePath) {
+		this.logFilePath = logFilePath;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Override
+	public void beforeJob(JobExecution jobExecution) {
+	}
+
+	@Override
+	public void afterJob(JobExecution jobExecution) {
+		if (!enabled || logWriter == null || !new File(logFilePath).isFile()) {
+			return;
+		}
+		try {
+			logWriter.merge(logFilePath, new File(logFilePath + ".merged"));
+		} catch (IOException e) {
+			logger.warn("Could not merge the log file " + logFilePath, e);
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package com.st.batch.foundation;
+
+/**
+ * Spaces permits at least a fixed interval apart, whatever the number of threads asking for them.
+ * The first permit is granted immediately, an interval of 0 grants all permits immediately.
+ */
+public class RateLimiter {
+
+	private final long interval;
+
+	private long next = 0;
+
+	/**
+	 * @param interval the minimal time between two permits in milliseconds
+	 */
+	public RateLimiter(long interval) {
+		this.interval = interval;
+	}
+
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Blocks until the next permit is due.
+	 */
+	public void acquire() throws InterruptedException {
+		if (interval <= 0) {
+			return;
+		}
+		final long wait = reserve(System.currentTimeMillis());
+		if (wait > 0) {
+			Thread.sleep(wait);
+		}
+	}
+
+	private synchronized long reserve(long now) {
+		final long due = Math.max(next, now);
+		next = due + interval;
+		return due - now;
+	}
+}
@@ -0,0 +1,558 @@
+/*
+ * Copyright 2009-2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.st.symfony;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Collects the console output of concurrent partitions in per-partition buffers and appends them to the
+ * log files with group commit: a single flusher thread writes the pending buffers of all partitions of a
+ * file with one gathering write on the file's only {@link FileChannel}, and every partition waiting for a
+ * flush is released by the same write. The records of a failed write are kept and written first by the next
+ * one, the partitions waiting for the failed write get its error.
+ * <p/>
+ * Each record is a line <tt>&lt;partition&gt;\t&lt;line&gt;\t&lt;text&gt;</tt>, tagged with the partition
+ * name and the number of the item within the partition. Since the records of a partition are appended in
+ * line order, {@link #merge(String, File)} can put the file into input order after the job.
+ * <p/>
+ * A file is opened by the first partition logging to it and closed once the last one has closed its log.
+ */
+public class GroupCommitLogWriter implements InitializingBean, DisposableBean {
+
+	private static Log logger = LogFactory.getLog(GroupCommitLogWriter.class);
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private long flushInterval = 200;
+
+	private int bufferSize = 64 * 1024;
+
+	private boolean sync = false;
+
+	private final Map<String, LogFile> files = new ConcurrentHashMap<String, LogFile>();
+
+	private final Object monitor = new Object();
+
+	private long requested = 0;
+
+	private long attempted = 0;
+
+	private long completed = 0;
+
+	private long failed = 0;
+
+	private IOException failure;
+
+	private volatile boolean running = false;
+
+	private Thread flusher;
+
+	/**
+	 * @param flushInterval the maximal time in milliseconds buffered records wait for a write
+	 */
+	public void setFlushInterval(long flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
+	/**
+	 * @param bufferSize the number of buffered bytes of a partition that triggers a write
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * @param sync whether each group commit forces the written bytes to the storage device
+	 */
+	public void setSync(boolean sync) {
+		this.sync = sync;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		running = true;
+		flusher = new Thread(new Runnable() {
+			public void run() {
+				flushLoop();
+			}
+		}, "log-group-commit");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Opens the log of a partition, records are buffered until the next group commit.
+	 *
+	 * @param path the log file, shared by the partitions
+	 * @param partition the name the records are tagged with
+	 */
+	public PartitionLog open(String path, String partition) throws IOException {
+		LogFile file;
+		synchronized (files) {
+			file = files.get(path);
+			if (file == null) {
+				file = new LogFile(path);
+				files.put(path, file);
+			}
+			file.references++;
+		}
+		final PartitionLog log = new PartitionLog(file, partition);
+		file.partitions.add(log);
+		return log;
+	}
+
+	/**
+	 * Closes the file once no partition logs to it any more.
+	 */
+	private void detach(LogFile file) throws IOException {
+		synchronized (files) {
+			if (--file.references > 0) {
+				return;
+			}
+			files.remove(file.path);
+		}
+		file.close();
+	}
+
+	/**
+	 * Writes the records buffered so far and waits for the write. Fails if the write of these records failed, even
+	 * though they are kept and written again by the next group commit.
+	 */
+	public void flush() throws IOException {
+		synchronized (monitor) {
+			final long target = ++requested;
+			monitor.notifyAll();
+			while (completed < target && failed < target && running) {
+				try {
+					monitor.wait();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for the log flush");
+				}
+			}
+			if (completed < target && failed >= target) {
+				throw failure;
+			}
+		}
+	}
+
+	private void requestFlush() {
+		synchronized (monitor) {
+			requested++;
+			monitor.notifyAll();
+		}
+	}
+
+	private void flushLoop() {
+		while (running) {
+			long target;
+			synchronized (monitor) {
+				if (requested == attempted) {
+					try {
+						monitor.wait(flushInterval);
+					}
+					catch (InterruptedException e) {
+						return;
+					}
+				}
+				target = requested;
+				attempted = target;
+			}
+			IOException error = null;
+			for (LogFile file : files.values()) {
+				try {
+					file.write();
+				}
+				catch (IOException e) {
+					logger.error("Could not write the log file " + file.path, e);
+					error = e;
+				}
+			}
+			synchronized (monitor) {
+				if (error != null) {
+					// the flushes up to the target fail, unless a later write succeeds before they look
+					failure = error;
+					failed = Math.max(failed, target);
+				}
+				else {
+					completed = Math.max(completed, target);
+				}
+				monitor.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Rewrites the log file with the records in input order: partition by partition, ordered by the numbers
+	 * in their names, each in line order. The records of one partition are sorted in memory, records with the
+	 * same line keep their order.
+	 *
+	 * @param path the log file
+	 * @param target the merged file
+	 */
+	public void merge(String path, File target) throws IOException {
+		flush();
+		final File source = new File(path);
+		final Map<String, File> parts = new HashMap<String, File>();
+		final Map<String, Writer> writers = new HashMap<String, Writer>();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(source), UTF_8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final int tab = line.indexOf('\t');
+				final String partition = tab < 0 ? "" : line.substring(0, tab);
+				Writer writer = writers.get(partition);
+				if (writer == null) {
+					final File part = File.createTempFile("merge-", ".log", source.getAbsoluteFile().getParentFile());
+					parts.put(partition, part);
+					writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(part), UTF_8));
+					writers.put(partition, writer);
+				}
+				writer.write(line);
+				writer.write('\n');
+			}
+		}
+		finally {
+			reader.close();
+			for (Writer writer : writers.values()) {
+				writer.close();
+			}
+		}
+		final List<String> partitions = new ArrayList<String>(parts.keySet());
+		Collections.sort(partitions, PARTITION_ORDER);
+		final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(target), UTF_8));
+		try {
+			for (String partition : partitions) {
+				final List<String> records = new ArrayList<String>();
+				final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(
+						parts.get(partition)), UTF_8));
+				try {
+					String record;
+					while ((record = in.readLine()) != null) {
+						records.add(record);
+					}
+				}
+				finally {
+					in.close();
+				}
+				Collections.sort(records, LINE_ORDER);
+				for (String record : records) {
+					out.write(record);
+					out.write('\n');
+				}
+			}
+		}
+		finally {
+			out.close();
+			for (File part : parts.values()) {
+				if (!part.delete()) {
+					part.deleteOnExit();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Orders records of a partition by their line number.
+	 */
+	static final Comparator<String> LINE_ORDER = new Comparator<String>() {
+		public int compare(String a, String b) {
+			final long la = lineOf(a);
+			final long lb = lineOf(b);
+			return la < lb ? -1 : (la == lb ? 0 : 1);
+		}
+
+		private long lineOf(String record) {
+			final int first = record.indexOf('\t');
+			final int second = first < 0 ? -1 : record.indexOf('\t', first + 1);
+			if (second < 0) {
+				return Long.MAX_VALUE;
+			}
+			try {
+				return Long.parseLong(record.substring(first + 1, second));
+			}
+			catch (NumberFormatException e) {
+				return Long.MAX_VALUE;
+			}
+		}
+	};
+
+	/**
+	 * Orders names by their text without the trailing digits, then by the number of the trailing digits.
+	 */
+	static final Comparator<String> PARTITION_ORDER = new Comparator<String>() {
+		public int compare(String a, String b) {
+			final int da = digitsStart(a);
+			final int db = digitsStart(b);
+			final int prefix = a.substring(0, da).compareTo(b.substring(0, db));
+			if (prefix != 0 || da == a.length() || db == b.length()) {
+				return prefix != 0 ? prefix : a.compareTo(b);
+			}
+			final String na = a.substring(da).replaceFirst("^0+(?=.)", "");
+			final String nb = b.substring(db).replaceFirst("^0+(?=.)", "");
+			return na.length() != nb.length() ? na.length() - nb.length() : na.compareTo(nb);
+		}
+
+		private int digitsStart(String s) {
+			int i = s.length();
+			while (i > 0 && Character.isDigit(s.charAt(i - 1))) {
+				i--;
+			}
+			return i;
+		}
+	};
+
+	@Override
+	public void destroy() throws Exception {
+		try {
+			flush();
+		}
+		finally {
+			running = false;
+			synchronized (monitor) {
+				monitor.notifyAll();
+			}
+			if (flusher != null) {
+				flusher.join(flushInterval * 10);
+			}
+			for (LogFile file : files.values()) {
+				file.close();
+			}
+		}
+	}
+
+	/**
+	 * A log file shared by partitions.
+	 */
+	private class LogFile {
+
+		private final String path;
+
+		private final FileChannel channel;
+
+		private final List<PartitionLog> partitions = new CopyOnWriteArrayList<PartitionLog>();
+
+		private final List<ByteBuffer> unwritten = new ArrayList<ByteBuffer>();
+
+		private int references = 0;
+
+		private boolean closed = false;
+
+		LogFile(String path) throws IOException {
+			this.path = path;
+			this.channel = new FileOutputStream(path, true).getChannel();
+		}
+
+		/**
+		 * Called by the flusher thread only. The bytes left by a failed write are written first by the next one.
+		 */
+		synchronized void write() throws IOException {
+			if (closed) {
+				return;
+			}
+			final List<ByteBuffer> pending = new ArrayList<ByteBuffer>(unwritten);
+			unwritten.clear();
+			for (PartitionLog log : partitions) {
+				final ByteBuffer buffer = log.swap();
+				if (buffer != null) {
+					pending.add(buffer);
+				}
+				if (log.closed) {
+					partitions.remove(log);
+				}
+			}
+			if (pending.isEmpty()) {
+				return;
+			}
+			final ByteBuffer[] buffers = pending.toArray(new ByteBuffer[pending.size()]);
+			try {
+				long remaining = 0;
+				for (ByteBuffer buffer : buffers) {
+					remaining += buffer.remaining();
+				}
+				while (remaining > 0) {
+					remaining -= channel.write(buffers);
+				}
+				if (sync) {
+					channel.force(false);
+				}
+			}
+			catch (IOException e) {
+				// keep the buffers, the partitions continue in new ones
+				for (ByteBuffer buffer : buffers) {
+					if (buffer.hasRemaining()) {
+						unwritten.add(buffer);
+					}
+				}
+				throw e;
+			}
+			for (PartitionLog log : partitions) {
+				log.release();
+			}
+		}
+
+		synchronized void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * The buffered records of a partition. Appending is thread safe.
+	 */
+	public class PartitionLog {
+
+		private final LogFile file;
+
+		private final byte[] prefix;
+
+		private byte[] active;
+
+		private byte[] spare;
+
+		private byte[] written;
+
+		private int count = 0;
+
+		private volatile boolean closed = false;
+
+		PartitionLog(LogFile file, String partition) {
+			this.file = file;
+			this.prefix = (partition + "\t").getBytes(UTF_8);
+			this.active = new byte[bufferSize];
+			this.spare = new byte[bufferSize];
+		}
+
+		/**
+		 * Buffers a record.
+		 *
+		 * @param line the number of the item within the partition
+		 * @param text the record text, without a line separator
+		 */
+		public void append(long line, String text) {
+			final byte[] number = (line + "\t").getBytes(UTF_8);
+			final byte[] bytes = text.getBytes(UTF_8);
+			boolean full;
+			synchronized (this) {
+				ensureCapacity(prefix.length + number.length + bytes.length + 1);
+				System.arraycopy(prefix, 0, active, count, prefix.length);
+				count += prefix.length;
+				System.arraycopy(number, 0, active, count, number.length);
+				count += number.length;
+				System.arraycopy(bytes, 0, active, count, bytes.length);
+				count += bytes.length;
+				active[count++] = '\n';
+				full = count >= bufferSize;
+			}
+			if (full) {
+				requestFlush();
+			}
+		}
+
+		/**
+		 * @return a handler appending each output line as a record of the given item
+		 */
+		public SymfonyOutputHandler handler(final long line) {
+			return new SymfonyOutputHandler() {
+				public void handleLine(String text) {
+					append(line, text);
+				}
+			};
+		}
+
+		/**
+		 * Writes the buffered records of all partitions and waits for the write.
+		 */
+		public void flush() throws IOException {
+			GroupCommitLogWriter.this.flush();
+		}
+
+		/**
+		 * Flushes the remaining records and detaches the partition from the file, closed if it was the last one.
+		 */
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			try {
+				flush();
+			}
+			finally {
+				closed = true;
+				detach(file);
+			}
+		}
+
+		private void ensureCapacity(int length) {
+			if (count + length > active.length) {
+				active = Arrays.copyOf(active, Math.max(active.length * 2, count + length));
+			}
+		}
+
+		/**
+		 * Hands the buffered records to the flusher and continues in the spare buffer.
+		 */
+		synchronized ByteBuffer swap() {
+			if (count == 0) {
+				return null;
+			}
+			final ByteBuffer pending = ByteBuffer.wrap(active, 0, count);
+			written = active;
+			active = spare != null ? spare : new byte[bufferSize];
+			spare = null;
+			count = 0;
+			return pending;
+		}
+
+		/**
+		 * Makes the written buffer the spare one again.
+		 */
+		synchronized void release() {
+			if (written != null) {
+				spare = written;
+				written = null;
+			}
+		}
+	}
+}
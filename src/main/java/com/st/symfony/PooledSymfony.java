@@ -0,0 +1,121 @@
+/*
+ * Copyright 2009-2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.st.symfony;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Runs the commands on the long-running processes of a shared {@link SymfonyProcessPool}.
+ * A non zero exit code of a command fails the run.
+ */
+public class PooledSymfony implements SymfonyInt {
+
+	private SymfonyProcessPool pool;
+
+	String logFilePath;
+
+	private String tmpDir;
+
+	public SymfonyProcessPool getPool() {
+		return pool;
+	}
+
+	public void setPool(SymfonyProcessPool pool) {
+		this.pool = pool;
+	}
+
+	public String getLogFilePath() {
+		return logFilePath;
+	}
+
+	public void setLogFilePath(String logFilePath) {
+		this.logFilePath = logFilePath;
+	}
+
+	public String getTmpDir() {
+		return tmpDir;
+	}
+
+	/**
+	 * The directory of the item files of the batch runs, the default temporary directory if not set.
+	 */
+	public void setTmpDir(String tmpDir) {
+		this.tmpDir = tmpDir;
+	}
+
+	public void run(final String command, final long replyTimeout) throws Exception {
+		final int exitCode = pool.execute(command, this.logFilePath, replyTimeout);
+		if (exitCode != 0) {
+			throw new IllegalStateException("Symfony command [" + command + "] exited with " + exitCode);
+		}
+	}
+
+	public void run(final String command, final long replyTimeout, final SymfonyOutputHandler handler)
+			throws Exception {
+		final int exitCode = pool.execute(command, this.logFilePath, replyTimeout, handler);
+		if (exitCode != 0) {
+			throw new IllegalStateException("Symfony command [" + command + "] exited with " + exitCode);
+		}
+	}
+
+	public SymfonyBatchResult runBatch(final String command, final List<String> items,
+			final long replyTimeout) throws Exception {
+		return runBatch(command, items, replyTimeout, null);
+	}
+
+	public SymfonyBatchResult runBatch(final String command, final List<String> items,
+			final long replyTimeout, final SymfonyOutputHandler handler) throws Exception {
+		final SymfonyBatchResult result = new SymfonyBatchResult(items.size());
+		final File file = SymfonyBatchResult.writeItems(items, this.tmpDir);
+		final BufferedWriter log = handler == null
+				? new BufferedWriter(new FileWriter(this.logFilePath, true)) : null;
+		try {
+			result.complete(pool.execute(command + " " + file.getAbsolutePath(), this.logFilePath, replyTimeout,
+					new SymfonyOutputHandler() {
+						public void handleLine(String line) {
+							if (result.accept(line)) {
+								return;
+							}
+							if (handler != null) {
+								handler.handleLine(line);
+								return;
+							}
+							try {
+								log.write(line);
+								log.newLine();
+							}
+							catch (IOException e) {
+								throw new IllegalStateException("Could not write to " + logFilePath, e);
+							}
+						}
+					}));
+		}
+		finally {
+			if (log != null) {
+				log.close();
+			}
+			if (!file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2009-2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.st.symfony;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Kills a process together with the processes it started once it runs longer than a timeout.
+ * <p/>
+ * The descendants are found through <tt>ProcessHandle</tt> where the JDK has it (Java 9 and later), looked
+ * up by reflection; on older JDKs only the process itself is killed.
+ */
+public class ProcessWatchdog {
+
+	private static Log logger = LogFactory.getLog(ProcessWatchdog.class);
+
+	private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "symfony-watchdog");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	static {
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+	private final AtomicBoolean fired = new AtomicBoolean(false);
+
+	private final ScheduledFuture<?> kill;
+
+	/**
+	 * Starts watching the process.
+	 *
+	 * @param process the process to kill
+	 * @param timeout the time in milliseconds after which it is killed, 0 or less to never kill it
+	 */
+	public ProcessWatchdog(final Process process, long timeout) {
+		if (timeout <= 0) {
+			kill = null;
+			return;
+		}
+		kill = timer.schedule(new Runnable() {
+			public void run() {
+				fired.set(true);
+				destroyTree(process);
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops watching the process.
+	 *
+	 * @return true if the process has been killed because of the timeout
+	 */
+	public boolean stop() {
+		if (kill != null) {
+			kill.cancel(false);
+		}
+		return fired.get();
+	}
+
+	/**
+	 * Kills the process and all its descendants.
+	 */
+	public static void destroyTree(Process process) {
+		try {
+			Class<?> handleType = Class.forName("java.lang.ProcessHandle");
+			Object handle = Process.class.getMethod("toHandle").invoke(process);
+			Object descendants = handleType.getMethod("descendants").invoke(handle);
+			Iterator<?> iterator = (Iterator<?>) Class.forName("java.util.stream.BaseStream").getMethod("iterator")
+					.invoke(descendants);
+			Method destroy = handleType.getMethod("destroyForcibly");
+			while (iterator.hasNext()) {
+				destroy.invoke(iterator.next());
+			}
+		}
+		catch (ClassNotFoundException e) {
+			// no ProcessHandle before Java 9, kill the process only
+		}
+		catch (Exception e) {
+			logger.warn("Could not kill the child processes of " + process, e);
+		}
+		try {
+			Process.class.getMethod("destroyForcibly").invoke(process);
+		}
+		catch (Exception e) {
+			// no destroyForcibly before Java 8
+			process.destroy();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2009-2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.st.symfony;
+
+import java.util.List;
+
+/**
+ * Runs no process at all, each command just takes a fixed time and succeeds, so the partitioning and messaging
+ * overhead of a job can be measured without the console.
+ */
+public class StubSymfony implements SymfonyInt {
+
+	private long latency = 0;
+
+	private long itemLatency = 0;
+
+	String logFilePath;
+
+	public long getLatency() {
+		return latency;
+	}
+
+	/**
+	 * The time in milliseconds a command takes.
+	 */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	public long getItemLatency() {
+		return itemLatency;
+	}
+
+	/**
+	 * The additional time in milliseconds a batch run takes per item.
+	 */
+	public void setItemLatency(long itemLatency) {
+		this.itemLatency = itemLatency;
+	}
+
+	public String getLogFilePath() {
+		return logFilePath;
+	}
+
+	public void setLogFilePath(String logFilePath) {
+		this.logFilePath = logFilePath;
+	}
+
+	public void run(String command, long replyTimeout) throws Exception {
+		sleep(latency);
+	}
+
+	public void run(String command, long replyTimeout, SymfonyOutputHandler handler) throws Exception {
+		sleep(latency);
+	}
+
+	public SymfonyBatchResult runBatch(String command, List<String> items, long replyTimeout) throws Exception {
+		return runBatch(command, items, replyTimeout, null);
+	}
+
+	public SymfonyBatchResult runBatch(String command, List<String> items, long replyTimeout,
+			SymfonyOutputHandler handler) throws Exception {
+		sleep(latency + itemLatency * items.size());
+		SymfonyBatchResult result = new SymfonyBatchResult(items.size());
+		result.complete(0);
+		return result;
+	}
+
+	private void sleep(long millis) throws InterruptedException {
+		if (millis > 0) {
+			Thread.sleep(millis);
+		}
+	}
+}
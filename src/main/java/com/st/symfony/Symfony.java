@@ -19,20 +19,67 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.ProcessBuilder.Redirect;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.TimeoutException;
 
-import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.batch.support.metrics.Histogram;
+import org.springframework.batch.support.metrics.MetricRegistry;
+import org.springframework.util.Assert;
 
-public class Symfony implements SymfonyInt{
+/**
+ * Forks a console process per command.
+ * <p/>
+ * A command that runs longer than its reply timeout is killed together with the processes it started, and the
+ * run fails with a {@link TimeoutException}. The output is handled according to the {@link OutputMode}, by default
+ * it is appended to the log file by the operating system without passing through the JVM.
+ * <p/>
+ * The time to fork a process, its execution up to the end of its output, and the wait for its exit after that
+ * are recorded in the <tt>symfony.*</tt> histograms of the {@link MetricRegistry}. With redirected output the
+ * whole run counts as execution.
+ */
+public class Symfony implements SymfonyInt, InitializingBean {
+
+	/**
+	 * What happens to the output of a command.
+	 */
+	public enum OutputMode {
+		/** appended to the log file */
+		LOG,
+		/** dropped */
+		DISCARD,
+		/** the last lines kept in memory for the failure messages */
+		RING_BUFFER,
+		/** passed to the output handler line by line */
+		STREAM
+	}
+
+	private static Log logger = LogFactory.getLog(Symfony.class);
+
+	private static final Histogram FORK_TIME = MetricRegistry.getInstance().histogram("symfony.fork.us");
+
+	private static final Histogram EXECUTION_TIME = MetricRegistry.getInstance().histogram("symfony.execution.us");
+
+	private static final Histogram WAIT_TIME = MetricRegistry.getInstance().histogram("symfony.wait.us");
+
+	private static final File NULL_FILE = new File(
+			System.getProperty("os.name").startsWith("Windows") ? "NUL" : "/dev/null");
 
 	private String dir;
 	private String consolePath;
 	String logFilePath;
+	private String tmpDir;
+	private OutputMode outputMode = OutputMode.LOG;
+	private int ringBufferLines = 100;
+	private SymfonyOutputHandler outputHandler;
 
 	public String getDir() {
 		return dir;
@@ -59,30 +106,222 @@ public class Symfony implements SymfonyInt{
 		this.logFilePath = logFilePath;
 	}
 
+	public String getTmpDir() {
+		return tmpDir;
+	}
+
+	/**
+	 * The directory of the item files of the batch runs, the default temporary directory if not set.
+	 */
+	public void setTmpDir(String tmpDir) {
+		this.tmpDir = tmpDir;
+	}
+
+	public OutputMode getOutputMode() {
+		return outputMode;
+	}
+
+	public void setOutputMode(OutputMode outputMode) {
+		this.outputMode = outputMode;
+	}
+
+	public int getRingBufferLines() {
+		return ringBufferLines;
+	}
+
+	/**
+	 * The number of last output lines kept in {@link OutputMode#RING_BUFFER} mode.
+	 */
+	public void setRingBufferLines(int ringBufferLines) {
+		this.ringBufferLines = ringBufferLines;
+	}
+
+	public SymfonyOutputHandler getOutputHandler() {
+		return outputHandler;
+	}
+
+	/**
+	 * The handler of the output in {@link OutputMode#STREAM} mode, required in that mode.
+	 */
+	public void setOutputHandler(SymfonyOutputHandler outputHandler) {
+		this.outputHandler = outputHandler;
+	}
+
+	public void afterPropertiesSet() {
+		Assert.state(outputMode != OutputMode.STREAM || outputHandler != null,
+				"An output handler must be provided in STREAM output mode");
+	}
 
 	public void run(final String command, final long replyTimeout)
 			throws Exception {
 
-		String[] commands = command.split("\\s+");
+		if (outputMode == OutputMode.STREAM) {
+			Assert.state(outputHandler != null, "An output handler must be provided in STREAM output mode");
+			run(command, replyTimeout, outputHandler);
+			return;
+		}
 
-		ProcessBuilder pb = new ProcessBuilder(commands);
-		File log = new File(this.logFilePath);
+		ProcessBuilder pb = new ProcessBuilder(command.split("\\s+"));
 		pb.redirectErrorStream(true);
-		pb.redirectOutput(Redirect.appendTo(log));
+		if (outputMode == OutputMode.LOG) {
+			pb.redirectOutput(Redirect.appendTo(new File(this.logFilePath)));
+		} else if (outputMode == OutputMode.DISCARD) {
+			pb.redirectOutput(Redirect.appendTo(NULL_FILE));
+		}
+
+		final RingBuffer ring = outputMode == OutputMode.RING_BUFFER ? new RingBuffer(ringBufferLines) : null;
+		int exitCode = execute(pb, command, replyTimeout, ring);
+		if (exitCode != 0 && ring != null) {
+			logger.warn("Command [" + command + "] exited with " + exitCode + ", last output:\n" + ring);
+		}
+	}
+
+	/**
+	 * Runs the command passing its output to the handler, whatever the output mode. The output is dropped if the
+	 * handler is null.
+	 */
+	public void run(final String command, final long replyTimeout, final SymfonyOutputHandler handler)
+			throws Exception {
+
+		ProcessBuilder pb = new ProcessBuilder(command.split("\\s+"));
+		pb.redirectErrorStream(true);
+		if (handler == null) {
+			pb.redirectOutput(Redirect.appendTo(NULL_FILE));
+		}
+		execute(pb, command, replyTimeout, handler);
+	}
+
+	public SymfonyBatchResult runBatch(final String command, final List<String> items,
+			final long replyTimeout) throws Exception {
+		return runBatch(command, items, replyTimeout, null);
+	}
+
+	public SymfonyBatchResult runBatch(final String command, final List<String> items,
+			final long replyTimeout, final SymfonyOutputHandler handler) throws Exception {
+
+		final SymfonyBatchResult result = new SymfonyBatchResult(items.size());
+		File file = SymfonyBatchResult.writeItems(items, this.tmpDir);
+		try {
+			List<String> commands = new ArrayList<String>(Arrays.asList(command.split("\\s+")));
+			commands.add(file.getAbsolutePath());
+
+			ProcessBuilder pb = new ProcessBuilder(commands);
+			pb.redirectErrorStream(true);
+
+			final BufferedWriter log = handler == null
+					? new BufferedWriter(new FileWriter(this.logFilePath, true)) : null;
+			try {
+				result.complete(execute(pb, command, replyTimeout, new SymfonyOutputHandler() {
+					public void handleLine(String line) {
+						if (result.accept(line)) {
+							return;
+						}
+						if (handler != null) {
+							handler.handleLine(line);
+							return;
+						}
+						try {
+							log.write(line);
+							log.newLine();
+						} catch (IOException e) {
+							throw new IllegalStateException("Could not write to " + logFilePath, e);
+						}
+					}
+				}));
+			} finally {
+				if (log != null) {
+					log.close();
+				}
+			}
+		} finally {
+			if (!file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Starts the process and waits for it, killing its process tree once the timeout has passed.
+	 * 
+	 * @param handler the handler of the output, null if the output is redirected: a pipe left unread would block
+	 * the process once full
+	 * @return the exit code
+	 */
+	private int execute(ProcessBuilder pb, String command, long replyTimeout, SymfonyOutputHandler handler)
+			throws Exception {
+
+		final long forking = System.nanoTime();
 		Process p = pb.start();
+		final long started = System.nanoTime();
+		FORK_TIME.record((started - forking) / 1000);
+		ProcessWatchdog watchdog = new ProcessWatchdog(p, replyTimeout);
+		int exitCode;
+		boolean timedOut;
+		try {
+			if (handler == null) {
+				exitCode = p.waitFor();
+				EXECUTION_TIME.recordSince(started);
+			} else {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(
+						p.getInputStream()));
+				try {
+					String line = null;
+					while ((line = reader.readLine()) != null) {
+						handler.handleLine(line);
+					}
+				} finally {
+					reader.close();
+				}
+				final long drained = System.nanoTime();
+				EXECUTION_TIME.record((drained - started) / 1000);
+				exitCode = p.waitFor();
+				WAIT_TIME.recordSince(drained);
+			}
+		} catch (InterruptedException e) {
+			ProcessWatchdog.destroyTree(p);
+			throw e;
+		} finally {
+			timedOut = watchdog.stop();
+		}
+		if (timedOut) {
+			throw new TimeoutException("Command [" + command + "] killed after " + replyTimeout + " ms"
+					+ (handler instanceof RingBuffer ? ", last output:\n" + handler : ""));
+		}
+		return exitCode;
+	}
+
+	/**
+	 * Keeps the last lines of the output.
+	 */
+	static class RingBuffer implements SymfonyOutputHandler {
+
+		private final int size;
 
-		BufferedReader reader = new BufferedReader(new InputStreamReader(
-				p.getInputStream()));
+		private final LinkedList<String> lines = new LinkedList<String>();
 
-		String line = null;
-		StringBuilder output = new StringBuilder();
-		while ((line = reader.readLine()) != null) {
-			System.out.println(line + "\n");
-			output.append(line + "\n");
+		RingBuffer(int size) {
+			this.size = size;
 		}
-		
-		p.waitFor();
 
+		public void handleLine(String line) {
+			if (size <= 0) {
+				return;
+			}
+			if (lines.size() == size) {
+				lines.removeFirst();
+			}
+			lines.addLast(line);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder output = new StringBuilder();
+			for (String line : lines) {
+				output.append(line).append('\n');
+			}
+			return output.toString();
+		}
 	}
 
 }
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2009-2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.st.symfony;
+
+/**
+ * Thrown when items of a batch run failed. A fault tolerant step then writes the items of the chunk one
+ * by one, so only the failed ones are skipped or retried.
+ */
+@SuppressWarnings("serial")
+public class SymfonyBatchException extends RuntimeException {
+
+	private final SymfonyBatchResult result;
+
+	public SymfonyBatchException(String message, SymfonyBatchResult result) {
+		super(message);
+		this.result = result;
+	}
+
+	public SymfonyBatchResult getResult() {
+		return result;
+	}
+
+}
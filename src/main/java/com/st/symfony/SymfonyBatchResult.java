@@ -0,0 +1,133 @@
+/*
+ * Copyright 2009-2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.st.symfony;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * The per-item outcome of a batch run of {@link SymfonyInt#runBatch(String, List, long)}.
+ * <p/>
+ * The console gets the path of a file holding one item per line appended to its command. It reports each
+ * failed item by a status line <tt>#FAILED &lt;index&gt; &lt;message&gt;</tt>, the index being the zero based
+ * line of the item in the file. Exit code 0 without status lines means all items succeeded; a non zero exit
+ * code without status lines fails all items.
+ */
+public class SymfonyBatchResult {
+
+	public static final String FAILED_PREFIX = "#FAILED ";
+
+	private final int itemCount;
+
+	private final String[] failures;
+
+	private int reportedCount = 0;
+
+	private int exitCode = 0;
+
+	public SymfonyBatchResult(int itemCount) {
+		this.itemCount = itemCount;
+		this.failures = new String[itemCount];
+	}
+
+	/**
+	 * Consumes the line if it is a status line.
+	 *
+	 * @param line a line of the console output
+	 * @return true if the line was a status line
+	 */
+	public boolean accept(String line) {
+		if (!line.startsWith(FAILED_PREFIX)) {
+			return false;
+		}
+		final String status = line.substring(FAILED_PREFIX.length()).trim();
+		final int space = status.indexOf(' ');
+		try {
+			final int index = Integer.parseInt(space < 0 ? status : status.substring(0, space));
+			if (index >= 0 && index < itemCount) {
+				if (failures[index] == null) {
+					reportedCount++;
+				}
+				failures[index] = space < 0 ? "failed" : status.substring(space + 1);
+				return true;
+			}
+		}
+		catch (NumberFormatException e) {
+			// not a status line of ours, keep it in the output
+		}
+		return false;
+	}
+
+	/**
+	 * Records the exit code of the console once it has finished.
+	 */
+	public void complete(int exitCode) {
+		this.exitCode = exitCode;
+	}
+
+	public int getItemCount() {
+		return itemCount;
+	}
+
+	public int getExitCode() {
+		return exitCode;
+	}
+
+	public boolean isFailed(int index) {
+		return failures[index] != null || (exitCode != 0 && reportedCount == 0);
+	}
+
+	/**
+	 * @return the failure message of the item, or null if it succeeded
+	 */
+	public String getFailure(int index) {
+		if (failures[index] != null) {
+			return failures[index];
+		}
+		return isFailed(index) ? "batch exited with " + exitCode : null;
+	}
+
+	public int getFailedCount() {
+		return exitCode != 0 && reportedCount == 0 ? itemCount : reportedCount;
+	}
+
+	/**
+	 * Writes the items one per line into a new temporary file.
+	 *
+	 * @param items the items, which must not contain line separators
+	 * @param directory the directory of the file, or null for the default temporary directory
+	 * @return the file, to be deleted by the caller
+	 */
+	static File writeItems(List<String> items, String directory) throws IOException {
+		final File file = File.createTempFile("symfony-batch-", ".txt", directory == null ? null : new File(directory));
+		final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			for (String item : items) {
+				out.write(item);
+				out.write('\n');
+			}
+		}
+		finally {
+			out.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2009-2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.st.symfony;
+
+import java.util.List;
+
+/**
+ * Thrown when a batch run was killed on timeout. The console does not report the items it imported, so the
+ * items of the run are in an unknown state: unlike a {@link SymfonyBatchException} the failure is neither
+ * retried nor skipped, the items have to be checked before the step is restarted.
+ */
+@SuppressWarnings("serial")
+public class SymfonyBatchTimeoutException extends RuntimeException {
+
+	private final List<String> items;
+
+	public SymfonyBatchTimeoutException(String message, List<String> items, Throwable cause) {
+		super(message, cause);
+		this.items = items;
+	}
+
+	/**
+	 * @return the items of the run, which may have been partly imported
+	 */
+	public List<String> getItems() {
+		return items;
+	}
+
+}
@@ -1,9 +1,30 @@
 package com.st.symfony;
 
+import java.util.List;
+
 public interface SymfonyInt {
 
 	void run(String command, long replyTimeout) throws Exception;
 
+	/**
+	 * Runs the command passing its output to the handler instead of the log file.
+	 */
+	void run(String command, long replyTimeout, SymfonyOutputHandler handler) throws Exception;
+
+	/**
+	 * Runs the command once for all items, passing them in a file.
+	 * 
+	 * @see SymfonyBatchResult
+	 */
+	SymfonyBatchResult runBatch(String command, List<String> items, long replyTimeout) throws Exception;
+
+	/**
+	 * Runs the command once for all items, passing the output other than the status lines to the handler
+	 * instead of the log file.
+	 */
+	SymfonyBatchResult runBatch(String command, List<String> items, long replyTimeout, SymfonyOutputHandler handler)
+			throws Exception;
+
 	void setLogFilePath(String logFilePath);
 
 }
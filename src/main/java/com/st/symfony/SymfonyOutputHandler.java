@@ -0,0 +1,10 @@
+package com.st.symfony;
+
+/**
+ * Receives the output of a console run line by line, stdout and stderr merged.
+ */
+public interface SymfonyOutputHandler {
+
+	void handleLine(String line);
+
+}
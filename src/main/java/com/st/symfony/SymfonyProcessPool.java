@@ -0,0 +1,310 @@
+/*
+ * Copyright 2009-2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.st.symfony;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Keeps a pool of long-running Symfony console processes and streams commands to them instead of forking
+ * a process per command.
+ * <p/>
+ * The worker command, e.g. <tt>php app/console batch:worker</tt>, is started in the Symfony directory and
+ * has to read one command per line from its stdin. After each command it prints the output of the command
+ * followed by a reply frame line, <tt>#END &lt;exit code&gt;</tt> by default. The output lines are appended
+ * to the log file of the request, a non zero exit code fails the request.
+ * <p/>
+ * A process that exits, breaks the protocol or does not reply within the timeout is killed and started
+ * again on its next request. So is a process whose reply was not read to its end because the caller was
+ * interrupted or the output handler failed, as its next command would read the rest of that reply. Processes
+ * are also restarted after {@link #setMaxRequestsPerProcess(int) maxRequestsPerProcess} requests to bound
+ * the effect of leaks in the console.
+ */
+public class SymfonyProcessPool implements InitializingBean, DisposableBean {
+
+	private static Log logger = LogFactory.getLog(SymfonyProcessPool.class);
+
+	private static final String END_OF_STREAM = new String("#EOF");
+
+	private String dir;
+
+	private String workerCommand;
+
+	private int poolSize = 6;
+
+	private int maxRequestsPerProcess = 1000;
+
+	private String replyTerminator = "#END ";
+
+	private BlockingQueue<Worker> idle;
+
+	private Worker[] workers;
+
+	public void setDir(String dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * @param workerCommand the command line starting a long-running console process
+	 */
+	public void setWorkerCommand(String workerCommand) {
+		this.workerCommand = workerCommand;
+	}
+
+	/**
+	 * @param poolSize the number of console processes, usually the number of concurrent consumers of the node
+	 */
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+
+	/**
+	 * @param maxRequestsPerProcess the number of requests after which a process is restarted, 0 for no limit
+	 */
+	public void setMaxRequestsPerProcess(int maxRequestsPerProcess) {
+		this.maxRequestsPerProcess = maxRequestsPerProcess;
+	}
+
+	/**
+	 * @param replyTerminator the prefix of the line that ends a reply, followed by the exit code
+	 */
+	public void setReplyTerminator(String replyTerminator) {
+		this.replyTerminator = replyTerminator;
+	}
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		Assert.hasText(workerCommand, "Worker command is required");
+		Assert.isTrue(poolSize > 0, "Pool size must be positive");
+		idle = new LinkedBlockingQueue<Worker>();
+		workers = new Worker[poolSize];
+		for (int i = 0; i < poolSize; i++) {
+			workers[i] = new Worker(i);
+			idle.add(workers[i]);
+		}
+	}
+
+	/**
+	 * Runs the command on an idle process, waiting for one if all are busy.
+	 *
+	 * @param command the command line to send
+	 * @param logFilePath the file the output of the command is appended to
+	 * @param replyTimeout the maximal time in milliseconds to wait for a process and its reply
+	 * @return the exit code of the command
+	 * @throws TimeoutException if no process got idle or the reply did not arrive in time
+	 */
+	public int execute(String command, String logFilePath, long replyTimeout) throws Exception {
+		return execute(command, logFilePath, replyTimeout, null);
+	}
+
+	/**
+	 * Runs the command on an idle process, passing its output to the handler instead of the log file.
+	 *
+	 * @see #execute(String, String, long)
+	 */
+	public int execute(String command, String logFilePath, long replyTimeout, SymfonyOutputHandler handler)
+			throws Exception {
+		final long deadline = System.currentTimeMillis() + replyTimeout;
+		final Worker worker = idle.poll(replyTimeout, TimeUnit.MILLISECONDS);
+		if (worker == null) {
+			throw new TimeoutException("No Symfony process got idle within " + replyTimeout + " ms");
+		}
+		try {
+			return worker.execute(command, logFilePath, deadline, handler);
+		}
+		finally {
+			// the worker either read its reply to the end or has stopped its process
+			idle.add(worker);
+		}
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		if (workers != null) {
+			for (Worker worker : workers) {
+				worker.stop();
+			}
+		}
+	}
+
+	/**
+	 * A pool slot holding one console process at a time.
+	 */
+	private class Worker {
+
+		private final int id;
+
+		private Process process;
+
+		private Writer stdin;
+
+		private BlockingQueue<String> replies;
+
+		private int requests;
+
+		private String logPath;
+
+		private Writer log;
+
+		Worker(int id) {
+			this.id = id;
+		}
+
+		int execute(String command, String logFilePath, long deadline, SymfonyOutputHandler handler)
+				throws Exception {
+			if (process == null) {
+				start();
+			}
+			final Writer output = handler == null ? logFor(logFilePath) : null;
+			// only a process whose reply was read up to its terminator may run the next command
+			boolean terminated = false;
+			try {
+				stdin.write(command);
+				stdin.write('\n');
+				stdin.flush();
+				while (true) {
+					final long remaining = deadline - System.currentTimeMillis();
+					final String line = remaining > 0 ? replies.poll(remaining, TimeUnit.MILLISECONDS) : null;
+					if (line == null) {
+						throw new TimeoutException("Symfony process " + id + " did not reply to [" + command + "] in time");
+					}
+					if (line == END_OF_STREAM) {
+						throw new IOException("Symfony process " + id + " exited while running [" + command + "]");
+					}
+					if (line.startsWith(replyTerminator)) {
+						if (output != null) {
+							output.flush();
+						}
+						final int exitCode = exitCode(line, command);
+						terminated = true;
+						if (maxRequestsPerProcess > 0 && ++requests >= maxRequestsPerProcess) {
+							stop();
+						}
+						return exitCode;
+					}
+					if (handler != null) {
+						handler.handleLine(line);
+					}
+					else {
+						output.write(line);
+						output.write('\n');
+					}
+				}
+			}
+			finally {
+				if (!terminated) {
+					// the rest of the reply is still queued, interrupted or failed in the handler
+					stop();
+				}
+			}
+		}
+
+		private int exitCode(String line, String command) throws IOException {
+			try {
+				return Integer.parseInt(line.substring(replyTerminator.length()).trim());
+			}
+			catch (NumberFormatException e) {
+				throw new IOException("Symfony process " + id + " replied [" + line + "] to [" + command + "]");
+			}
+		}
+
+		private void start() throws IOException {
+			final ProcessBuilder pb = new ProcessBuilder(workerCommand.trim().split("\\s+"));
+			if (dir != null) {
+				pb.directory(new File(dir));
+			}
+			pb.redirectErrorStream(true);
+			process = pb.start();
+			stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
+			replies = new LinkedBlockingQueue<String>();
+			requests = 0;
+			final BufferedReader stdout = new BufferedReader(new InputStreamReader(process.getInputStream()));
+			final BlockingQueue<String> target = replies;
+			final Thread pump = new Thread(new Runnable() {
+				public void run() {
+					try {
+						String line;
+						while ((line = stdout.readLine()) != null) {
+							target.add(line);
+						}
+					}
+					catch (IOException e) {
+						logger.debug("Output of Symfony process " + id + " closed", e);
+					}
+					finally {
+						target.add(END_OF_STREAM);
+					}
+				}
+			}, "symfony-" + id);
+			pump.setDaemon(true);
+			pump.start();
+			logger.info("Started Symfony process " + id + ": " + workerCommand);
+		}
+
+		private Writer logFor(String logFilePath) throws IOException {
+			if (log == null || !logFilePath.equals(logPath)) {
+				if (log != null) {
+					log.close();
+				}
+				log = new BufferedWriter(new FileWriter(logFilePath, true));
+				logPath = logFilePath;
+			}
+			return log;
+		}
+
+		void stop() {
+			if (process != null) {
+				try {
+					stdin.close();
+				}
+				catch (IOException e) {
+					logger.debug("Could not close the input of Symfony process " + id, e);
+				}
+				ProcessWatchdog.destroyTree(process);
+				process = null;
+			}
+			if (log != null) {
+				try {
+					log.close();
+				}
+				catch (IOException e) {
+					logger.warn("Could not close the log file " + logPath, e);
+				}
+				log = null;
+			}
+		}
+	}
+}
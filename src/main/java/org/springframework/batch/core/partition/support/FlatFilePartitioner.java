@@ -16,9 +16,12 @@
 
 package org.springframework.batch.core.partition.support;
 
-import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -26,6 +29,13 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.batch.core.partition.support.Partitioner;
 import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.file.GzipBlockIndex;
+import org.springframework.batch.item.file.LineOffsetIndex;
+import org.springframework.batch.item.file.LineScanner;
+import org.springframework.batch.item.file.QuotedRecordBorderDetector;
+import org.springframework.batch.support.metrics.Histogram;
+import org.springframework.batch.support.metrics.MetricRegistry;
+import org.springframework.batch.support.metrics.StripedCounter;
 import org.springframework.core.io.Resource;
 import org.springframework.util.Assert;
 
@@ -41,17 +51,52 @@ import org.springframework.util.Assert;
  * <tt>startAt</tt> 
  * offset to set cursor at the starting position and a number of items (lines) to read as defined 
  * by the <tt>itemsCount</tt> property.
+ * <p/>
+ * When {@link #setSeekBorders(boolean) seekBorders} is switched on the file is not read through. Instead the
+ * partitioner jumps to each approximate byte border and scans forward to the next line end only, so partitioning
+ * costs O(gridSize &times; line length) rather than O(file size). The number of lines per partition is then unknown:
+ * <tt>itemsCount</tt> and <tt>previousItemsCount</tt> are set to {@link #UNKNOWN_ITEMS_COUNT} and the reader has to
+ * stop at the byte offset given by the <tt>endAt</tt> property.
+ * <p/>
+ * When {@link #setUseLineIndex(boolean) useLineIndex} is switched on the file is read through once to build a
+ * {@link LineOffsetIndex} stored next to it. Later runs, at any grid size, cut the partitions at index entries
+ * with exact <tt>itemsCount</tt> and <tt>previousItemsCount</tt> without reading the data again.
+ * <p/>
+ * Files are scanned through memory-mapped windows by a {@link LineScanner}, which looks for the line
+ * separators eight bytes at a time. Resources that are not files are read through a direct buffer.
+ * <p/>
+ * When {@link #setBorderDetector(QuotedRecordBorderDetector) borderDetector} is set the records may span several
+ * lines within quoted fields. The partitioner seeks to each approximate border as with <tt>seekBorders</tt> and
+ * looks for the next record start by a short speculative parse of the quote state. A border whose quote state is
+ * ambiguous is dropped, the partition extending to the next border, unless the
+ * {@link #setBorderValidator(RecordBorderValidator) borderValidator} accepts it. The readers have to honour the
+ * <tt>endAt</tt> byte offset and read records with a quote-aware record separator policy.
+ * <p/>
+ * Files in gzip format are partitioned by their {@link GzipBlockIndex}, built on the first run and stored next to
+ * them, whatever the other settings. The partitions are cut at the first line end of the block following each
+ * approximate border of the compressed file, so a worker inflates its own blocks only. <tt>startAt</tt> and
+ * <tt>endAt</tt> are then offsets in the inflated data, <tt>blockAt</tt> and <tt>blockOffset</tt> hold the virtual
+ * address of the partition start: the compressed offset of its block and the offset within the inflated block.
+ * The number of lines is not counted. A file of a single gzip member cannot be split.
+ * <p/>
+ * When a {@link #setRangeEnd(long) range} is set only its lines are partitioned, so a worker can split the
+ * <tt>startAt</tt> to <tt>endAt</tt> range of a partition it received again into local partitions.
  *
  * @author Sergey Shcherbakov
  * @author Stephane Nicoll
  */
-public class FlatFilePartitioner implements Partitioner {
+public class FlatFilePartitioner implements Partitioner, InputSizeAware {
 
     /**
      * The {@link ExecutionContext} key name for the number of bytes the partition should skip on startup.
      */
     public static final String DEFAULT_START_AT_KEY = "startAt";
 
+    /**
+     * The {@link ExecutionContext} key name for the byte offset (exclusive) at which the partition ends.
+     */
+    public static final String DEFAULT_END_AT_KEY = "endAt";
+
     /**
      * The {@link ExecutionContext} key name for number of items/lines to read in the partition.
      */
@@ -62,6 +107,18 @@ public class FlatFilePartitioner implements Partitioner {
      */
     public static final String DEFAULT_PREVIOUS_ITEMS_COUNT_KEY = "previousItemsCount";
     
+    /**
+     * The {@link ExecutionContext} key name for the compressed offset of the block holding the partition start,
+     * set for block-compressed files only.
+     */
+    public static final String DEFAULT_BLOCK_AT_KEY = "blockAt";
+
+    /**
+     * The {@link ExecutionContext} key name for the offset of the partition start within its inflated block,
+     * set for block-compressed files only.
+     */
+    public static final String DEFAULT_BLOCK_OFFSET_KEY = "blockOffset";
+
     /**
      * The {@link ExecutionContext} key name for the file resource which has been used for partitioning.
      */
@@ -74,8 +131,15 @@ public class FlatFilePartitioner implements Partitioner {
     
     /**
      * Default buffer size to use when reading the file through during partitioning
+     * @deprecated no longer used, the default buffer size is {@link #DEFAULT_SCAN_BUFFER_SIZE}
      */
+    @Deprecated
     public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    /**
+     * Default buffer size to use when reading the file through during partitioning
+     */
+    public static final int DEFAULT_SCAN_BUFFER_SIZE = 64 * 1024;
     
     /**
      * Default character that breaks input byte stream into lines
@@ -84,19 +148,46 @@ public class FlatFilePartitioner implements Partitioner {
 
     public static final int DEFAULT_LINES_TO_SKIP = 0;
 
+    /**
+     * Buffer size used when scanning forward from a partition border, lines are expected to be much shorter
+     */
+    private static final int BORDER_SCAN_BUFFER_SIZE = 8192;
+
+    /**
+     * The items count put into the {@link ExecutionContext} when the number of lines of a partition is not known
+     */
+    public static final long UNKNOWN_ITEMS_COUNT = -1L;
+
     //private final Logger logger = LoggerFactory.getLogger(FlatFilePartitioner.class);
     private static Log logger = LogFactory.getLog(FlatFilePartitioner.class);
 
+    private static final Histogram SCAN_TIME = MetricRegistry.getInstance().histogram("partitioner.scan.us");
+
+    private static final Histogram SCAN_RATE = MetricRegistry.getInstance().histogram("partitioner.bytesPerSecond");
+
+    private static final StripedCounter SCANNED_BYTES = MetricRegistry.getInstance().counter("partitioner.bytes");
+
     private Resource resource;
 
     private String startAtKeyName = DEFAULT_START_AT_KEY;
+    private String endAtKeyName = DEFAULT_END_AT_KEY;
     private String itemsCountKeyName = DEFAULT_ITEMS_COUNT_KEY;
     private String previousItemsCountKeyName = DEFAULT_PREVIOUS_ITEMS_COUNT_KEY;
     private String resourceKeyName = DEFAULT_RESOURCE_KEY;
     private String partitionPrefix = DEFAULT_PARTITION_PREFIX;
-    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private int bufferSize = DEFAULT_SCAN_BUFFER_SIZE;
     private char lineSeparatorCharacter = DEFAULT_LINE_SEPARATOR_CHAR;
 	private int linesToSkip = DEFAULT_LINES_TO_SKIP;
+	private boolean seekBorders = false;
+	private QuotedRecordBorderDetector borderDetector;
+	private RecordBorderValidator borderValidator;
+	private boolean useLineIndex = false;
+	private int lineIndexInterval = LineOffsetIndex.DEFAULT_INTERVAL;
+	private File lineIndexDirectory;
+	private String blockAtKeyName = DEFAULT_BLOCK_AT_KEY;
+	private String blockOffsetKeyName = DEFAULT_BLOCK_OFFSET_KEY;
+	private long rangeStart = 0;
+	private long rangeEnd = -1;
     
 	/**
 	 * Public setter for the number of lines to skip at the start of a file. Can be used if the file contains a header
@@ -116,6 +207,33 @@ public class FlatFilePartitioner implements Partitioner {
 		this.startAtKeyName = keyName;
 	}
 
+	/**
+	 * The name of the key for the end byte offset in each {@link ExecutionContext}.
+	 * Defaults to "endAt".
+	 * @param keyName the value of the key
+	 */
+	public void setEndAtKeyName(String keyName) {
+		this.endAtKeyName = keyName;
+	}
+
+	/**
+	 * The name of the key for the compressed offset of the first block in each {@link ExecutionContext}.
+	 * Defaults to "blockAt".
+	 * @param keyName the value of the key
+	 */
+	public void setBlockAtKeyName(String keyName) {
+		this.blockAtKeyName = keyName;
+	}
+
+	/**
+	 * The name of the key for the offset within the first inflated block in each {@link ExecutionContext}.
+	 * Defaults to "blockOffset".
+	 * @param keyName the value of the key
+	 */
+	public void setBlockOffsetKeyName(String keyName) {
+		this.blockOffsetKeyName = keyName;
+	}
+
 	/**
 	 * The name of the key for the byte offset in each {@link ExecutionContext}.
 	 * Defaults to "itemsCount".
@@ -152,7 +270,8 @@ public class FlatFilePartitioner implements Partitioner {
 	}
 	
 	/**
-     * The buffer size to use when reading the file through during partitioning
+     * The buffer size to use when reading the file through during partitioning, if it is not a file that can be
+     * memory-mapped. Defaults to {@link #DEFAULT_SCAN_BUFFER_SIZE}.
 	 * @param bufferSize
 	 */
 	public void setBufferSize(int bufferSize) {
@@ -165,6 +284,85 @@ public class FlatFilePartitioner implements Partitioner {
 	public void setLineSeparatorCharacter(char lineSeparatorChar) {
 		this.lineSeparatorCharacter = lineSeparatorChar;
 	}
+
+	/**
+	 * Switches on seek based border detection: the partitioner positions a {@link FileChannel} at each approximate
+	 * partition border and scans forward to the next line separator only, instead of reading the whole file.
+	 * The resource has to be resolvable to a file. Lines are not counted in this mode, readers have to honour the
+	 * <tt>endAt</tt> byte offset. Defaults to false.
+	 * @param seekBorders true to seek to the partition borders
+	 */
+	public void setSeekBorders(boolean seekBorders) {
+		this.seekBorders = seekBorders;
+	}
+
+	/**
+	 * Switches on quote-aware border detection for records spanning several lines: the partitioner seeks to each
+	 * approximate border and lets the detector find the next record start. The resource has to be resolvable to a
+	 * file. Takes precedence over {@link #setSeekBorders(boolean) seekBorders} and
+	 * {@link #setUseLineIndex(boolean) useLineIndex}. Not set by default.
+	 * @param borderDetector the detector of the record starts
+	 */
+	public void setBorderDetector(QuotedRecordBorderDetector borderDetector) {
+		this.borderDetector = borderDetector;
+	}
+
+	/**
+	 * Decides which record borders found by the {@link #setBorderDetector(QuotedRecordBorderDetector) borderDetector}
+	 * cut the partitions. By default the ambiguous borders are dropped.
+	 * @param borderValidator the validator of the borders
+	 */
+	public void setBorderValidator(RecordBorderValidator borderValidator) {
+		this.borderValidator = borderValidator;
+	}
+
+	/**
+	 * Switches on partitioning by a persistent {@link LineOffsetIndex}. The index is built on the first run
+	 * and reused as long as the file size and modification time do not change. Takes precedence over
+	 * {@link #setSeekBorders(boolean) seekBorders}. Defaults to false.
+	 * @param useLineIndex true to partition by the line index
+	 */
+	public void setUseLineIndex(boolean useLineIndex) {
+		this.useLineIndex = useLineIndex;
+	}
+
+	/**
+	 * The byte offset of the first line of the {@link #setRangeEnd(long) range} to partition. Defaults to 0.
+	 * @param rangeStart the byte offset, at a line start
+	 */
+	public void setRangeStart(long rangeStart) {
+		this.rangeStart = rangeStart;
+	}
+
+	/**
+	 * Restricts the partitioning to the lines from {@link #setRangeStart(long) rangeStart} to the given byte offset
+	 * (exclusive), typically the <tt>startAt</tt> and <tt>endAt</tt> of a partition to split again on a worker.
+	 * The range is partitioned by seeking as with {@link #setSeekBorders(boolean) seekBorders}, or by the
+	 * {@link #setBorderDetector(QuotedRecordBorderDetector) borderDetector} if set, no header lines are skipped and
+	 * the items counts are unknown. The resource has to be a plain file. Defaults to -1, for the whole file.
+	 * @param rangeEnd the byte offset, at a line start or at the end of the file
+	 */
+	public void setRangeEnd(long rangeEnd) {
+		this.rangeEnd = rangeEnd;
+	}
+
+	/**
+	 * The number of lines between two entries of a newly built line index, which is also the granularity of
+	 * the partition borders. Defaults to {@link LineOffsetIndex#DEFAULT_INTERVAL}.
+	 * @param lineIndexInterval the number of lines
+	 */
+	public void setLineIndexInterval(int lineIndexInterval) {
+		this.lineIndexInterval = lineIndexInterval;
+	}
+
+	/**
+	 * The directory to store the line and block indexes in. By default the indexes are stored next to the
+	 * partitioned file.
+	 * @param lineIndexDirectory the directory
+	 */
+	public void setLineIndexDirectory(File lineIndexDirectory) {
+		this.lineIndexDirectory = lineIndexDirectory;
+	}
 	
 	public static class LinesCount {
 		private long bytesToSkip;
@@ -189,13 +387,48 @@ public class FlatFilePartitioner implements Partitioner {
      * and then split equality these in each partition. The returned context
      * hold the {@link #DEFAULT_START_AT_KEY} and {@link #DEFAULT_ITEMS_COUNT_KEY} properties
      * defining the number of elements to skip and the number of elements to
-     * read respectively.
+     * read respectively. The {@link #DEFAULT_END_AT_KEY} property holds the byte offset
+     * where the partition ends.
      *
      * @param gridSize the requested size of the grid
      * @return the execution contexts
      * @see #countItems(org.springframework.core.io.Resource)
      */
     public Map<String, ExecutionContext> partition(int gridSize) {
+    	final long started = System.nanoTime();
+    	final Map<String, ExecutionContext> result = createPartitions(gridSize);
+    	final long elapsed = System.nanoTime() - started;
+    	SCAN_TIME.record(elapsed / 1000);
+    	try {
+    		final long bytes = rangeEnd >= 0 ? rangeEnd - rangeStart : resource.contentLength();
+    		SCANNED_BYTES.add(bytes);
+    		SCAN_RATE.record((long) (bytes * 1e9 / Math.max(elapsed, 1)));
+    	}
+    	catch (IOException e) {
+    		logger.debug("Size of [" + resource.getDescription() + "] unknown: " + e.getMessage());
+    	}
+    	return result;
+    }
+
+    /**
+     * @return the size in bytes of the resource, compressed if it is a gzip file, or of the range if one is set, or
+     * {@link InputSizeAware#UNKNOWN_SIZE} if it cannot be read
+     */
+    public long getSizeInBytes() {
+    	checkResource(this.resource);
+    	if (rangeEnd >= 0) {
+    		return rangeEnd - rangeStart;
+    	}
+    	try {
+    		return resource.contentLength();
+    	}
+    	catch (IOException e) {
+    		logger.debug("Size of [" + resource.getDescription() + "] unknown: " + e.getMessage());
+    		return UNKNOWN_SIZE;
+    	}
+    }
+
+    private Map<String, ExecutionContext> createPartitions(int gridSize) {
 		Assert.isTrue(gridSize > 0, "Grid size must be greater than 0");
 
         checkResource(this.resource);
@@ -204,6 +437,15 @@ public class FlatFilePartitioner implements Partitioner {
         }
         try {
 	        final Map<String, ExecutionContext> result = new LinkedHashMap<String, ExecutionContext>();
+
+	        if (rangeEnd >= 0) {
+	        	return partitionRange(gridSize, result);
+	        }
+
+	        final File compressedFile = compressedFileOf(resource);
+	        if (compressedFile != null) {
+	        	return partitionByBlocks(gridSize, compressedFile, result);
+	        }
 	        
 	        final long sizeInBytes = resource.contentLength();
 	        if (sizeInBytes == 0) {
@@ -217,27 +459,45 @@ public class FlatFilePartitioner implements Partitioner {
 	        if (partitionCursor.getBytesPerPartition() == 0) {
 	        	LinesCount linesCount = countItems(resource);
 	            logger.info("Not enough data (" + linesCount.getLinesCount() + ") for the requested gridSize [" + gridSize + "]");
-	            partitionCursor.createPartition( linesCount, result );
+	            partitionCursor.createPartition( linesCount, sizeInBytes, result );
 	            return result;
 	        }
 
+	        if (borderDetector != null) {
+	        	return partitionByRecords(partitionCursor, sizeInBytes, result);
+	        }
+	        if (useLineIndex) {
+	        	return partitionByIndex(partitionCursor, result);
+	        }
+	        if (seekBorders) {
+	        	return partitionBySeeking(partitionCursor, sizeInBytes, result);
+	        }
+
 	        if (logger.isDebugEnabled()) {
 	            logger.debug("Has to split [" + sizeInBytes + "] byte(s) in [" + gridSize + "] " +
 	                    "grid(s) (" + partitionCursor.getBytesPerPartition() + " each)");
 	        }
 
-            final InputStream in = resource.getInputStream();
+            final LineScanner scanner = new LineScanner(lineSeparatorCharacter);
+            final LineScanner.Source source = openSource(resource);
         	try {
-	            final InputStream is = new BufferedInputStream(in);
-				byte[] c = new byte[bufferSize];
 				ByteStreamCursor byteCursor = new ByteStreamCursor(); 
-	            int readChars;
+	            ByteBuffer buffer;
 	            
-	            while ((readChars = is.read(c)) != -1) {
-	                for (int i = 0; i < readChars; ++i) {
-	                	if( byteCursor.lastSeenCharIsNewline( c[i] ) ) {
+	            while ((buffer = source.next()) != null) {
+	            	int from = buffer.position();
+	            	final int to = buffer.limit();
+	                while (from < to) {
+	                	final int found = scanner.indexOf(buffer, from, to);
+	                	if (found < 0) {
+	                		byteCursor.skipBytes(to - from, buffer.get(to - 1));
+	                		from = to;
+	                	}
+	                	else {
+	                		byteCursor.skipLine(found + 1 - from);
+	                		from = found + 1;
 		                	if( byteCursor.getCurrentByteInd() > partitionCursor.getPartitionBorder() ) {
-		                		partitionCursor.createPartition( byteCursor.getLinesCount(), result );
+		                		partitionCursor.createPartition( byteCursor.getLinesCount(), byteCursor.getCurrentByteInd(), result );
 		    	            	byteCursor.startNewPartition();
 		                	}
 	                    }
@@ -247,18 +507,270 @@ public class FlatFilePartitioner implements Partitioner {
 	            	byteCursor.startNewLine();
 	            }
 	            if( byteCursor.outstandingData() ) {
-	            	partitionCursor.createPartition( byteCursor.getLinesCount(), result );
+	            	partitionCursor.createPartition( byteCursor.getLinesCount(), byteCursor.getCurrentByteInd(), result );
 	            }
 		        return result;
         	}
         	finally {
-                in.close();
+                source.close();
         	}
         }
         catch (IOException e) {
             throw new IllegalStateException("Unexpected IO exception while partitioning [" + resource.getDescription() + "]", e);
         }
     }
+
+    /**
+     * Creates the partitions without reading the file through. Skips the header lines or goes to the range start,
+     * then positions the channel at each approximate partition border and scans forward to the next line end.
+     */
+    private Map<String, ExecutionContext> partitionBySeeking(PartitionBorderCursor partitionCursor, long sizeInBytes,
+    		final Map<String, ExecutionContext> result) throws IOException {
+    	final FileChannel channel = new RandomAccessFile(resource.getFile(), "r").getChannel();
+    	try {
+    		final LineScanner scanner = new LineScanner(lineSeparatorCharacter);
+    		final ByteBuffer buffer = ByteBuffer.allocate(Math.min(bufferSize, BORDER_SCAN_BUFFER_SIZE));
+    		long startAt = firstLineAt(channel, scanner, sizeInBytes, buffer);
+    		while (startAt < sizeInBytes) {
+    			final long endAt = findLineEnd(channel, scanner, Math.max(startAt, partitionCursor.getPartitionBorder()), sizeInBytes, buffer);
+    			partitionCursor.createPartition(new LinesCount(startAt, UNKNOWN_ITEMS_COUNT), endAt, result);
+    			startAt = endAt;
+    		}
+    		return result;
+    	}
+    	finally {
+    		channel.close();
+    	}
+    }
+
+    /**
+     * Creates the partitions of records spanning several lines without reading the file through. Skips the header
+     * lines or goes to the range start, then lets the border detector find the record start following each
+     * approximate partition border.
+     */
+    private Map<String, ExecutionContext> partitionByRecords(PartitionBorderCursor partitionCursor, long sizeInBytes,
+    		final Map<String, ExecutionContext> result) throws IOException {
+    	final FileChannel channel = new RandomAccessFile(resource.getFile(), "r").getChannel();
+    	try {
+    		final LineScanner scanner = new LineScanner(lineSeparatorCharacter);
+    		final ByteBuffer buffer = ByteBuffer.allocate(Math.min(bufferSize, BORDER_SCAN_BUFFER_SIZE));
+    		long startAt = firstLineAt(channel, scanner, sizeInBytes, buffer);
+    		while (startAt < sizeInBytes) {
+    			final long border = Math.max(startAt + 1, partitionCursor.getPartitionBorder());
+    			final QuotedRecordBorderDetector.Border found = borderDetector.find(channel, border, sizeInBytes);
+    			final long endAt = found.getOffset();
+    			if (endAt < sizeInBytes && !isValidBorder(border, endAt, found.isAmbiguous())) {
+    				partitionCursor.skipPartitionBorder();
+    				continue;
+    			}
+    			partitionCursor.createPartition(new LinesCount(startAt, UNKNOWN_ITEMS_COUNT), endAt, result);
+    			startAt = endAt;
+    		}
+    		return result;
+    	}
+    	finally {
+    		channel.close();
+    	}
+    }
+
+    /**
+     * Returns the byte offset of the first line to partition: the range start if a range is set, the offset
+     * following the header lines otherwise.
+     */
+    private long firstLineAt(FileChannel channel, LineScanner scanner, long sizeInBytes, ByteBuffer buffer) throws IOException {
+    	if (rangeEnd >= 0) {
+    		return rangeStart;
+    	}
+    	long startAt = 0;
+    	for (int i = 0; i < linesToSkip && startAt < sizeInBytes; i++) {
+    		startAt = findLineEnd(channel, scanner, startAt, sizeInBytes, buffer);
+    	}
+    	return startAt;
+    }
+
+    /**
+     * Splits the range set again, seeking from its start to each approximate border. The partitions are named
+     * after the prefix and do not count their lines.
+     */
+    private Map<String, ExecutionContext> partitionRange(int gridSize, final Map<String, ExecutionContext> result) throws IOException {
+    	Assert.state(compressedFileOf(resource) == null,
+    			"A range of the gzip file [" + resource.getDescription() + "] cannot be partitioned");
+    	Assert.isTrue(rangeStart >= 0 && rangeStart <= rangeEnd, "The range must start at 0 or later and not after its end");
+    	final long sizeInBytes = Math.min(rangeEnd, resource.contentLength());
+    	if (rangeStart >= sizeInBytes) {
+    		logger.info("Empty range of [" + resource.getDescription() + "] no partition will be created.");
+    		return result;
+    	}
+    	final PartitionBorderCursor partitionCursor = new PartitionBorderCursor(gridSize, rangeStart, sizeInBytes - rangeStart,
+    			UNKNOWN_ITEMS_COUNT);
+    	if (logger.isDebugEnabled()) {
+    		logger.debug("Has to split bytes [" + rangeStart + ", " + sizeInBytes + ") in [" + gridSize + "] grid(s)");
+    	}
+    	if (partitionCursor.getBytesPerPartition() == 0) {
+    		partitionCursor.createPartition(new LinesCount(rangeStart, UNKNOWN_ITEMS_COUNT), sizeInBytes, result);
+    		return result;
+    	}
+    	if (borderDetector != null) {
+    		return partitionByRecords(partitionCursor, sizeInBytes, result);
+    	}
+    	return partitionBySeeking(partitionCursor, sizeInBytes, result);
+    }
+
+    private boolean isValidBorder(long border, long recordStart, boolean ambiguous) {
+    	if (borderValidator != null) {
+    		return recordStart > 0 && borderValidator.isValid(resource, border, recordStart, ambiguous);
+    	}
+    	if (ambiguous || recordStart < 0) {
+    		logger.warn("No unambiguous record start found after byte " + border + " of [" + resource.getDescription()
+    				+ "], extending the partition to the next border");
+    		return false;
+    	}
+    	return true;
+    }
+
+    /**
+     * Creates the partitions from the line index. Each partition ends at the first index entry past its
+     * approximate border, so the items counts are exact and only the header lines are read from the file.
+     */
+    private Map<String, ExecutionContext> partitionByIndex(PartitionBorderCursor partitionCursor,
+    		final Map<String, ExecutionContext> result) throws IOException {
+    	final File file = resource.getFile();
+    	final LineOffsetIndex index = LineOffsetIndex.obtain(file, LineOffsetIndex.sidecarFor(file, lineIndexDirectory),
+    			lineIndexInterval, lineSeparatorCharacter);
+    	final FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+    	try {
+    		long startLine = Math.min(linesToSkip, index.getLineCount());
+    		long startAt = index.offsetOfLine(channel, startLine);
+    		while (startLine < index.getLineCount()) {
+    			final int entry = index.higherEntry(Math.max(startAt, partitionCursor.getPartitionBorder()));
+    			final long endAt = entry < index.getEntryCount() ? index.getEntryOffset(entry) : index.getFileSize();
+    			final long endLine = entry < index.getEntryCount() ? index.getEntryLine(entry) : index.getLineCount();
+    			partitionCursor.createPartition(new LinesCount(startAt, endLine - startLine), endAt, result);
+    			startAt = endAt;
+    			startLine = endLine;
+    		}
+    		return result;
+    	}
+    	finally {
+    		channel.close();
+    	}
+    }
+
+    /**
+     * Creates the partitions of a gzip file from its block index. The approximate borders are taken in the
+     * compressed file, each partition ends after the first line end of the block following its border.
+     */
+    private Map<String, ExecutionContext> partitionByBlocks(int gridSize, File file,
+    		final Map<String, ExecutionContext> result) throws IOException {
+    	final GzipBlockIndex index = GzipBlockIndex.obtain(file, GzipBlockIndex.sidecarFor(file, lineIndexDirectory));
+    	final long sizeInBytes = index.getUncompressedSize();
+    	if (sizeInBytes == 0) {
+    		logger.info("Empty input file [" + resource.getDescription() + "] no partition will be created.");
+    		return result;
+    	}
+    	if (logger.isDebugEnabled()) {
+    		logger.debug("Has to split [" + index.getFileSize() + "] compressed byte(s) in " + index.getBlockCount()
+    				+ " block(s) in [" + gridSize + "] grid(s)");
+    	}
+    	final PartitionBorderCursor partitionCursor = new PartitionBorderCursor(gridSize, index.getFileSize());
+    	long startAt = 0;
+    	for (int i = 0; i < linesToSkip && startAt < sizeInBytes; i++) {
+    		startAt = findInflatedLineEnd(index, file, startAt);
+    	}
+    	while (startAt < sizeInBytes) {
+    		final int block = index.ceilingBlock(partitionCursor.getPartitionBorder());
+    		final long endAt = block < index.getBlockCount()
+    				? findInflatedLineEnd(index, file, Math.max(startAt, index.getUncompressedOffset(block)))
+    				: sizeInBytes;
+    		final int startBlock = index.blockOf(startAt);
+    		final ExecutionContext executionContext = partitionCursor.createPartition(
+    				new LinesCount(startAt, UNKNOWN_ITEMS_COUNT), endAt, result);
+    		executionContext.putLong(blockAtKeyName, index.getCompressedOffset(startBlock));
+    		executionContext.putLong(blockOffsetKeyName, startAt - index.getUncompressedOffset(startBlock));
+    		startAt = endAt;
+    	}
+    	return result;
+    }
+
+    /**
+     * Returns the offset in the inflated data just after the first line separator found at or after the
+     * <tt>from</tt> offset, inflating from the block holding it, or the inflated size if the last line is not
+     * terminated.
+     */
+    private long findInflatedLineEnd(GzipBlockIndex index, File file, long from) throws IOException {
+    	final int block = index.blockOf(from);
+    	final InputStream in = index.open(file, block, BORDER_SCAN_BUFFER_SIZE);
+    	try {
+    		long position = index.getUncompressedOffset(block);
+    		final byte[] bytes = new byte[BORDER_SCAN_BUFFER_SIZE];
+    		final byte separator = (byte) lineSeparatorCharacter;
+    		int read;
+    		while ((read = in.read(bytes, 0, bytes.length)) >= 0) {
+    			for (int i = (int) Math.max(0, from - position); i < read; i++) {
+    				if (bytes[i] == separator) {
+    					return position + i + 1;
+    				}
+    			}
+    			position += read;
+    		}
+    		return index.getUncompressedSize();
+    	}
+    	finally {
+    		in.close();
+    	}
+    }
+
+    /**
+     * Returns the file of the resource if it is in gzip format, null otherwise.
+     */
+    private File compressedFileOf(Resource resource) throws IOException {
+    	final File file;
+    	try {
+    		file = resource.getFile();
+    	}
+    	catch (IOException e) {
+    		return null;
+    	}
+    	return file.isFile() && GzipBlockIndex.isGzip(file) ? file : null;
+    }
+
+    /**
+     * Returns the byte offset just after the first line separator found at or after the <tt>from</tt> offset,
+     * or the file size if the last line is not terminated.
+     */
+    static long findLineEnd(FileChannel channel, LineScanner scanner, long from, long sizeInBytes, ByteBuffer buffer) throws IOException {
+    	long position = from;
+    	while (position < sizeInBytes) {
+    		buffer.clear();
+    		final int read = channel.read(buffer, position);
+    		if (read < 0) {
+    			break;
+    		}
+    		final int found = scanner.indexOf(buffer, 0, read);
+    		if (found >= 0) {
+    			return position + found + 1;
+    		}
+    		position += read;
+    	}
+    	return sizeInBytes;
+    }
+
+    /**
+     * Opens the resource for scanning: files are memory-mapped, other resources are read as a stream.
+     */
+    private LineScanner.Source openSource(Resource resource) throws IOException {
+    	File file = null;
+    	try {
+    		file = resource.getFile();
+    	}
+    	catch (IOException e) {
+    		// not available in the file system, read it as a stream
+    	}
+    	if (file != null) {
+    		return LineScanner.Source.map(file, 0, -1, LineScanner.DEFAULT_WINDOW_SIZE);
+    	}
+    	return LineScanner.Source.read(resource.getInputStream(), bufferSize, true);
+    }
     
     /**
      * This is a helper class to simplify the byte stream iterating code.
@@ -276,18 +788,23 @@ public class FlatFilePartitioner implements Partitioner {
         private long currentByteInd = 0L;
         private long startAt = 0;
         
-		public boolean lastSeenCharIsNewline(byte lastSeenChar) {
+		/**
+		 * Moves the cursor over the given number of bytes, none of them being a line separator.
+		 */
+		public void skipBytes(long bytes, byte lastSeenChar) {
 			this.lastSeenChar = lastSeenChar;
-			this.currentByteInd++;
+			this.currentByteInd += bytes;
 			if(skipLineCount > 0) {
-				skipBytesCount++;
+				skipBytesCount += bytes;
 			}
-            // New line is \n on Unix and \r\n on Windows                
-            if (lastSeenChar == lineSeparatorCharacter) {
-            	startNewLine();
-                return true;
-            }
-            return false;
+		}
+
+		/**
+		 * Moves the cursor over the given number of bytes, the last one being the line separator.
+		 */
+		public void skipLine(long bytes) {
+			skipBytes(bytes, (byte) lineSeparatorCharacter);
+			startNewLine();
 		}
 		
 		public void startNewLine() {
@@ -340,13 +857,17 @@ public class FlatFilePartitioner implements Partitioner {
         private long previousItemsCount;
 
     	PartitionBorderCursor(int gridSize, long sizeInBytes) {
+    		this(gridSize, 0, sizeInBytes, 0);
+    	}
+
+    	PartitionBorderCursor(int gridSize, long startAt, long sizeInBytes, long previousItemsCount) {
     		this.gridSize = gridSize;
             this.bytesPerPartition = sizeInBytes / gridSize;
             this.bytesRemainder = sizeInBytes % gridSize;
             this.remainderCounter = this.bytesRemainder;
-            this.partitionBorder = 0;
+            this.partitionBorder = startAt;
             this.partitionIndex = 0;
-            this.previousItemsCount = 0;
+            this.previousItemsCount = previousItemsCount;
 			toNextPartitionBorder();
     	}
 
@@ -358,16 +879,30 @@ public class FlatFilePartitioner implements Partitioner {
 			return this.partitionBorder;
 		}
 		
+		/**
+		 * Moves to the next border without creating a partition.
+		 */
+		public void skipPartitionBorder() {
+			toNextPartitionBorder();
+		}
+
 		private void toNextPartitionBorder() {
 			this.partitionBorder += bytesPerPartition + (remainderCounter-- > 0 ? 1 : 0);
 		}
 		
-		public void createPartition(LinesCount linesCount, final Map<String, ExecutionContext> result) {
+		public ExecutionContext createPartition(LinesCount linesCount, long endAt, final Map<String, ExecutionContext> result) {
 
 			final String partitionName = getPartitionName(gridSize, partitionIndex++);
-			result.put(partitionName, createExecutionContext(partitionName, linesCount.getBytesToSkip(), linesCount.getLinesCount(), previousItemsCount));
-			previousItemsCount += linesCount.getLinesCount();
+			final ExecutionContext executionContext = createExecutionContext(partitionName, linesCount.getBytesToSkip(), endAt, linesCount.getLinesCount(), previousItemsCount);
+			result.put(partitionName, executionContext);
+			if (linesCount.getLinesCount() == UNKNOWN_ITEMS_COUNT || previousItemsCount == UNKNOWN_ITEMS_COUNT) {
+				previousItemsCount = UNKNOWN_ITEMS_COUNT;
+			}
+			else {
+				previousItemsCount += linesCount.getLinesCount();
+			}
 			toNextPartitionBorder();
+			return executionContext;
 		}
 		
 		private String getPartitionName(int gridSize, int partitionIndex) {
@@ -376,11 +911,32 @@ public class FlatFilePartitioner implements Partitioner {
 		}
     }
     
+    /**
+     * Creates the {@link ExecutionContext} of a partition ending at the given byte offset: the context of
+     * {@link #createExecutionContext(String, long, long, long)}, so overrides of it still apply, with the
+     * <tt>endAt</tt> offset added.
+     * @param partitionName the name of the partition
+     * @param startAt the number of bytes for a partition thread to skip before starting reading
+     * @param endAt the byte offset (exclusive) at which the partition ends
+     * @param itemsCount the number of items to read or {@link #UNKNOWN_ITEMS_COUNT}
+     * @param previousItemsCount the number of items in the previous partitions or {@link #UNKNOWN_ITEMS_COUNT}
+     * @return the execution context (output)
+     */
+    protected ExecutionContext createExecutionContext(String partitionName, long startAt, long endAt, long itemsCount, long previousItemsCount) {
+        final ExecutionContext executionContext = createExecutionContext(partitionName, startAt, itemsCount, previousItemsCount);
+        executionContext.putLong(endAtKeyName, endAt);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Partition [" + partitionName + "] ends at byte [" + endAt + "]");
+        }
+        return executionContext;
+    }
+
     /**
      * Creates a standard {@link ExecutionContext} with the specified parameters.
      * @param partitionName the name of the partition
      * @param startAt the number of bytes for a partition thread to skip before starting reading
-     * @param itemsCount the number of items to read
+     * @param itemsCount the number of items to read or {@link #UNKNOWN_ITEMS_COUNT}
+     * @param previousItemsCount the number of items in the previous partitions or {@link #UNKNOWN_ITEMS_COUNT}
      * @return the execution context (output)
      */
     protected ExecutionContext createExecutionContext(String partitionName, long startAt, long itemsCount, long previousItemsCount) {
@@ -407,11 +963,12 @@ public class FlatFilePartitioner implements Partitioner {
      */
     protected LinesCount countItems(Resource resource) {
         try {
-            final InputStream in = resource.getInputStream();
+            final LineScanner.Source source = openSource(resource);
             try {
-                return countLinesAfterSkip(in);
+                final LineScanner.LineCounter counter = new LineScanner(lineSeparatorCharacter).countLines(source, linesToSkip);
+                return new LinesCount(counter.getBytesToSkip(), counter.getLinesCount());
             } finally {
-                in.close();
+                source.close();
             }
         } catch (IOException e) {
             throw new IllegalStateException("Unexpected IO exception while counting items for ["
@@ -419,80 +976,20 @@ public class FlatFilePartitioner implements Partitioner {
         }
     }
     
-    private LinesCount countLinesAfterSkip(InputStream in) throws IOException {
-        final InputStream is = new BufferedInputStream(in);
-        byte[] c = new byte[bufferSize];
-        long count = 0;
-        int readChars;
-        byte lastChar = 0;
-        boolean contentExists = false;
-        long lineSkipCount = linesToSkip;
-        long bytesToSkip = 0;
-        while ((readChars = is.read(c)) != -1) {
-            for (int i = 0; i < readChars; ++i) {
-            	contentExists = true;
-            	lastChar = c[i];
-            	if( lineSkipCount > 0) {
-            		bytesToSkip++;
-            	}
-                // We're dealing with the char here, it's \n on Unix and \r\n on Windows                
-                if (c[i] == DEFAULT_LINE_SEPARATOR_CHAR) {
-                	if( lineSkipCount > 0 ) {
-                		lineSkipCount--;
-                	}
-                	else {
-                		count++;
-                	}
-                }
-            }
-        }
-        // Last line
-        if ( (count > 0 && lastChar != DEFAULT_LINE_SEPARATOR_CHAR) || 						// <-- last line is not empty but is not terminated by '\n'
-        	(count == 0 && lastChar != DEFAULT_LINE_SEPARATOR_CHAR && contentExists) ) {		// <-- the first line is the last line and it's not terminated by '\n'
-        	if( lineSkipCount > 0 ) {
-        		lineSkipCount--;
-        	}
-        	else {
-        		count++;
-        	}
-        }
-        return new LinesCount(bytesToSkip, count);
-    }
-
     /**
      * Returns the number of lines found in the specified stream.
      * <p/>
      * The caller is responsible to close the stream.
      *
-     * Up to 5 times faster than using BufferedReader and up to 2 times faster 
-     * than LineNumberReader.
+     * Looks for the line separators eight bytes at a time with a {@link LineScanner}.
      * 
      * @param in the input stream to use
      * @return the number of lines found in the stream
      * @throws IOException if an error occurred
      */    
     public static long countLines(InputStream in) throws IOException {
-        final InputStream is = new BufferedInputStream(in);
-        byte[] c = new byte[DEFAULT_BUFFER_SIZE];
-        long count = 0;
-        int readChars;
-        byte lastChar = 0;
-        boolean contentExists = false;
-        while ((readChars = is.read(c)) != -1) {
-            for (int i = 0; i < readChars; ++i) {
-            	contentExists = true;
-            	lastChar = c[i];
-                // We're dealing with the char here, it's \n on Unix and \r\n on Windows                
-                if (c[i] == DEFAULT_LINE_SEPARATOR_CHAR)
-                    ++count;
-            }
-        }
-        // Last line
-        if ( (count > 0 && lastChar != DEFAULT_LINE_SEPARATOR_CHAR) || 						// <-- last line is not empty but is not terminated by '\n'
-        	(count == 0 && lastChar != DEFAULT_LINE_SEPARATOR_CHAR && contentExists) ) {		// <-- the first line is the last line and it's not terminated by '\n'
-            count++;
-        }
-        return count;
+        final LineScanner scanner = new LineScanner(DEFAULT_LINE_SEPARATOR_CHAR);
+        return scanner.countLines(LineScanner.Source.read(in, DEFAULT_SCAN_BUFFER_SIZE, false), 0).getLinesCount();
     }
 
     /**
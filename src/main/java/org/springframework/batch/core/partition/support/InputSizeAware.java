@@ -0,0 +1,32 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.batch.core.partition.support;
+
+/**
+ * A partitioner telling the size of its input before partitioning it, so the grid size can be chosen from it.
+ */
+public interface InputSizeAware {
+
+    /**
+     * Size returned when the input cannot be sized.
+     */
+    long UNKNOWN_SIZE = -1L;
+
+    /**
+     * @return the size in bytes of the input as stored, {@link #UNKNOWN_SIZE} if it cannot be determined
+     */
+    long getSizeInBytes();
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.core.partition.support;
+
+import java.util.Map;
+
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Cuts the input into <tt>splitFactor</tt> times more partitions than the grid size, so that the workers
+ * can pull small ranges one after the other instead of one large range each.
+ * <p/>
+ * Meant for a partition handler that queues all partitions at once, such as the
+ * {@link org.springframework.batch.integration.partition.WorkStealingPartitionHandler}: a worker that is done
+ * with its range takes the next one, so a slow worker or an expensive range holds up a small part of the
+ * input only.
+ */
+public class MicroPartitioner implements Partitioner, InputSizeAware, InitializingBean {
+
+    private Partitioner delegate;
+
+    private int splitFactor = 8;
+
+    /**
+     * @param delegate the partitioner cutting the input, e.g. a {@link FlatFilePartitioner}
+     */
+    public void setDelegate(Partitioner delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @param splitFactor the number of partitions per grid slot, 8 by default
+     */
+    public void setSplitFactor(int splitFactor) {
+        this.splitFactor = splitFactor;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(delegate, "Delegate partitioner is required");
+        Assert.isTrue(splitFactor > 0, "Split factor must be positive");
+    }
+
+    /**
+     * @return the size of the delegate's input if it is {@link InputSizeAware}, unknown otherwise
+     */
+    public long getSizeInBytes() {
+        return delegate instanceof InputSizeAware ? ((InputSizeAware) delegate).getSizeInBytes() : UNKNOWN_SIZE;
+    }
+
+    public Map<String, ExecutionContext> partition(int gridSize) {
+        return delegate.partition((int) Math.min((long) gridSize * splitFactor, Integer.MAX_VALUE));
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.core.partition.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.file.FileSegment;
+import org.springframework.batch.item.file.LineScanner;
+import org.springframework.core.io.Resource;
+import org.springframework.util.Assert;
+
+/**
+ * Creates a set of partitions of roughly the same number of bytes over several flat text files, e.g. all the
+ * files matching a resource pattern such as <tt>file:/data/&#42;/exchanges&#42;.txt</tt>.
+ * <p/>
+ * The files are laid end to end and cut at the approximate byte borders, each border moved forward to the next
+ * line end, as with the {@link FlatFilePartitioner#setSeekBorders(boolean) seekBorders} of the
+ * {@link FlatFilePartitioner}. So a large file is split over several partitions and small files are grouped
+ * into one. Each partition's {@link ExecutionContext} holds the list of its {@link FileSegment}s under the
+ * <tt>segments</tt> key, to be read in order by a
+ * {@link org.springframework.batch.item.file.MultiResourceSegmentItemReader}. The number of lines of a segment
+ * is not counted, the readers stop at the segment's end offset.
+ * <p/>
+ * The resources have to resolve to files. The header lines given by {@link #setLinesToSkip(int) linesToSkip}
+ * are skipped at the start of every file.
+ */
+public class MultiResourceFlatFilePartitioner implements Partitioner, InputSizeAware {
+
+    /**
+     * The {@link ExecutionContext} key name for the segments of a partition.
+     */
+    public static final String DEFAULT_SEGMENTS_KEY = "segments";
+
+    /**
+     * Buffer size used when scanning forward from a partition border, lines are expected to be much shorter
+     */
+    private static final int BORDER_SCAN_BUFFER_SIZE = 8192;
+
+    private static Log logger = LogFactory.getLog(MultiResourceFlatFilePartitioner.class);
+
+    private Resource[] resources;
+
+    private String segmentsKeyName = DEFAULT_SEGMENTS_KEY;
+
+    private String partitionPrefix = FlatFilePartitioner.DEFAULT_PARTITION_PREFIX;
+
+    private char lineSeparatorCharacter = FlatFilePartitioner.DEFAULT_LINE_SEPARATOR_CHAR;
+
+    private int linesToSkip = FlatFilePartitioner.DEFAULT_LINES_TO_SKIP;
+
+    /**
+     * Sets the input files, in the order they are read.
+     *
+     * @param resources the resources to partition
+     */
+    public void setResources(Resource[] resources) {
+        this.resources = resources;
+    }
+
+    /**
+     * The name of the key for the segments in each {@link ExecutionContext}.
+     * Defaults to "segments".
+     * @param keyName the value of the key
+     */
+    public void setSegmentsKeyName(String keyName) {
+        this.segmentsKeyName = keyName;
+    }
+
+    /**
+     * The prefix used to prepend each generated partition name
+     * @param prefix
+     */
+    public void setPartitionPrefix(String prefix) {
+        this.partitionPrefix = prefix;
+    }
+
+    /**
+     * Sets the character that breaks input byte stream into lines
+     */
+    public void setLineSeparatorCharacter(char lineSeparatorChar) {
+        this.lineSeparatorCharacter = lineSeparatorChar;
+    }
+
+    /**
+     * Public setter for the number of header lines to skip at the start of each file.
+     *
+     * @param linesToSkip the number of lines to skip
+     */
+    public void setLinesToSkip(int linesToSkip) {
+        this.linesToSkip = linesToSkip;
+    }
+
+    /**
+     * @return the total size in bytes of the files, headers included, or {@link InputSizeAware#UNKNOWN_SIZE} if
+     * one of them cannot be read
+     */
+    public long getSizeInBytes() {
+        Assert.notNull(resources, "Resources are not set");
+        long total = 0;
+        for (Resource resource : resources) {
+            try {
+                total += resource.contentLength();
+            }
+            catch (IOException e) {
+                logger.debug("Size of [" + resource.getDescription() + "] unknown: " + e.getMessage());
+                return UNKNOWN_SIZE;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Creates at most <tt>gridSize</tt> partitions. There are less when the files hold fewer lines.
+     *
+     * @param gridSize the requested size of the grid
+     * @return the execution contexts
+     */
+    public Map<String, ExecutionContext> partition(int gridSize) {
+        Assert.isTrue(gridSize > 0, "Grid size must be greater than 0");
+        Assert.notNull(resources, "Resources are not set");
+
+        final Map<String, ExecutionContext> result = new LinkedHashMap<String, ExecutionContext>();
+        final LineScanner scanner = new LineScanner(lineSeparatorCharacter);
+        final ByteBuffer buffer = ByteBuffer.allocate(BORDER_SCAN_BUFFER_SIZE);
+
+        final List<File> files = new ArrayList<File>(resources.length);
+        final List<FileSegment> data = new ArrayList<FileSegment>(resources.length);
+        long totalBytes = 0;
+        for (Resource resource : resources) {
+            final File file = fileOf(resource);
+            final FileSegment segment = dataOf(file, scanner, buffer);
+            if (segment.getLength() > 0) {
+                files.add(file);
+                data.add(segment);
+                totalBytes += segment.getLength();
+            }
+        }
+        if (totalBytes == 0) {
+            logger.info("No data in the " + resources.length + " input file(s), no partition will be created.");
+            return result;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Has to split [" + totalBytes + "] byte(s) of " + files.size() + " file(s) in ["
+                    + gridSize + "] grid(s)");
+        }
+
+        try {
+            List<FileSegment> segments = new ArrayList<FileSegment>();
+            int partitionIndex = 0;
+            long consumed = 0;
+            long border = borderOf(consumed, totalBytes, gridSize);
+            for (int i = 0; i < files.size(); i++) {
+                final FileSegment file = data.get(i);
+                final FileChannel channel = new RandomAccessFile(files.get(i), "r").getChannel();
+                try {
+                    long startAt = file.getStartAt();
+                    while (startAt < file.getEndAt()) {
+                        final boolean last = partitionIndex == gridSize - 1;
+                        long endAt = file.getEndAt();
+                        if (!last && consumed + endAt - startAt > border) {
+                            endAt = FlatFilePartitioner.findLineEnd(channel, scanner,
+                                    startAt + border - consumed, file.getEndAt(), buffer);
+                        }
+                        segments.add(new FileSegment(file.getLocation(), startAt, endAt,
+                                FlatFilePartitioner.UNKNOWN_ITEMS_COUNT));
+                        consumed += endAt - startAt;
+                        startAt = endAt;
+                        if (!last && consumed >= border) {
+                            createPartition(gridSize, partitionIndex++, segments, result);
+                            segments = new ArrayList<FileSegment>();
+                            border = borderOf(consumed, totalBytes, gridSize - partitionIndex);
+                        }
+                    }
+                }
+                finally {
+                    channel.close();
+                }
+            }
+            if (!segments.isEmpty()) {
+                createPartition(gridSize, partitionIndex, segments, result);
+            }
+            return result;
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Unexpected IO exception while partitioning " + files, e);
+        }
+    }
+
+    /**
+     * The approximate byte border of the next partition, sharing the remaining bytes evenly among the remaining
+     * partitions, so a partition grown by a long line at its border does not shift the ones after it.
+     */
+    private static long borderOf(long consumed, long totalBytes, int partitions) {
+        return consumed + Math.max(1, (totalBytes - consumed + partitions - 1) / partitions);
+    }
+
+    private static File fileOf(Resource resource) {
+        if (!resource.exists() || !resource.isReadable()) {
+            throw new IllegalStateException("Input resource must exist and be readable: " + resource);
+        }
+        try {
+            return resource.getFile();
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("File could not be located for: " + resource, e);
+        }
+    }
+
+    /**
+     * Returns the part of the file after its header lines.
+     */
+    private FileSegment dataOf(File file, LineScanner scanner, ByteBuffer buffer) {
+        try {
+            final long sizeInBytes = file.length();
+            final FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+            try {
+                long startAt = 0;
+                for (int i = 0; i < linesToSkip && startAt < sizeInBytes; i++) {
+                    startAt = FlatFilePartitioner.findLineEnd(channel, scanner, startAt, sizeInBytes, buffer);
+                }
+                return new FileSegment("file:" + file.getPath(), startAt, sizeInBytes,
+                        FlatFilePartitioner.UNKNOWN_ITEMS_COUNT);
+            }
+            finally {
+                channel.close();
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Unexpected IO exception while reading [" + file + "]", e);
+        }
+    }
+
+    private void createPartition(int gridSize, int partitionIndex, List<FileSegment> segments,
+            final Map<String, ExecutionContext> result) {
+        final String partitionName = partitionPrefix
+                + String.format("%0" + String.valueOf(gridSize).length() + "d", partitionIndex);
+        final ExecutionContext executionContext = new ExecutionContext();
+        executionContext.putString(segmentsKeyName, FileSegment.format(segments));
+        result.put(partitionName, executionContext);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Added partition [" + partitionName + "] with " + segments);
+        }
+    }
+}
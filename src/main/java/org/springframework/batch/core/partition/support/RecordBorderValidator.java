@@ -0,0 +1,35 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.core.partition.support;
+
+import org.springframework.core.io.Resource;
+
+/**
+ * Decides whether the {@link FlatFilePartitioner} may cut a partition at a record border found by quote-aware
+ * border detection.
+ */
+public interface RecordBorderValidator {
+
+    /**
+     * @param resource the partitioned resource
+     * @param approximateBorder the byte offset the border was searched from
+     * @param recordStart the byte offset of the record start found
+     * @param ambiguous true if the quote state at the border could not be established
+     * @return true to cut the partition at the record start, false to extend the partition to the next border
+     */
+    boolean isValid(Resource resource, long approximateBorder, long recordStart, boolean ambiguous);
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.core.repository.dao;
+
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+
+/**
+ * Encodes bytes in the padded Base64 alphabet of RFC 4648, on any JDK: the encoders of <tt>javax.xml.bind</tt>
+ * are gone from Java 11 and <tt>java.util.Base64</tt> only came with Java 8.
+ */
+final class Base64Codec {
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .toCharArray();
+
+    private static final int[] VALUES = new int[128];
+
+    static {
+        Arrays.fill(VALUES, -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = i;
+        }
+    }
+
+    private Base64Codec() {
+    }
+
+    static String encode(byte[] bytes) {
+        final StringBuilder text = new StringBuilder((bytes.length + 2) / 3 * 4);
+        for (int i = 0; i < bytes.length; i += 3) {
+            final int remaining = bytes.length - i;
+            final int group = (bytes[i] & 0xff) << 16 | (remaining > 1 ? (bytes[i + 1] & 0xff) << 8 : 0)
+                    | (remaining > 2 ? bytes[i + 2] & 0xff : 0);
+            text.append(ALPHABET[group >>> 18]).append(ALPHABET[group >>> 12 & 0x3f]);
+            text.append(remaining > 1 ? ALPHABET[group >>> 6 & 0x3f] : '=');
+            text.append(remaining > 2 ? ALPHABET[group & 0x3f] : '=');
+        }
+        return text.toString();
+    }
+
+    /**
+     * @throws StreamCorruptedException if the text is not padded Base64
+     */
+    static byte[] decode(String text) throws StreamCorruptedException {
+        if (text.length() % 4 != 0) {
+            throw new StreamCorruptedException("Base64 text of " + text.length() + " characters");
+        }
+        int padding = 0;
+        while (padding < 2 && padding < text.length() && text.charAt(text.length() - 1 - padding) == '=') {
+            padding++;
+        }
+        final byte[] bytes = new byte[text.length() / 4 * 3 - padding];
+        int length = 0;
+        for (int i = 0; i < text.length(); i += 4) {
+            int group = 0;
+            for (int j = 0; j < 4; j++) {
+                final char c = text.charAt(i + j);
+                final int value = c == '=' && i + j >= text.length() - padding ? 0 : c < 128 ? VALUES[c] : -1;
+                if (value < 0) {
+                    throw new StreamCorruptedException("Not a Base64 character at " + (i + j));
+                }
+                group = group << 6 | value;
+            }
+            for (int shift = 16; shift >= 0 && length < bytes.length; shift -= 8) {
+                bytes[length++] = (byte) (group >>> shift);
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.core.repository.dao;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the compact binary format written by {@link CompactDataOutput}.
+ */
+public class CompactDataInput {
+
+    private final InputStream in;
+
+    private final List<String> keys = new ArrayList<String>(Arrays.asList(CompactDataOutput.KEYS));
+
+    /**
+     * @param in the stream to read from, not closed by this reader
+     */
+    public CompactDataInput(InputStream in) {
+        this.in = in;
+    }
+
+    public int readByte() throws IOException {
+        final int value = in.read();
+        if (value < 0) {
+            throw new EOFException();
+        }
+        return value;
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public long readUnsignedVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = readByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Malformed varint");
+    }
+
+    public long readVarLong() throws IOException {
+        final long value = readUnsignedVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public Long readNullableLong() throws IOException {
+        return readBoolean() ? readVarLong() : null;
+    }
+
+    public Date readDate() throws IOException {
+        final Long time = readNullableLong();
+        return time == null ? null : new Date(time);
+    }
+
+    public String readString() throws IOException {
+        final long length = readUnsignedVarLong();
+        if (length == 0) {
+            return null;
+        }
+        return new String(readFully((int) (length - 1)), CompactDataOutput.UTF_8);
+    }
+
+    public String readKey() throws IOException {
+        final long index = readUnsignedVarLong();
+        if (index == 0) {
+            final String key = readString();
+            keys.add(key);
+            return key;
+        }
+        if (index > keys.size()) {
+            throw new StreamCorruptedException("Unknown key " + index);
+        }
+        return keys.get((int) index - 1);
+    }
+
+    public Object readValue() throws IOException {
+        final int tag = readByte();
+        switch (tag) {
+        case CompactDataOutput.NULL:
+            return null;
+        case CompactDataOutput.STRING:
+            return readString();
+        case CompactDataOutput.LONG:
+            return readVarLong();
+        case CompactDataOutput.INT:
+            return (int) readVarLong();
+        case CompactDataOutput.DOUBLE:
+            return Double.longBitsToDouble(readRawLong());
+        case CompactDataOutput.TRUE:
+            return Boolean.TRUE;
+        case CompactDataOutput.FALSE:
+            return Boolean.FALSE;
+        case CompactDataOutput.DATE:
+            return new Date(readVarLong());
+        case CompactDataOutput.OBJECT:
+            final ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(
+                    readFully((int) readUnsignedVarLong())));
+            try {
+                return objects.readObject();
+            }
+            catch (ClassNotFoundException e) {
+                throw new StreamCorruptedException("Unknown class of a value: " + e.getMessage());
+            }
+            finally {
+                objects.close();
+            }
+        default:
+            throw new StreamCorruptedException("Unknown value tag " + tag);
+        }
+    }
+
+    public Map<String, Object> readMap() throws IOException {
+        final int size = (int) readUnsignedVarLong();
+        final Map<String, Object> map = new HashMap<String, Object>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            final String key = readKey();
+            map.put(key, readValue());
+        }
+        return map;
+    }
+
+    private long readRawLong() throws IOException {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | readByte();
+        }
+        return value;
+    }
+
+    private byte[] readFully(int length) throws IOException {
+        final byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            final int n = in.read(bytes, read, length - read);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            read += n;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.core.repository.dao;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the compact binary format read by {@link CompactDataInput}: integers as variable length zigzag encoded
+ * varints, strings as their UTF-8 bytes preceded by their length, and maps of execution context keys with the
+ * keys interned, so that a key is written in full only once per stream and as a small number afterwards.
+ * <p/>
+ * The key table starts with the {@link #KEYS well-known keys} of the partitioned steps, so their contexts hold
+ * no key strings at all. Values of other types than the ones with a tag of their own are written by Java
+ * serialization.
+ */
+public class CompactDataOutput {
+
+    /**
+     * The keys every key table starts with. Keys may only be appended, any other change breaks the data written
+     * before.
+     */
+    static final String[] KEYS = { "startAt", "endAt", "itemsCount", "previousItemsCount", "resource", "segments",
+            "blockAt", "blockOffset", "batch.taskletType", "batch.stepType", "batch.restart",
+            "MultiThreadedFlatFileItemReader.read.count", "MultiThreadedFlatFileItemReader.read.count.max",
+            "MultiThreadedFlatFileItemReader.start.at", "MultiThreadedFlatFileItemReader.position",
+            "MappedFlatFileItemReader.read.count", "MappedFlatFileItemReader.read.count.max",
+            "MappedFlatFileItemReader.start.at", "MappedFlatFileItemReader.position",
+            "MultiResourceSegmentItemReader.segment.index", "MultiResourceSegmentItemReader.delegate.read.count",
+            "MultiResourceSegmentItemReader.delegate.read.count.max",
+            "MultiResourceSegmentItemReader.delegate.start.at", "MultiResourceSegmentItemReader.delegate.position",
+            "ImportExchangesItemWriter.line.count" };
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final int NULL = 0;
+    static final int STRING = 1;
+    static final int LONG = 2;
+    static final int INT = 3;
+    static final int DOUBLE = 4;
+    static final int TRUE = 5;
+    static final int FALSE = 6;
+    static final int DATE = 7;
+    static final int OBJECT = 8;
+
+    private final OutputStream out;
+
+    private final Map<String, Integer> keys = new HashMap<String, Integer>();
+
+    /**
+     * @param out the stream to write to, not closed by this writer
+     */
+    public CompactDataOutput(OutputStream out) {
+        this.out = out;
+        for (String key : KEYS) {
+            keys.put(key, keys.size() + 1);
+        }
+    }
+
+    public void writeByte(int value) throws IOException {
+        out.write(value);
+    }
+
+    public void writeBoolean(boolean value) throws IOException {
+        out.write(value ? 1 : 0);
+    }
+
+    /**
+     * Writes an unsigned varint, 7 bits per byte, the low bits first.
+     */
+    public void writeUnsignedVarLong(long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Writes a signed varint, zigzag encoded so that small negative values stay short.
+     */
+    public void writeVarLong(long value) throws IOException {
+        writeUnsignedVarLong((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Writes a nullable long, preceded by a byte telling whether it is null.
+     */
+    public void writeNullableLong(Long value) throws IOException {
+        writeBoolean(value != null);
+        if (value != null) {
+            writeVarLong(value);
+        }
+    }
+
+    public void writeDate(Date value) throws IOException {
+        writeNullableLong(value == null ? null : value.getTime());
+    }
+
+    /**
+     * Writes a nullable string, its length shifted by one so that 0 stands for null.
+     */
+    public void writeString(String value) throws IOException {
+        if (value == null) {
+            out.write(0);
+            return;
+        }
+        final byte[] bytes = value.getBytes(UTF_8);
+        writeUnsignedVarLong(bytes.length + 1L);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes a key by its index in the key table, or in full if it is not in the table yet, adding it.
+     */
+    public void writeKey(String key) throws IOException {
+        final Integer index = keys.get(key);
+        if (index != null) {
+            writeUnsignedVarLong(index);
+            return;
+        }
+        out.write(0);
+        writeString(key);
+        keys.put(key, keys.size() + 1);
+    }
+
+    /**
+     * Writes a value preceded by its type tag.
+     */
+    public void writeValue(Object value) throws IOException {
+        if (value == null) {
+            out.write(NULL);
+        }
+        else if (value instanceof String) {
+            out.write(STRING);
+            writeString((String) value);
+        }
+        else if (value instanceof Long) {
+            out.write(LONG);
+            writeVarLong((Long) value);
+        }
+        else if (value instanceof Integer) {
+            out.write(INT);
+            writeVarLong((Integer) value);
+        }
+        else if (value instanceof Double) {
+            out.write(DOUBLE);
+            writeRawLong(Double.doubleToLongBits((Double) value));
+        }
+        else if (value instanceof Boolean) {
+            out.write((Boolean) value ? TRUE : FALSE);
+        }
+        else if (value.getClass() == Date.class) {
+            out.write(DATE);
+            writeVarLong(((Date) value).getTime());
+        }
+        else {
+            out.write(OBJECT);
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final ObjectOutputStream objects = new ObjectOutputStream(bytes);
+            objects.writeObject(value);
+            objects.close();
+            writeUnsignedVarLong(bytes.size());
+            bytes.writeTo(out);
+        }
+    }
+
+    /**
+     * Writes the number of entries followed by the interned keys and tagged values.
+     */
+    public void writeMap(Map<String, Object> map) throws IOException {
+        writeUnsignedVarLong(map.size());
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            writeKey(entry.getKey());
+            writeValue(entry.getValue());
+        }
+    }
+
+    private void writeRawLong(long value) throws IOException {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+}
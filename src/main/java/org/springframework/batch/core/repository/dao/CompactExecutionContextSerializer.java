@@ -0,0 +1,79 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.core.repository.dao;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import org.springframework.batch.core.repository.ExecutionContextSerializer;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.FileCopyUtils;
+
+/**
+ * An {@link ExecutionContextSerializer} writing the contexts in the compact binary format of
+ * {@link CompactDataOutput}, a partition's context taking a few dozen bytes instead of the few hundred of the
+ * XStream JSON format.
+ * <p/>
+ * The serialized context is stored in a text column, so the binary form is Base64 encoded behind a format
+ * marker. Contexts without the marker, written before the switch, are read by the
+ * {@link #setFallback(ExecutionContextSerializer) fallback}, an {@link XStreamExecutionContextStringSerializer}
+ * by default.
+ */
+public class CompactExecutionContextSerializer implements ExecutionContextSerializer, InitializingBean {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final String MARKER = "~1";
+
+    private ExecutionContextSerializer fallback;
+
+    /**
+     * @param fallback reads the contexts not written by this serializer
+     */
+    public void setFallback(ExecutionContextSerializer fallback) {
+        this.fallback = fallback;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        if (fallback == null) {
+            final XStreamExecutionContextStringSerializer xstream = new XStreamExecutionContextStringSerializer();
+            xstream.afterPropertiesSet();
+            fallback = xstream;
+        }
+    }
+
+    public void serialize(Map<String, Object> context, OutputStream out) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        new CompactDataOutput(bytes).writeMap(context);
+        out.write((MARKER + Base64Codec.encode(bytes.toByteArray())).getBytes(ASCII));
+    }
+
+    public Map<String, Object> deserialize(InputStream in) throws IOException {
+        final byte[] serialized = FileCopyUtils.copyToByteArray(in);
+        final String text = new String(serialized, ASCII);
+        if (!text.startsWith(MARKER)) {
+            return fallback.deserialize(new ByteArrayInputStream(serialized));
+        }
+        final byte[] bytes = Base64Codec.decode(text.substring(MARKER.length()));
+        return new CompactDataInput(new ByteArrayInputStream(bytes)).readMap();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.core.repository.support;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.repository.ExecutionContextSerializer;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+/**
+ * Sets the {@link ExecutionContextSerializer} of the job repository, job explorer and any other bean with a
+ * writable <tt>serializer</tt> property of that type before it is initialized, so the beans defined by Spring
+ * Batch Admin store and read the execution contexts with the same serializer without being redefined.
+ * <p/>
+ * Does nothing without a {@link #setSerializer(ExecutionContextSerializer) serializer}.
+ */
+public class ExecutionContextSerializerPostProcessor implements BeanPostProcessor {
+
+    private static Log logger = LogFactory.getLog(ExecutionContextSerializerPostProcessor.class);
+
+    private static final String SERIALIZER_PROPERTY = "serializer";
+
+    private ExecutionContextSerializer serializer;
+
+    /**
+     * @param serializer the serializer to set, null to keep the defaults
+     */
+    public void setSerializer(ExecutionContextSerializer serializer) {
+        this.serializer = serializer;
+    }
+
+    public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+        if (serializer == null || bean == serializer) {
+            return bean;
+        }
+        final BeanWrapper wrapper = new BeanWrapperImpl(bean);
+        if (wrapper.isWritableProperty(SERIALIZER_PROPERTY)
+                && ExecutionContextSerializer.class.equals(wrapper.getPropertyType(SERIALIZER_PROPERTY))) {
+            wrapper.setPropertyValue(SERIALIZER_PROPERTY, serializer);
+            logger.info("Execution contexts of " + beanName + " serialized by "
+                    + serializer.getClass().getSimpleName());
+        }
+        return bean;
+    }
+
+    public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+        return bean;
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.core.repository.support;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobExecutionAlreadyRunningException;
+import org.springframework.batch.core.repository.JobInstanceAlreadyCompleteException;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.repository.JobRestartException;
+import org.springframework.batch.support.metrics.Histogram;
+import org.springframework.batch.support.metrics.MetricRegistry;
+import org.springframework.batch.support.metrics.StripedCounter;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link JobRepository} deferring the updates of running step executions, so the partitions of a large grid do
+ * not each update <tt>BATCH_STEP_EXECUTION</tt> at every chunk commit.
+ * <p/>
+ * Only every {@link #setFlushChunks(int) flushChunks}-th update of a running step execution is passed to the
+ * delegate, together with the check for a stopped job it does. The updates in between are coalesced in memory,
+ * the latest one per step execution, and written by a flusher thread every {@link #setFlushInterval(long)
+ * flushInterval} milliseconds with one JDBC batch for all the step executions of the JVM. A deferred update only
+ * applies to the version of the row it was taken from: once the delegate has updated the row, a late flush of an
+ * older state does nothing. The first update of a step execution and the updates of ended ones are passed on at
+ * once.
+ * <p/>
+ * The execution contexts, which hold the restart state, are not deferred: they are still updated by the delegate
+ * within the transaction of each chunk. A failed step is restarted from the last committed chunk as before, only
+ * the counts shown while a step runs lag behind.
+ */
+public class WriteBehindJobRepository implements JobRepository, InitializingBean, DisposableBean {
+
+    private static Log logger = LogFactory.getLog(WriteBehindJobRepository.class);
+
+    private static final String UPDATE_STEP_EXECUTION = "UPDATE %PREFIX%STEP_EXECUTION SET STATUS = ?, "
+            + "COMMIT_COUNT = ?, READ_COUNT = ?, FILTER_COUNT = ?, WRITE_COUNT = ?, EXIT_CODE = ?, "
+            + "EXIT_MESSAGE = ?, READ_SKIP_COUNT = ?, PROCESS_SKIP_COUNT = ?, WRITE_SKIP_COUNT = ?, "
+            + "ROLLBACK_COUNT = ?, LAST_UPDATED = ? WHERE STEP_EXECUTION_ID = ? AND VERSION = ?";
+
+    private static final int EXIT_MESSAGE_LENGTH = 2500;
+
+    private static final Histogram FLUSH_TIME = MetricRegistry.getInstance().histogram("repository.flush.us");
+
+    private static final StripedCounter DEFERRED = MetricRegistry.getInstance().counter("repository.deferred");
+
+    private static final StripedCounter FLUSHED = MetricRegistry.getInstance().counter("repository.flushed");
+
+    private static final Comparator<PendingUpdate> BY_ID = new Comparator<PendingUpdate>() {
+        public int compare(PendingUpdate a, PendingUpdate b) {
+            return a.id.compareTo(b.id);
+        }
+    };
+
+    private JobRepository delegate;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private String tablePrefix = "BATCH_";
+
+    private long flushInterval = 1000;
+
+    private int flushChunks = 10;
+
+    private final ConcurrentMap<Long, PendingUpdate> pending = new ConcurrentHashMap<Long, PendingUpdate>();
+
+    /**
+     * Updates deferred since the last one passed to the delegate, by step execution.
+     */
+    private final ConcurrentMap<Long, Integer> deferred = new ConcurrentHashMap<Long, Integer>();
+
+    private volatile boolean running = false;
+
+    private Thread flusher;
+
+    /**
+     * @param delegate the repository doing all but the deferred updates
+     */
+    public void setDelegate(JobRepository delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @param dataSource the data source of the delegate's tables
+     */
+    public void setDataSource(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    /**
+     * @param tablePrefix the prefix of the delegate's tables, <tt>BATCH_</tt> by default
+     */
+    public void setTablePrefix(String tablePrefix) {
+        this.tablePrefix = tablePrefix;
+    }
+
+    /**
+     * @param flushInterval the time in milliseconds between two writes of the deferred updates
+     */
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * @param flushChunks every how many updates of a running step execution one is passed to the delegate, 1 to
+     * defer none
+     */
+    public void setFlushChunks(int flushChunks) {
+        this.flushChunks = flushChunks;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(delegate, "A delegate repository must be provided");
+        Assert.notNull(jdbcTemplate, "A data source must be provided");
+        Assert.isTrue(flushInterval > 0, "The flush interval must be greater than 0");
+        running = true;
+        flusher = new Thread(new Runnable() {
+            public void run() {
+                flushLoop();
+            }
+        }, "repository-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public void destroy() throws Exception {
+        running = false;
+        if (flusher != null) {
+            flusher.interrupt();
+            flusher.join(flushInterval * 10);
+        }
+        flush();
+    }
+
+    public void update(StepExecution stepExecution) {
+        final Long id = stepExecution.getId();
+        final Integer count = id == null ? null : deferred.get(id);
+        if (count == null || count + 1 >= flushChunks || !isRunning(stepExecution)) {
+            if (id != null) {
+                pending.remove(id);
+            }
+            delegate.update(stepExecution);
+            if (id != null && isRunning(stepExecution)) {
+                deferred.put(id, 0);
+            }
+            else if (id != null) {
+                deferred.remove(id);
+            }
+            return;
+        }
+        stepExecution.setLastUpdated(new Date(System.currentTimeMillis()));
+        pending.put(id, new PendingUpdate(stepExecution));
+        deferred.put(id, count + 1);
+        DEFERRED.increment();
+    }
+
+    /**
+     * Writes the deferred updates with one JDBC batch, in the order of the step execution ids. The updates that
+     * could not be written are kept for the next flush unless newer ones were deferred meanwhile.
+     */
+    public void flush() {
+        final List<PendingUpdate> updates = new ArrayList<PendingUpdate>();
+        for (Map.Entry<Long, PendingUpdate> entry : pending.entrySet()) {
+            if (pending.remove(entry.getKey(), entry.getValue())) {
+                updates.add(entry.getValue());
+            }
+        }
+        if (updates.isEmpty()) {
+            return;
+        }
+        Collections.sort(updates, BY_ID);
+        final long start = System.nanoTime();
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_STEP_EXECUTION.replace("%PREFIX%", tablePrefix),
+                    new BatchPreparedStatementSetter() {
+                        public void setValues(PreparedStatement ps, int i) throws SQLException {
+                            updates.get(i).setValues(ps);
+                        }
+
+                        public int getBatchSize() {
+                            return updates.size();
+                        }
+                    });
+            FLUSHED.add(updates.size());
+        }
+        catch (RuntimeException e) {
+            logger.warn("Could not write " + updates.size() + " deferred step execution updates, retrying later", e);
+            for (PendingUpdate update : updates) {
+                pending.putIfAbsent(update.id, update);
+            }
+        }
+        finally {
+            FLUSH_TIME.recordSince(start);
+        }
+    }
+
+    private void flushLoop() {
+        while (running) {
+            try {
+                Thread.sleep(flushInterval);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            flush();
+        }
+    }
+
+    private boolean isRunning(StepExecution stepExecution) {
+        return stepExecution.getEndTime() == null && stepExecution.getStatus().isRunning()
+                && !stepExecution.isTerminateOnly();
+    }
+
+    public boolean isJobInstanceExists(String jobName, JobParameters jobParameters) {
+        return delegate.isJobInstanceExists(jobName, jobParameters);
+    }
+
+    public JobInstance createJobInstance(String jobName, JobParameters jobParameters) {
+        return delegate.createJobInstance(jobName, jobParameters);
+    }
+
+    public JobExecution createJobExecution(JobInstance jobInstance, JobParameters jobParameters,
+            String jobConfigurationLocation) {
+        return delegate.createJobExecution(jobInstance, jobParameters, jobConfigurationLocation);
+    }
+
+    public JobExecution createJobExecution(String jobName, JobParameters jobParameters)
+            throws JobExecutionAlreadyRunningException, JobRestartException, JobInstanceAlreadyCompleteException {
+        return delegate.createJobExecution(jobName, jobParameters);
+    }
+
+    public void update(JobExecution jobExecution) {
+        delegate.update(jobExecution);
+    }
+
+    public void add(StepExecution stepExecution) {
+        delegate.add(stepExecution);
+    }
+
+    public void addAll(Collection<StepExecution> stepExecutions) {
+        delegate.addAll(stepExecutions);
+    }
+
+    public void updateExecutionContext(StepExecution stepExecution) {
+        delegate.updateExecutionContext(stepExecution);
+    }
+
+    public void updateExecutionContext(JobExecution jobExecution) {
+        delegate.updateExecutionContext(jobExecution);
+    }
+
+    public StepExecution getLastStepExecution(JobInstance jobInstance, String stepName) {
+        return delegate.getLastStepExecution(jobInstance, stepName);
+    }
+
+    public int getStepExecutionCount(JobInstance jobInstance, String stepName) {
+        return delegate.getStepExecutionCount(jobInstance, stepName);
+    }
+
+    public JobExecution getLastJobExecution(String jobName, JobParameters jobParameters) {
+        return delegate.getLastJobExecution(jobName, jobParameters);
+    }
+
+    /**
+     * The state of a step execution row at a deferred update, taken on the step's thread.
+     */
+    private static class PendingUpdate {
+
+        private final Long id;
+
+        private final Integer version;
+
+        private final String status;
+
+        private final int commitCount;
+
+        private final int readCount;
+
+        private final int filterCount;
+
+        private final int writeCount;
+
+        private final String exitCode;
+
+        private final String exitMessage;
+
+        private final int readSkipCount;
+
+        private final int processSkipCount;
+
+        private final int writeSkipCount;
+
+        private final int rollbackCount;
+
+        private final Timestamp lastUpdated;
+
+        PendingUpdate(StepExecution stepExecution) {
+            this.id = stepExecution.getId();
+            this.version = stepExecution.getVersion();
+            this.status = stepExecution.getStatus().toString();
+            this.commitCount = stepExecution.getCommitCount();
+            this.readCount = stepExecution.getReadCount();
+            this.filterCount = stepExecution.getFilterCount();
+            this.writeCount = stepExecution.getWriteCount();
+            this.exitCode = stepExecution.getExitStatus().getExitCode();
+            final String description = stepExecution.getExitStatus().getExitDescription();
+            this.exitMessage = description != null && description.length() > EXIT_MESSAGE_LENGTH ? description
+                    .substring(0, EXIT_MESSAGE_LENGTH) : description;
+            this.readSkipCount = stepExecution.getReadSkipCount();
+            this.processSkipCount = stepExecution.getProcessSkipCount();
+            this.writeSkipCount = stepExecution.getWriteSkipCount();
+            this.rollbackCount = stepExecution.getRollbackCount();
+            this.lastUpdated = new Timestamp(stepExecution.getLastUpdated().getTime());
+        }
+
+        void setValues(PreparedStatement ps) throws SQLException {
+            ps.setString(1, status);
+            ps.setInt(2, commitCount);
+            ps.setInt(3, readCount);
+            ps.setInt(4, filterCount);
+            ps.setInt(5, writeCount);
+            ps.setString(6, exitCode);
+            ps.setString(7, exitMessage);
+            ps.setInt(8, readSkipCount);
+            ps.setInt(9, processSkipCount);
+            ps.setInt(10, writeSkipCount);
+            ps.setInt(11, rollbackCount);
+            ps.setTimestamp(12, lastUpdated);
+            ps.setLong(13, id);
+            ps.setInt(14, version);
+        }
+    }
+}
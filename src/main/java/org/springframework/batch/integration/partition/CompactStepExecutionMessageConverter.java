@@ -0,0 +1,270 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.integration.partition;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameter;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.dao.CompactDataInput;
+import org.springframework.batch.core.repository.dao.CompactDataOutput;
+import org.springframework.batch.item.ExecutionContext;
+
+/**
+ * A {@link MessageConverter} writing the {@link StepExecutionRequest}s, {@link StepExecution} replies and
+ * {@link PartitionProgress} heartbeats of the partitions in the compact binary format of {@link CompactDataOutput}
+ * instead of Java serialization, which takes a fraction of the bytes, mostly because the object graph of the job
+ * execution is reduced to what the master step needs.
+ * <p/>
+ * A reply carries the step execution's identity, version, status, exit status, counts, times and execution
+ * context, and the ids, name and parameters of its job execution and job instance. It does not carry the failure
+ * exceptions, which the worker already stored in the exit description, nor the job execution's other step
+ * executions and context.
+ * <p/>
+ * Other payloads, and messages of another content type, are converted by the
+ * {@link #setFallback(MessageConverter) fallback}, a {@link SimpleMessageConverter} by default, so master and
+ * workers may be switched one after the other.
+ */
+public class CompactStepExecutionMessageConverter implements MessageConverter {
+
+    /**
+     * The content type of the messages written by this converter.
+     */
+    public static final String CONTENT_TYPE = "application/x-batch-step-execution-compact";
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int REQUEST = 1;
+
+    private static final int STEP_EXECUTION = 2;
+
+    private static final int PROGRESS = 3;
+
+    private MessageConverter fallback = new SimpleMessageConverter();
+
+    /**
+     * @param fallback converts the payloads and messages not handled by this converter
+     */
+    public void setFallback(MessageConverter fallback) {
+        this.fallback = fallback;
+    }
+
+    public Message toMessage(Object object, MessageProperties messageProperties)
+            throws MessageConversionException {
+        if (!(object instanceof StepExecutionRequest) && !(object instanceof StepExecution)
+                && !(object instanceof PartitionProgress)) {
+            return fallback.toMessage(object, messageProperties);
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        final CompactDataOutput out = new CompactDataOutput(bytes);
+        try {
+            out.writeByte(FORMAT_VERSION);
+            if (object instanceof StepExecutionRequest) {
+                out.writeByte(REQUEST);
+                writeRequest((StepExecutionRequest) object, out);
+            }
+            else if (object instanceof PartitionProgress) {
+                out.writeByte(PROGRESS);
+                writeProgress((PartitionProgress) object, out);
+            }
+            else {
+                out.writeByte(STEP_EXECUTION);
+                writeStepExecution((StepExecution) object, out);
+            }
+        }
+        catch (IOException e) {
+            throw new MessageConversionException("Could not write " + object, e);
+        }
+        messageProperties.setContentType(CONTENT_TYPE);
+        messageProperties.setContentLength(bytes.size());
+        return new Message(bytes.toByteArray(), messageProperties);
+    }
+
+    public Object fromMessage(Message message) throws MessageConversionException {
+        final MessageProperties properties = message.getMessageProperties();
+        if (properties == null || !CONTENT_TYPE.equals(properties.getContentType())) {
+            return fallback.fromMessage(message);
+        }
+        final CompactDataInput in = new CompactDataInput(new ByteArrayInputStream(message.getBody()));
+        try {
+            final int version = in.readByte();
+            if (version != FORMAT_VERSION) {
+                throw new MessageConversionException("Unsupported format version " + version);
+            }
+            final int type = in.readByte();
+            switch (type) {
+            case REQUEST:
+                return readRequest(in);
+            case STEP_EXECUTION:
+                return readStepExecution(in);
+            case PROGRESS:
+                return readProgress(in);
+            default:
+                throw new MessageConversionException("Unknown payload type " + type);
+            }
+        }
+        catch (IOException e) {
+            throw new MessageConversionException("Could not read the message", e);
+        }
+    }
+
+    private void writeRequest(StepExecutionRequest request, CompactDataOutput out) throws IOException {
+        out.writeString(request.getStepName());
+        out.writeNullableLong(request.getJobExecutionId());
+        out.writeNullableLong(request.getStepExecutionId());
+    }
+
+    private StepExecutionRequest readRequest(CompactDataInput in) throws IOException {
+        return new StepExecutionRequest(in.readString(), in.readNullableLong(), in.readNullableLong());
+    }
+
+    private void writeProgress(PartitionProgress progress, CompactDataOutput out) throws IOException {
+        out.writeNullableLong(progress.getJobExecutionId());
+        out.writeNullableLong(progress.getStepExecutionId());
+        out.writeString(progress.getStepName());
+        out.writeVarLong(progress.getReadCount());
+        out.writeVarLong(progress.getWriteCount());
+        out.writeVarLong(progress.getPosition());
+    }
+
+    private PartitionProgress readProgress(CompactDataInput in) throws IOException {
+        final Long jobExecutionId = in.readNullableLong();
+        final Long stepExecutionId = in.readNullableLong();
+        final String stepName = in.readString();
+        final int readCount = (int) in.readVarLong();
+        final int writeCount = (int) in.readVarLong();
+        return new PartitionProgress(jobExecutionId, stepExecutionId, stepName, readCount, writeCount,
+                in.readVarLong());
+    }
+
+    private void writeStepExecution(StepExecution stepExecution, CompactDataOutput out) throws IOException {
+        final JobExecution jobExecution = stepExecution.getJobExecution();
+        out.writeNullableLong(jobExecution.getId());
+        final JobInstance jobInstance = jobExecution.getJobInstance();
+        out.writeBoolean(jobInstance != null);
+        if (jobInstance != null) {
+            out.writeNullableLong(jobInstance.getId());
+            out.writeString(jobInstance.getJobName());
+        }
+        final Map<String, JobParameter> parameters = jobExecution.getJobParameters().getParameters();
+        out.writeUnsignedVarLong(parameters.size());
+        for (Map.Entry<String, JobParameter> entry : parameters.entrySet()) {
+            out.writeKey(entry.getKey());
+            out.writeByte(entry.getValue().getType().ordinal());
+            out.writeBoolean(entry.getValue().isIdentifying());
+            out.writeValue(entry.getValue().getValue());
+        }
+        out.writeString(jobExecution.getJobConfigurationName());
+
+        out.writeString(stepExecution.getStepName());
+        out.writeNullableLong(stepExecution.getId());
+        out.writeNullableLong(stepExecution.getVersion() == null ? null : stepExecution.getVersion().longValue());
+        out.writeByte(stepExecution.getStatus().ordinal());
+        out.writeString(stepExecution.getExitStatus().getExitCode());
+        out.writeString(stepExecution.getExitStatus().getExitDescription());
+        out.writeVarLong(stepExecution.getReadCount());
+        out.writeVarLong(stepExecution.getWriteCount());
+        out.writeVarLong(stepExecution.getCommitCount());
+        out.writeVarLong(stepExecution.getRollbackCount());
+        out.writeVarLong(stepExecution.getReadSkipCount());
+        out.writeVarLong(stepExecution.getProcessSkipCount());
+        out.writeVarLong(stepExecution.getWriteSkipCount());
+        out.writeVarLong(stepExecution.getFilterCount());
+        out.writeDate(stepExecution.getStartTime());
+        out.writeDate(stepExecution.getEndTime());
+        out.writeDate(stepExecution.getLastUpdated());
+        out.writeBoolean(stepExecution.isTerminateOnly());
+        final Map<String, Object> context = new HashMap<String, Object>();
+        for (Map.Entry<String, Object> entry : stepExecution.getExecutionContext().entrySet()) {
+            context.put(entry.getKey(), entry.getValue());
+        }
+        out.writeMap(context);
+    }
+
+    private StepExecution readStepExecution(CompactDataInput in) throws IOException {
+        final Long jobExecutionId = in.readNullableLong();
+        JobInstance jobInstance = null;
+        if (in.readBoolean()) {
+            final Long jobInstanceId = in.readNullableLong();
+            jobInstance = new JobInstance(jobInstanceId, in.readString());
+        }
+        final int parameterCount = (int) in.readUnsignedVarLong();
+        final Map<String, JobParameter> parameters = new LinkedHashMap<String, JobParameter>();
+        for (int i = 0; i < parameterCount; i++) {
+            final String key = in.readKey();
+            final JobParameter.ParameterType type = JobParameter.ParameterType.values()[in.readByte()];
+            final boolean identifying = in.readBoolean();
+            final Object value = in.readValue();
+            switch (type) {
+            case STRING:
+                parameters.put(key, new JobParameter((String) value, identifying));
+                break;
+            case DATE:
+                parameters.put(key, new JobParameter((Date) value, identifying));
+                break;
+            case LONG:
+                parameters.put(key, new JobParameter((Long) value, identifying));
+                break;
+            default:
+                parameters.put(key, new JobParameter((Double) value, identifying));
+                break;
+            }
+        }
+        final JobExecution jobExecution = new JobExecution(jobInstance, jobExecutionId,
+                new JobParameters(parameters), in.readString());
+
+        final String stepName = in.readString();
+        final StepExecution stepExecution = new StepExecution(stepName, jobExecution, in.readNullableLong());
+        final Long version = in.readNullableLong();
+        stepExecution.setVersion(version == null ? null : version.intValue());
+        stepExecution.setStatus(BatchStatus.values()[in.readByte()]);
+        final String exitCode = in.readString();
+        stepExecution.setExitStatus(new ExitStatus(exitCode, in.readString()));
+        stepExecution.setReadCount((int) in.readVarLong());
+        stepExecution.setWriteCount((int) in.readVarLong());
+        stepExecution.setCommitCount((int) in.readVarLong());
+        stepExecution.setRollbackCount((int) in.readVarLong());
+        stepExecution.setReadSkipCount((int) in.readVarLong());
+        stepExecution.setProcessSkipCount((int) in.readVarLong());
+        stepExecution.setWriteSkipCount((int) in.readVarLong());
+        stepExecution.setFilterCount((int) in.readVarLong());
+        stepExecution.setStartTime(in.readDate());
+        stepExecution.setEndTime(in.readDate());
+        stepExecution.setLastUpdated(in.readDate());
+        if (in.readBoolean()) {
+            stepExecution.setTerminateOnly();
+        }
+        stepExecution.setExecutionContext(new ExecutionContext(in.readMap()));
+        return stepExecution;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.batch.integration.partition;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.partition.support.InputSizeAware;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Chooses the grid size from the size of the input and the consumers taking the partitions: one partition per
+ * {@link #setBytesPerPartition(long) bytesPerPartition} bytes of input, rounded up to a multiple of the consumers
+ * so the last partitions keep all of them busy, within {@link #setMinGridSize(int) minGridSize} and
+ * {@link #setMaxGridSize(int) maxGridSize}. A small input gets fewer partitions than there are consumers rather
+ * than partitions too small to be worth their overhead.
+ * <p/>
+ * Without a {@link #setConsumerCountProvider(ConsumerCountProvider) consumerCountProvider}, or when it cannot
+ * tell, the {@link #setConsumerCount(int) consumerCount} configured is assumed; an input of unknown size gets
+ * one partition per consumer.
+ */
+public class InputSizeGridSizeStrategy implements GridSizeStrategy, InitializingBean {
+
+    private static Log logger = LogFactory.getLog(InputSizeGridSizeStrategy.class);
+
+    private InputSizeAware input;
+
+    private ConsumerCountProvider consumerCountProvider;
+
+    private long bytesPerPartition = 64L * 1024 * 1024;
+
+    private int consumerCount = 1;
+
+    private int minGridSize = 1;
+
+    private int maxGridSize = Integer.MAX_VALUE;
+
+    /**
+     * @param input the partitioner of the step, telling the size of its input
+     */
+    public void setInput(InputSizeAware input) {
+        this.input = input;
+    }
+
+    /**
+     * @param consumerCountProvider tells the consumers currently taking the partitions, null to always assume
+     * {@link #setConsumerCount(int) consumerCount}
+     */
+    public void setConsumerCountProvider(ConsumerCountProvider consumerCountProvider) {
+        this.consumerCountProvider = consumerCountProvider;
+    }
+
+    /**
+     * @param bytesPerPartition the bytes of input aimed at per partition, 64 MB by default
+     */
+    public void setBytesPerPartition(long bytesPerPartition) {
+        this.bytesPerPartition = bytesPerPartition;
+    }
+
+    /**
+     * @param consumerCount the consumers assumed when they cannot be counted, 1 by default
+     */
+    public void setConsumerCount(int consumerCount) {
+        this.consumerCount = consumerCount;
+    }
+
+    /**
+     * @param minGridSize the smallest grid size chosen, 1 by default
+     */
+    public void setMinGridSize(int minGridSize) {
+        this.minGridSize = minGridSize;
+    }
+
+    /**
+     * @param maxGridSize the largest grid size chosen, unbounded by default
+     */
+    public void setMaxGridSize(int maxGridSize) {
+        this.maxGridSize = maxGridSize;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(input, "An input must be provided");
+        Assert.isTrue(bytesPerPartition > 0, "Bytes per partition must be greater than 0");
+        Assert.isTrue(consumerCount > 0, "Consumer count must be greater than 0");
+        Assert.isTrue(minGridSize > 0 && minGridSize <= maxGridSize,
+                "Grid size bounds must be greater than 0 and ordered");
+    }
+
+    public int getGridSize(StepExecution masterStepExecution) {
+        final long size = input.getSizeInBytes();
+        int consumers = consumerCountProvider == null ? -1 : consumerCountProvider.getConsumerCount();
+        if (consumers <= 0) {
+            consumers = consumerCount;
+        }
+        long gridSize = consumers;
+        if (size >= 0) {
+            gridSize = Math.max(1, (size + bytesPerPartition - 1) / bytesPerPartition);
+            if (gridSize > consumers) {
+                gridSize = (gridSize + consumers - 1) / consumers * consumers;
+            }
+        }
+        final int bounded = (int) Math.max(minGridSize, Math.min(maxGridSize, gridSize));
+        logger.info("Grid size of " + masterStepExecution.getStepName() + ": " + bounded + " for " + size
+                + " bytes of input and " + consumers + " consumers");
+        return bounded;
+    }
+}
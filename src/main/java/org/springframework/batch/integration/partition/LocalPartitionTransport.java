@@ -0,0 +1,239 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.integration.partition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.batch.support.metrics.Histogram;
+import org.springframework.batch.support.metrics.MetricRegistry;
+import org.springframework.batch.support.metrics.StripedCounter;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessagingException;
+import org.springframework.util.Assert;
+
+/**
+ * Stands in for a broker queue and its listener container inside one JVM: the messages handled are put on a
+ * bounded queue and delivered to the {@link #setOutputChannel(MessageChannel) outputChannel} by
+ * {@link #setConcurrency(int) concurrency} consumer threads, so the partitions of a job can be run and measured
+ * without RabbitMQ:
+ * <p/>
+ * <pre>
+ *  &lt;int:outbound-channel-adapter channel="requests" ref="requestTransport"/&gt;
+ * </pre>
+ * A full queue blocks the sender, as the broker's flow control would. Each message can be delayed by a simulated
+ * {@link #setLatency(long) latency}, and its payload converted to bytes and back by a
+ * {@link #setMessageConverter(MessageConverter) messageConverter}, to account for the cost of serialization.
+ * The time from sending to delivery and the bytes converted are recorded in the
+ * <tt>transport.&lt;bean name&gt;.*</tt> metrics of the {@link MetricRegistry}.
+ * <p/>
+ * The consumers are counted as those of a broker queue for an {@link InputSizeGridSizeStrategy}.
+ * <p/>
+ * Unlike a broker, the queue is not durable: messages not delivered when the context stops are lost.
+ */
+public class LocalPartitionTransport implements MessageHandler, SmartLifecycle, BeanNameAware, ConsumerCountProvider {
+
+    private static Log logger = LogFactory.getLog(LocalPartitionTransport.class);
+
+    private String name = "localTransport";
+
+    private MessageChannel outputChannel;
+
+    private int capacity = 1000;
+
+    private int concurrency = 1;
+
+    private long latency = 0;
+
+    private MessageConverter messageConverter;
+
+    private BlockingQueue<Envelope> queue;
+
+    private final List<Thread> consumers = new ArrayList<Thread>();
+
+    private volatile boolean running = false;
+
+    private Histogram deliveryTime;
+
+    private StripedCounter convertedBytes;
+
+    public void setBeanName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param outputChannel the channel the consumers deliver the messages to
+     */
+    public void setOutputChannel(MessageChannel outputChannel) {
+        this.outputChannel = outputChannel;
+    }
+
+    /**
+     * @param capacity the maximal number of messages queued
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param concurrency the number of consumer threads
+     */
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * @param latency the simulated latency of a message in milliseconds, 0 for none
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * @param messageConverter converts the payloads to bytes and back before delivery, null to deliver them as is
+     */
+    public void setMessageConverter(MessageConverter messageConverter) {
+        this.messageConverter = messageConverter;
+    }
+
+    /**
+     * @return the consumer threads, -1 while stopped
+     */
+    public int getConsumerCount() {
+        return running ? concurrency : -1;
+    }
+
+    public void handleMessage(Message<?> message) throws MessagingException {
+        Assert.state(running, "Transport " + name + " is not running");
+        try {
+            queue.put(new Envelope(message, System.nanoTime()));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException(message, "Interrupted while queuing on " + name, e);
+        }
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        Assert.notNull(outputChannel, "An output channel must be provided");
+        Assert.isTrue(capacity > 0 && concurrency > 0, "Capacity and concurrency must be greater than 0");
+        queue = new ArrayBlockingQueue<Envelope>(capacity);
+        deliveryTime = MetricRegistry.getInstance().histogram("transport." + name + ".delivery.us");
+        convertedBytes = MetricRegistry.getInstance().counter("transport." + name + ".bytes");
+        running = true;
+        for (int i = 0; i < concurrency; i++) {
+            final Thread consumer = new Thread(new Runnable() {
+                public void run() {
+                    consume();
+                }
+            }, name + "-" + (i + 1));
+            consumer.setDaemon(true);
+            consumers.add(consumer);
+            consumer.start();
+        }
+        logger.info("Transport " + name + " started with " + concurrency + " consumers");
+    }
+
+    public synchronized void stop() {
+        running = false;
+        for (Thread consumer : consumers) {
+            consumer.interrupt();
+        }
+        consumers.clear();
+        if (queue != null && !queue.isEmpty()) {
+            logger.warn("Transport " + name + " stopped with " + queue.size() + " messages undelivered");
+        }
+    }
+
+    public void stop(Runnable callback) {
+        stop();
+        callback.run();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    public int getPhase() {
+        return Integer.MAX_VALUE;
+    }
+
+    private void consume() {
+        while (running) {
+            final Envelope envelope;
+            try {
+                envelope = queue.take();
+                if (latency > 0) {
+                    Thread.sleep(latency);
+                }
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            try {
+                outputChannel.send(convert(envelope.message));
+            }
+            catch (RuntimeException e) {
+                logger.error("Delivery of " + envelope.message.getPayload() + " on " + name + " failed", e);
+            }
+            finally {
+                deliveryTime.recordSince(envelope.sent);
+            }
+        }
+    }
+
+    private Message<?> convert(Message<?> message) {
+        if (messageConverter == null) {
+            return message;
+        }
+        final org.springframework.amqp.core.Message converted = messageConverter.toMessage(message.getPayload(),
+                new MessageProperties());
+        convertedBytes.add(converted.getBody().length);
+        return MessageBuilder.withPayload(messageConverter.fromMessage(converted))
+                .copyHeaders(message.getHeaders()).build();
+    }
+
+    private static class Envelope {
+
+        private final Message<?> message;
+
+        private final long sent;
+
+        Envelope(Message<?> message, long sent) {
+            this.message = message;
+            this.sent = sent;
+        }
+    }
+}
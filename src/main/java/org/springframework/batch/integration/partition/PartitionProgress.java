@@ -0,0 +1,88 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.integration.partition;
+
+import java.io.Serializable;
+
+/**
+ * A heartbeat of a running partition, published by the {@link PartitionProgressPublisher} of a worker and
+ * collected by the {@link WorkStealingPartitionHandler} of the master.
+ */
+public class PartitionProgress implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Long jobExecutionId;
+
+    private final Long stepExecutionId;
+
+    private final String stepName;
+
+    private final int readCount;
+
+    private final int writeCount;
+
+    private final long position;
+
+    /**
+     * @param jobExecutionId the id of the job execution of the partition
+     * @param stepExecutionId the id of the partition's step execution
+     * @param stepName the name of the partition's step execution
+     * @param readCount the items read so far
+     * @param writeCount the items written so far
+     * @param position the byte offset of the last committed item in the input, -1 if unknown
+     */
+    public PartitionProgress(Long jobExecutionId, Long stepExecutionId, String stepName, int readCount,
+            int writeCount, long position) {
+        this.jobExecutionId = jobExecutionId;
+        this.stepExecutionId = stepExecutionId;
+        this.stepName = stepName;
+        this.readCount = readCount;
+        this.writeCount = writeCount;
+        this.position = position;
+    }
+
+    public Long getJobExecutionId() {
+        return jobExecutionId;
+    }
+
+    public Long getStepExecutionId() {
+        return stepExecutionId;
+    }
+
+    public String getStepName() {
+        return stepName;
+    }
+
+    public int getReadCount() {
+        return readCount;
+    }
+
+    public int getWriteCount() {
+        return writeCount;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public String toString() {
+        return "PartitionProgress: stepName=" + stepName + ", readCount=" + readCount + ", writeCount=" + writeCount
+                + ", position=" + position;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.integration.partition;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.integration.core.MessagingTemplate;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.util.Assert;
+
+/**
+ * Publishes a {@link PartitionProgress} heartbeat of the partitions a worker runs after a committed chunk, at
+ * most once per {@link #setInterval(long) interval}, for the {@link WorkStealingPartitionHandler} of the master.
+ * <p/>
+ * Registered as a listener of the worker step, it may be shared by all the partitions running on the worker.
+ * The byte offset reported is the one the reader saved under {@link #setPositionKey(String) positionKey} in the
+ * step's execution context. Publishing is best effort: a heartbeat that cannot be sent is logged and dropped.
+ */
+public class PartitionProgressPublisher implements ChunkListener, StepExecutionListener {
+
+    private static Log logger = LogFactory.getLog(PartitionProgressPublisher.class);
+
+    private final ConcurrentMap<Long, Long> lastPublished = new ConcurrentHashMap<Long, Long>();
+
+    private MessagingTemplate messagingOperations;
+
+    private long interval = 5000;
+
+    private String positionKey = "MultiThreadedFlatFileItemReader.position";
+
+    /**
+     * @param messagingOperations the template sending the heartbeats to the master
+     */
+    public void setMessagingOperations(MessagingTemplate messagingOperations) {
+        this.messagingOperations = messagingOperations;
+    }
+
+    /**
+     * @param interval the minimal time in milliseconds between two heartbeats of a partition
+     */
+    public void setInterval(long interval) {
+        Assert.isTrue(interval >= 0, "Interval must not be negative");
+        this.interval = interval;
+    }
+
+    /**
+     * @param positionKey the execution context key of the byte offset saved by the reader
+     */
+    public void setPositionKey(String positionKey) {
+        this.positionKey = positionKey;
+    }
+
+    public void beforeStep(StepExecution stepExecution) {
+        lastPublished.put(stepExecution.getId(), System.currentTimeMillis());
+    }
+
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        lastPublished.remove(stepExecution.getId());
+        return null;
+    }
+
+    public void beforeChunk(ChunkContext context) {
+    }
+
+    public void afterChunk(ChunkContext context) {
+        final StepExecution stepExecution = context.getStepContext().getStepExecution();
+        final long now = System.currentTimeMillis();
+        final Long last = lastPublished.get(stepExecution.getId());
+        if (last != null && now - last < interval) {
+            return;
+        }
+        lastPublished.put(stepExecution.getId(), now);
+        final Object position = stepExecution.getExecutionContext().get(positionKey);
+        final PartitionProgress progress = new PartitionProgress(stepExecution.getJobExecutionId(),
+                stepExecution.getId(), stepExecution.getStepName(), stepExecution.getReadCount(),
+                stepExecution.getWriteCount(), position instanceof Number ? ((Number) position).longValue() : -1);
+        try {
+            messagingOperations.send(MessageBuilder.withPayload(progress).build());
+        }
+        catch (RuntimeException e) {
+            logger.warn("Could not publish " + progress + ": " + e.getMessage());
+        }
+    }
+
+    public void afterChunkError(ChunkContext context) {
+    }
+}
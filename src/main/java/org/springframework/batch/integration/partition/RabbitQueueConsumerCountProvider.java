@@ -0,0 +1,72 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.batch.integration.partition;
+
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Reads the number of consumers of a RabbitMQ queue from the broker, i.e. the listener threads of all the workers
+ * taking the partition requests, including those of the master.
+ */
+public class RabbitQueueConsumerCountProvider implements ConsumerCountProvider, InitializingBean {
+
+    private static Log logger = LogFactory.getLog(RabbitQueueConsumerCountProvider.class);
+
+    private RabbitAdmin rabbitAdmin;
+
+    private String queueName;
+
+    /**
+     * @param rabbitAdmin the admin of the broker holding the queue
+     */
+    public void setRabbitAdmin(RabbitAdmin rabbitAdmin) {
+        this.rabbitAdmin = rabbitAdmin;
+    }
+
+    /**
+     * @param queueName the queue of the partition requests
+     */
+    public void setQueueName(String queueName) {
+        this.queueName = queueName;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(rabbitAdmin, "A RabbitAdmin must be provided");
+        Assert.hasText(queueName, "A queue name must be provided");
+    }
+
+    /**
+     * @return the consumers of the queue, -1 if the queue does not exist or the broker could not be asked
+     */
+    public int getConsumerCount() {
+        try {
+            final Properties properties = rabbitAdmin.getQueueProperties(queueName);
+            final Object count = properties == null ? null : properties.get(RabbitAdmin.QUEUE_CONSUMER_COUNT);
+            return count instanceof Number ? ((Number) count).intValue() : -1;
+        }
+        catch (AmqpException e) {
+            logger.warn("Could not count the consumers of " + queueName + ": " + e.getMessage());
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.integration.partition;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Discards the {@link StepExecutionRequest}s of job executions that are no longer running, typically the
+ * partitions still queued when the master failed fast, so the workers do not run partitions nobody waits for.
+ * Used as the filter in front of the {@link StepExecutionRequestHandler}:
+ * <p/>
+ * <pre>
+ *  &lt;int:filter ref="stepExecutionRequestFilter" method="accept" input-channel="requests" output-channel="accepted"/&gt;
+ * </pre>
+ * The discarded partitions keep their status in the job repository and run again when the job is restarted.
+ */
+public class StepExecutionRequestFilter implements InitializingBean {
+
+    private static Log logger = LogFactory.getLog(StepExecutionRequestFilter.class);
+
+    private JobExplorer jobExplorer;
+
+    /**
+     * @param jobExplorer the explorer used to look up the job executions
+     */
+    public void setJobExplorer(JobExplorer jobExplorer) {
+        this.jobExplorer = jobExplorer;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(jobExplorer, "A JobExplorer must be provided");
+    }
+
+    /**
+     * @param request the partition request
+     * @return false if the job execution of the request has ended or is stopping
+     */
+    public boolean accept(StepExecutionRequest request) {
+        final JobExecution jobExecution = jobExplorer.getJobExecution(request.getJobExecutionId());
+        if (jobExecution == null || jobExecution.getEndTime() != null || jobExecution.getStatus().isUnsuccessful()
+                || jobExecution.isStopping()) {
+            logger.warn("Discarding the request of step execution " + request.getStepExecutionId()
+                    + ", its job execution " + request.getJobExecutionId() + " is no longer running");
+            return false;
+        }
+        return true;
+    }
+}
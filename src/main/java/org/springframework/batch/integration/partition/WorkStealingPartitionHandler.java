@@ -0,0 +1,479 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.integration.partition;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.partition.support.FlatFilePartitioner;
+import org.springframework.batch.core.partition.PartitionHandler;
+import org.springframework.batch.core.partition.StepExecutionSplitter;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.integration.core.MessagingTemplate;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link PartitionHandler} that queues all partitions as {@link StepExecutionRequest}s at once and collects the
+ * replies asynchronously, so the workers pull the next partition from the shared queue whenever they are done.
+ * <p/>
+ * Together with many small partitions, e.g. from a
+ * {@link org.springframework.batch.core.partition.support.MicroPartitioner}, and consumers that take one
+ * request at a time (<tt>prefetch-count="1"</tt>), all consumers stay busy until the total work is done.
+ * <p/>
+ * The requests are sent one-way through the {@link #setMessagingOperations(MessagingTemplate) messagingOperations}.
+ * The workers send the resulting {@link StepExecution}s to a reply queue shared by all jobs, which delivers them to
+ * {@link #handleReply(StepExecution)}, typically through a service activator; the replies are handed to the waiting
+ * master step by the id of their job execution, those of another master node are refused back to the queue. The
+ * master fails once it got neither a reply nor a heartbeat for {@link #setReplyTimeout(long) replyTimeout}
+ * milliseconds. With a {@link JobExplorer} it first looks up the outstanding partitions in the job repository, so
+ * lost replies of finished partitions do not fail the job.
+ * <p/>
+ * Each reply is processed as soon as it arrives. Workers may also publish {@link PartitionProgress} heartbeats
+ * of their running partitions through a {@link PartitionProgressPublisher}, delivered to
+ * {@link #handleProgress(PartitionProgress)}; the master logs the items read and an estimated time of
+ * completion every {@link #setProgressInterval(long) progressInterval} milliseconds. With
+ * {@link #setFailFast(boolean) failFast} the master stops waiting at the first failed partition, so the step
+ * fails right away; the partitions still running finish on their own, those still queued are best discarded by a
+ * {@link StepExecutionRequestFilter} on the workers.
+ * <p/>
+ * With {@link #setCreditsPerConsumer(int) creditsPerConsumer} the partitions are not queued all at once: the
+ * master sends at most that many per consumer counted by the {@link #setConsumerCountProvider(ConsumerCountProvider)
+ * consumerCountProvider}, and holds back the others until replies return their credits. The broker queue then stays
+ * short however large the grid, and the reply timeout only runs for partitions the workers can start soon. While
+ * partitions are held the job repository is also polled every {@link #setConsumerCountRefresh(long)
+ * consumerCountRefresh} milliseconds, so a lost reply does not keep its credit until the reply timeout.
+ */
+public class WorkStealingPartitionHandler implements PartitionHandler, InitializingBean {
+
+    private static Log logger = LogFactory.getLog(WorkStealingPartitionHandler.class);
+
+    private final ConcurrentMap<Long, BlockingQueue<Object>> replies = new ConcurrentHashMap<Long, BlockingQueue<Object>>();
+
+    private MessagingTemplate messagingOperations;
+
+    private String stepName;
+
+    private int gridSize = 1;
+
+    private GridSizeStrategy gridSizeStrategy;
+
+    private long replyTimeout = 150000;
+
+    private JobExplorer jobExplorer;
+
+    private boolean failFast = false;
+
+    private long progressInterval = 30000;
+
+    private String itemsCountKey = FlatFilePartitioner.DEFAULT_ITEMS_COUNT_KEY;
+
+    private int creditsPerConsumer = 0;
+
+    private ConsumerCountProvider consumerCountProvider;
+
+    private int consumerCount = 1;
+
+    private long consumerCountRefresh = 10000;
+
+    /**
+     * @param messagingOperations the template sending the requests to the workers' queue
+     */
+    public void setMessagingOperations(MessagingTemplate messagingOperations) {
+        this.messagingOperations = messagingOperations;
+    }
+
+    /**
+     * @param stepName the name of the step the workers execute
+     */
+    public void setStepName(String stepName) {
+        this.stepName = stepName;
+    }
+
+    /**
+     * @param gridSize the grid size passed to the partitioner, usually the number of consumers
+     */
+    public void setGridSize(int gridSize) {
+        this.gridSize = gridSize;
+    }
+
+    /**
+     * @param gridSizeStrategy chooses the grid size when the step starts instead of the fixed
+     * {@link #setGridSize(int) gridSize}, null for none
+     */
+    public void setGridSizeStrategy(GridSizeStrategy gridSizeStrategy) {
+        this.gridSizeStrategy = gridSizeStrategy;
+    }
+
+    /**
+     * @param replyTimeout the time in milliseconds without any reply or heartbeat after which the step fails
+     */
+    public void setReplyTimeout(long replyTimeout) {
+        this.replyTimeout = replyTimeout;
+    }
+
+    /**
+     * @param jobExplorer the explorer used to look up partitions whose reply did not arrive
+     */
+    public void setJobExplorer(JobExplorer jobExplorer) {
+        this.jobExplorer = jobExplorer;
+    }
+
+    /**
+     * @param failFast true to stop waiting for the other partitions as soon as one has failed
+     */
+    public void setFailFast(boolean failFast) {
+        this.failFast = failFast;
+    }
+
+    /**
+     * @param progressInterval the time in milliseconds between two progress reports, 0 for none
+     */
+    public void setProgressInterval(long progressInterval) {
+        Assert.isTrue(progressInterval >= 0, "Progress interval must not be negative");
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * @param itemsCountKey the execution context key of the number of items of a partition, used to estimate the
+     * time of completion, {@link FlatFilePartitioner#DEFAULT_ITEMS_COUNT_KEY} by default
+     */
+    public void setItemsCountKey(String itemsCountKey) {
+        this.itemsCountKey = itemsCountKey;
+    }
+
+    /**
+     * @param creditsPerConsumer the partitions sent and not replied to at most per consumer, 0 to send all of them
+     * at once
+     */
+    public void setCreditsPerConsumer(int creditsPerConsumer) {
+        Assert.isTrue(creditsPerConsumer >= 0, "Credits per consumer must not be negative");
+        this.creditsPerConsumer = creditsPerConsumer;
+    }
+
+    /**
+     * @param consumerCountProvider tells the consumers the credits are given to, null to always assume
+     * {@link #setConsumerCount(int) consumerCount}
+     */
+    public void setConsumerCountProvider(ConsumerCountProvider consumerCountProvider) {
+        this.consumerCountProvider = consumerCountProvider;
+    }
+
+    /**
+     * @param consumerCount the consumers assumed when they cannot be counted, 1 by default
+     */
+    public void setConsumerCount(int consumerCount) {
+        Assert.isTrue(consumerCount > 0, "Consumer count must be greater than 0");
+        this.consumerCount = consumerCount;
+    }
+
+    /**
+     * @param consumerCountRefresh the time in milliseconds the consumers counted are relied upon before being
+     * counted again, also the interval at which the job repository is polled for finished partitions whose
+     * reply did not return their credit while partitions are held
+     */
+    public void setConsumerCountRefresh(long consumerCountRefresh) {
+        this.consumerCountRefresh = consumerCountRefresh;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(messagingOperations, "A MessagingOperations must be provided");
+        Assert.hasText(stepName, "A step name must be provided");
+    }
+
+    public Collection<StepExecution> handle(StepExecutionSplitter stepSplitter, StepExecution masterStepExecution)
+            throws Exception {
+
+        final int grid = gridSizeStrategy == null ? gridSize : gridSizeStrategy.getGridSize(masterStepExecution);
+        final Set<StepExecution> split = stepSplitter.split(masterStepExecution, grid);
+        final List<StepExecution> result = new ArrayList<StepExecution>(split.size());
+        if (split.isEmpty()) {
+            return result;
+        }
+
+        final Long jobExecutionId = masterStepExecution.getJobExecutionId();
+        final BlockingQueue<Object> queue = new LinkedBlockingQueue<Object>();
+        Assert.state(replies.putIfAbsent(jobExecutionId, queue) == null, "Job execution " + jobExecutionId
+                + " is already waiting for partitions");
+        try {
+            final Map<Long, StepExecution> outstanding = new LinkedHashMap<Long, StepExecution>();
+            final Deque<StepExecution> held = new ArrayDeque<StepExecution>(split);
+            final Credits credits = new Credits();
+            final long totalItems = totalItems(split);
+            final long started = System.currentTimeMillis();
+            dispatch(jobExecutionId, held, outstanding, credits);
+            logger.info("Queued " + outstanding.size() + " partitions of step " + stepName
+                    + (held.isEmpty() ? "" : ", " + held.size() + " held until the workers return credits"));
+
+            final Map<Long, PartitionProgress> running = new HashMap<Long, PartitionProgress>();
+            long lastActivity = started;
+            long lastReport = started;
+            long lastPoll = started;
+            while (!outstanding.isEmpty() || !held.isEmpty()) {
+                long now = System.currentTimeMillis();
+                long wait = lastActivity + replyTimeout - now;
+                if (progressInterval > 0) {
+                    wait = Math.min(wait, lastReport + progressInterval - now);
+                }
+                if (!held.isEmpty() && jobExplorer != null) {
+                    wait = Math.min(wait, lastPoll + consumerCountRefresh - now);
+                }
+                final Object reply = queue.poll(Math.max(wait, 0), TimeUnit.MILLISECONDS);
+                now = System.currentTimeMillis();
+                final List<StepExecution> completed = new ArrayList<StepExecution>(1);
+                if (reply instanceof PartitionProgress) {
+                    final PartitionProgress progress = (PartitionProgress) reply;
+                    if (outstanding.containsKey(progress.getStepExecutionId())) {
+                        running.put(progress.getStepExecutionId(), progress);
+                    }
+                    lastActivity = now;
+                }
+                else if (reply instanceof StepExecution) {
+                    if (complete((StepExecution) reply, outstanding, result, split.size())) {
+                        completed.add((StepExecution) reply);
+                    }
+                    lastActivity = now;
+                }
+                else if (now - lastActivity >= replyTimeout) {
+                    completed.addAll(pollRepository(jobExecutionId, outstanding, result, split.size()));
+                    if (completed.isEmpty()) {
+                        throw new TimeoutException("No partition of step " + stepName + " replied within "
+                                + replyTimeout + " ms, " + outstanding.size() + " of " + split.size()
+                                + " still outstanding, " + held.size() + " never sent");
+                    }
+                    lastActivity = now;
+                    lastPoll = now;
+                }
+                else if (!held.isEmpty() && now - lastPoll >= consumerCountRefresh) {
+                    // credits may be held by partitions whose replies went astray
+                    completed.addAll(pollRepository(jobExecutionId, outstanding, result, split.size()));
+                    lastPoll = now;
+                }
+                for (StepExecution stepExecution : completed) {
+                    running.remove(stepExecution.getId());
+                    if (failFast && stepExecution.getStatus().isUnsuccessful()) {
+                        logger.error("Partition " + stepExecution.getStepName() + " failed, not waiting for the "
+                                + outstanding.size() + " outstanding partitions of step " + stepName
+                                + (held.isEmpty() ? "" : " nor sending the " + held.size() + " held ones"));
+                        return result;
+                    }
+                }
+                if (!held.isEmpty()) {
+                    dispatch(jobExecutionId, held, outstanding, credits);
+                }
+                if (progressInterval > 0 && now - lastReport >= progressInterval && !outstanding.isEmpty()) {
+                    reportProgress(result, running.values(), split.size(), totalItems, now - started);
+                    lastReport = now;
+                }
+            }
+        }
+        finally {
+            replies.remove(jobExecutionId, queue);
+        }
+        return result;
+    }
+
+    /**
+     * Sends the held partitions the consumers have credits for.
+     */
+    private void dispatch(Long jobExecutionId, Deque<StepExecution> held, Map<Long, StepExecution> outstanding,
+            Credits credits) {
+        final long limit = credits.limit();
+        while (!held.isEmpty() && outstanding.size() < limit) {
+            final StepExecution stepExecution = held.poll();
+            outstanding.put(stepExecution.getId(), stepExecution);
+            messagingOperations.send(MessageBuilder.withPayload(
+                    new StepExecutionRequest(stepName, jobExecutionId, stepExecution.getId())).build());
+        }
+    }
+
+    /**
+     * Hands a worker's reply to the master step waiting for it. The reply queue is shared by the master nodes: a
+     * reply of a job execution still running but not waited for on this node is refused, so the broker delivers it
+     * again, possibly to the node waiting for it.
+     *
+     * @param reply the step execution of a finished partition
+     * @throws IllegalStateException if the reply is for a running job execution of another node
+     */
+    public void handleReply(StepExecution reply) {
+        final BlockingQueue<Object> queue = replies.get(reply.getJobExecutionId());
+        if (queue != null) {
+            queue.add(reply);
+            return;
+        }
+        if (jobExplorer != null) {
+            final JobExecution jobExecution = jobExplorer.getJobExecution(reply.getJobExecutionId());
+            if (jobExecution != null && jobExecution.isRunning()) {
+                throw new IllegalStateException("No step of this node is waiting for job execution "
+                        + reply.getJobExecutionId() + ", returning the reply of " + reply + " to the queue");
+            }
+        }
+        logger.warn("Dropping the reply of " + reply + ", no step is waiting for job execution "
+                + reply.getJobExecutionId());
+    }
+
+    /**
+     * Hands a worker's heartbeat to the master step waiting for the partition.
+     *
+     * @param progress the progress of a running partition
+     */
+    public void handleProgress(PartitionProgress progress) {
+        final BlockingQueue<Object> queue = replies.get(progress.getJobExecutionId());
+        if (queue != null) {
+            queue.add(progress);
+        }
+    }
+
+    /**
+     * @return false if the reply is a duplicate
+     */
+    private boolean complete(StepExecution reply, Map<Long, StepExecution> outstanding, List<StepExecution> result,
+            int total) {
+        if (outstanding.remove(reply.getId()) == null) {
+            logger.debug("Ignoring duplicate reply of " + reply);
+            return false;
+        }
+        result.add(reply);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Partition " + reply.getStepName() + " finished with " + reply.getStatus() + ", "
+                    + result.size() + " of " + total + " done");
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of items of all partitions, -1 if not known for each of them
+     */
+    private long totalItems(Collection<StepExecution> split) {
+        long total = 0;
+        for (StepExecution stepExecution : split) {
+            final Object itemsCount = stepExecution.getExecutionContext().get(itemsCountKey);
+            if (!(itemsCount instanceof Number) || ((Number) itemsCount).longValue() < 0) {
+                return -1;
+            }
+            total += ((Number) itemsCount).longValue();
+        }
+        return total;
+    }
+
+    /**
+     * Logs the items read by the finished and running partitions, and the remaining time estimated from the
+     * items read so far, or from the partitions finished so far if the total number of items is not known.
+     */
+    private void reportProgress(List<StepExecution> result, Collection<PartitionProgress> running, int total,
+            long totalItems, long elapsed) {
+        long items = 0;
+        for (StepExecution stepExecution : result) {
+            items += stepExecution.getReadCount();
+        }
+        for (PartitionProgress progress : running) {
+            items += progress.getReadCount();
+        }
+        long remaining = -1;
+        if (totalItems > 0 && items > 0) {
+            remaining = elapsed * Math.max(totalItems - items, 0) / items;
+        }
+        else if (!result.isEmpty()) {
+            remaining = elapsed * (total - result.size()) / result.size();
+        }
+        final StringBuilder report = new StringBuilder("Step ").append(stepName).append(": ")
+                .append(result.size()).append(" of ").append(total).append(" partitions done, ")
+                .append(running.size()).append(" reporting progress, ").append(items);
+        if (totalItems > 0) {
+            report.append(" of ").append(totalItems);
+        }
+        report.append(" items read, ").append(elapsed > 0 ? items * 1000 / elapsed : 0).append(" items/s");
+        if (remaining >= 0) {
+            final long seconds = remaining / 1000;
+            report.append(", ETA ").append(
+                    String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60));
+        }
+        logger.info(report);
+    }
+
+    /**
+     * @return the outstanding partitions finished according to the job repository
+     */
+    private List<StepExecution> pollRepository(Long jobExecutionId, Map<Long, StepExecution> outstanding,
+            List<StepExecution> result, int total) {
+        final List<StepExecution> found = new ArrayList<StepExecution>();
+        if (jobExplorer == null) {
+            return found;
+        }
+        for (Iterator<Long> ids = new ArrayList<Long>(outstanding.keySet()).iterator(); ids.hasNext();) {
+            final StepExecution stepExecution = jobExplorer.getStepExecution(jobExecutionId, ids.next());
+            if (stepExecution != null && !stepExecution.getStatus().isRunning()
+                    && stepExecution.getEndTime() != null) {
+                logger.warn("No reply of partition " + stepExecution.getStepName() + ", taking its status "
+                        + stepExecution.getStatus() + " from the job repository");
+                complete(stepExecution, outstanding, result, total);
+                found.add(stepExecution);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * The partitions the consumers of a step may have in flight, counted again once
+     * {@link WorkStealingPartitionHandler#setConsumerCountRefresh(long) consumerCountRefresh} has passed.
+     */
+    private class Credits {
+
+        private long limit;
+
+        private long countedAt;
+
+        long limit() {
+            if (creditsPerConsumer == 0) {
+                return Long.MAX_VALUE;
+            }
+            final long now = System.currentTimeMillis();
+            if (countedAt == 0 || now - countedAt >= consumerCountRefresh) {
+                int consumers = consumerCountProvider == null ? -1 : consumerCountProvider.getConsumerCount();
+                if (consumers <= 0) {
+                    consumers = consumerCount;
+                }
+                if (limit != (long) creditsPerConsumer * consumers) {
+                    limit = (long) creditsPerConsumer * consumers;
+                    logger.info("Step " + stepName + " keeps at most " + limit + " partitions in flight for "
+                            + consumers + " consumers");
+                }
+                countedAt = now;
+            }
+            return limit;
+        }
+    }
+}
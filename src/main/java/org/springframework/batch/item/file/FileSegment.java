@@ -0,0 +1,123 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.item.file;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * A byte range of one file: the lines starting at <tt>startAt</tt> and ending before <tt>endAt</tt>.
+ * <p/>
+ * A partition spanning several files carries its segments as a single string in the execution context, one
+ * segment per line in the form <tt>startAt endAt itemsCount location</tt>, see {@link #format(List)} and
+ * {@link #parse(String)}.
+ */
+public final class FileSegment {
+
+    private final String location;
+
+    private final long startAt;
+
+    private final long endAt;
+
+    private final long itemsCount;
+
+    /**
+     * @param location the location of the file, e.g. <tt>file:/data/exchanges.txt</tt>
+     * @param startAt the byte offset of the first line
+     * @param endAt the byte offset (exclusive) at which the segment ends
+     * @param itemsCount the number of lines, negative if unknown
+     */
+    public FileSegment(String location, long startAt, long endAt, long itemsCount) {
+        Assert.hasText(location, "A location must be provided");
+        Assert.isTrue(location.indexOf('\n') < 0, "Location must not contain a line separator: " + location);
+        this.location = location;
+        this.startAt = startAt;
+        this.endAt = endAt;
+        this.itemsCount = itemsCount;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public long getStartAt() {
+        return startAt;
+    }
+
+    public long getEndAt() {
+        return endAt;
+    }
+
+    public long getItemsCount() {
+        return itemsCount;
+    }
+
+    /**
+     * @return the number of bytes of the segment
+     */
+    public long getLength() {
+        return endAt - startAt;
+    }
+
+    /**
+     * Encodes the segments for an execution context.
+     */
+    public static String format(List<FileSegment> segments) {
+        final StringBuilder value = new StringBuilder();
+        for (FileSegment segment : segments) {
+            if (value.length() > 0) {
+                value.append('\n');
+            }
+            value.append(segment.startAt).append(' ').append(segment.endAt).append(' ')
+                    .append(segment.itemsCount).append(' ').append(segment.location);
+        }
+        return value.toString();
+    }
+
+    /**
+     * Decodes the segments written by {@link #format(List)}.
+     *
+     * @throws IllegalArgumentException if the value is malformed
+     */
+    public static List<FileSegment> parse(String value) {
+        final List<FileSegment> segments = new ArrayList<FileSegment>();
+        if (!StringUtils.hasLength(value)) {
+            return segments;
+        }
+        for (String line : value.split("\n")) {
+            final String[] fields = line.split(" ", 4);
+            Assert.isTrue(fields.length == 4, "Malformed file segment [" + line + "]");
+            try {
+                segments.add(new FileSegment(fields[3], Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                        Long.parseLong(fields[2])));
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed file segment [" + line + "]", e);
+            }
+        }
+        return segments;
+    }
+
+    @Override
+    public String toString() {
+        return location + " [" + startAt + ", " + endAt + ")";
+    }
+}
@@ -0,0 +1,464 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.item.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An index of the members (blocks) of a block-compressed gzip file, i.e. a file of concatenated gzip members
+ * such as BGZF. Each entry maps the compressed offset at which a block starts to the offset of its first byte in
+ * the uncompressed data, so any uncompressed offset can be reached by inflating a single block from its start.
+ * <p/>
+ * A position in the uncompressed data is addressed by a virtual address: the compressed offset of the block
+ * (<tt>blockAt</tt>) and the offset of the byte within the inflated block (<tt>blockOffset</tt>).
+ * <p/>
+ * BGZF blocks are indexed from their headers and trailers without inflating them. Other files are inflated once
+ * to find the member borders. A file made of a single member has a single block and cannot be split. Like the
+ * {@link LineOffsetIndex} the index is stored in a sidecar file and only loaded while it matches the file.
+ */
+public class GzipBlockIndex {
+
+    /**
+     * The suffix appended to the indexed file name to build the sidecar file name.
+     */
+    public static final String DEFAULT_SUFFIX = ".gzidx";
+
+    private static final long MAGIC = 0x475A4958L; // "GZIX"
+
+    private static final long VERSION = 1L;
+
+    private static final int HEADER_LONGS = 7;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The size of the fixed part of a BGZF block header.
+     */
+    private static final int BGZF_HEADER_SIZE = 18;
+
+    private static Log logger = LogFactory.getLog(GzipBlockIndex.class);
+
+    private final long fileSize;
+    private final long lastModified;
+    private final long pathHash;
+    private final long uncompressedSize;
+    private final long[] compressedOffsets;
+    private final long[] uncompressedOffsets;
+    private final int blockCount;
+
+    private GzipBlockIndex(long fileSize, long lastModified, long pathHash, long uncompressedSize,
+            long[] compressedOffsets, long[] uncompressedOffsets, int blockCount) {
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.pathHash = pathHash;
+        this.uncompressedSize = uncompressedSize;
+        this.compressedOffsets = compressedOffsets;
+        this.uncompressedOffsets = uncompressedOffsets;
+        this.blockCount = blockCount;
+    }
+
+    /**
+     * Returns true if the file starts with the gzip magic bytes.
+     *
+     * @param file the file to check
+     * @throws IOException if the file could not be read
+     */
+    public static boolean isGzip(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return raf.length() >= 2 && raf.read() == 0x1f && raf.read() == 0x8b;
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the sidecar file holding the index of the given file, see
+     * {@link LineOffsetIndex#sidecarFor(File, File)}.
+     *
+     * @param file the indexed file
+     * @param indexDirectory the directory to store the index in, may be null
+     * @return the index file
+     */
+    public static File sidecarFor(File file, File indexDirectory) {
+        if (indexDirectory == null) {
+            return new File(file.getPath() + DEFAULT_SUFFIX);
+        }
+        return new File(indexDirectory, file.getName() + "-" + Long.toHexString(LineOffsetIndex.pathHash(file))
+                + DEFAULT_SUFFIX);
+    }
+
+    /**
+     * Loads the index from the sidecar file, or builds and stores it if the sidecar is missing or stale.
+     * A failure to store the index is logged and the index built in memory is returned.
+     *
+     * @param file the indexed file
+     * @param indexFile the sidecar file
+     * @return the index
+     * @throws IOException if the file could not be read
+     */
+    public static GzipBlockIndex obtain(File file, File indexFile) throws IOException {
+        final GzipBlockIndex existing = load(file, indexFile);
+        if (existing != null) {
+            return existing;
+        }
+        final GzipBlockIndex index = build(file);
+        try {
+            index.save(indexFile);
+        }
+        catch (IOException e) {
+            logger.warn("Block index could not be stored in [" + indexFile + "], continuing without it", e);
+        }
+        return index;
+    }
+
+    /**
+     * Loads the index of the given file from the sidecar file.
+     *
+     * @param file the indexed file
+     * @param indexFile the sidecar file
+     * @return the index or null if the sidecar does not exist or does not match the file any more
+     * @throws IOException if the sidecar could not be read
+     */
+    public static GzipBlockIndex load(File file, File indexFile) throws IOException {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        final FileChannel channel = new RandomAccessFile(indexFile, "r").getChannel();
+        try {
+            final long size = channel.size();
+            if (size < HEADER_LONGS * 8L || size % 8 != 0) {
+                return null;
+            }
+            final ByteBuffer bytes = ByteBuffer.allocate((int) size);
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                // fill the buffer
+            }
+            bytes.flip();
+            final LongBuffer longs = bytes.asLongBuffer();
+            if (longs.get() != MAGIC || longs.get() != VERSION) {
+                return null;
+            }
+            final long fileSize = longs.get();
+            final long lastModified = longs.get();
+            final long pathHash = longs.get();
+            if (fileSize != file.length() || lastModified != file.lastModified()
+                    || pathHash != LineOffsetIndex.pathHash(file)) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Block index [" + indexFile + "] is stale for [" + file + "]");
+                }
+                return null;
+            }
+            final long uncompressedSize = longs.get();
+            final int blockCount = (int) longs.get();
+            if (longs.remaining() != blockCount * 2) {
+                return null;
+            }
+            final long[] compressedOffsets = new long[blockCount];
+            final long[] uncompressedOffsets = new long[blockCount];
+            longs.get(compressedOffsets);
+            longs.get(uncompressedOffsets);
+            return new GzipBlockIndex(fileSize, lastModified, pathHash, uncompressedSize, compressedOffsets,
+                    uncompressedOffsets, blockCount);
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Builds the index of the file, from the block headers for a BGZF file, otherwise by inflating it once.
+     *
+     * @param file the file to index
+     * @return the index
+     * @throws IOException if the file could not be read or is not in gzip format
+     */
+    public static GzipBlockIndex build(File file) throws IOException {
+        final long lastModified = file.lastModified();
+        final Builder builder = new Builder();
+        final FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            final long size = channel.size();
+            if (!buildFromBgzfHeaders(channel, builder)) {
+                builder.clear();
+                channel.position(0);
+                final GzipBlockInputStream in = new GzipBlockInputStream(Channels.newInputStream(channel),
+                        BUFFER_SIZE) {
+                    @Override
+                    protected void memberStarted(long compressedOffset, long uncompressedOffset) {
+                        builder.add(compressedOffset, uncompressedOffset);
+                    }
+                };
+                try {
+                    final byte[] discard = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = in.read(discard, 0, discard.length)) >= 0) {
+                        builder.uncompressedSize += read;
+                    }
+                }
+                finally {
+                    in.close();
+                }
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Indexed [" + file + "]: " + builder.count + " block(s), " + builder.uncompressedSize
+                        + " byte(s) inflated");
+            }
+            return new GzipBlockIndex(size, lastModified, LineOffsetIndex.pathHash(file),
+                    builder.uncompressedSize, builder.compressedOffsets, builder.uncompressedOffsets, builder.count);
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Walks the BGZF blocks by their <tt>BC</tt> header field, which holds the block size, and their trailer, which
+     * holds the inflated size.
+     *
+     * @return false if the file is not in BGZF format
+     */
+    private static boolean buildFromBgzfHeaders(FileChannel channel, Builder builder) throws IOException {
+        final long size = channel.size();
+        final ByteBuffer header = ByteBuffer.allocate(BGZF_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        final ByteBuffer trailer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        long position = 0;
+        long uncompressed = 0;
+        while (position < size) {
+            header.clear();
+            if (readFully(channel, header, position) < BGZF_HEADER_SIZE) {
+                return false;
+            }
+            // ID1 ID2 CM FLG MTIME(4) XFL OS XLEN(2) SI1 SI2 SLEN(2) BSIZE(2)
+            if ((header.get(0) & 0xff) != 0x1f || (header.get(1) & 0xff) != 0x8b || header.get(2) != 8
+                    || (header.get(3) & 4) == 0 || header.getShort(10) != 6 || header.get(12) != 'B'
+                    || header.get(13) != 'C' || header.getShort(14) != 2) {
+                return false;
+            }
+            final long blockSize = (header.getShort(16) & 0xffff) + 1;
+            trailer.clear();
+            if (position + blockSize > size || readFully(channel, trailer, position + blockSize - 4) < 4) {
+                return false;
+            }
+            final long inflatedSize = trailer.getInt(0) & 0xffffffffL;
+            if (inflatedSize > 0) {
+                builder.add(position, uncompressed);
+            }
+            uncompressed += inflatedSize;
+            position += blockSize;
+        }
+        builder.uncompressedSize = uncompressed;
+        return true;
+    }
+
+    private static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Stores the index into the given file, through a temporary file renamed once written.
+     *
+     * @param indexFile the sidecar file
+     * @throws IOException if the index could not be written
+     */
+    public void save(File indexFile) throws IOException {
+        final File directory = indexFile.getAbsoluteFile().getParentFile();
+        final File tmp = File.createTempFile(indexFile.getName(), ".tmp", directory);
+        final ByteBuffer bytes = ByteBuffer.allocate((HEADER_LONGS + blockCount * 2) * 8);
+        final LongBuffer longs = bytes.asLongBuffer();
+        longs.put(MAGIC).put(VERSION).put(fileSize).put(lastModified).put(pathHash).put(uncompressedSize)
+                .put(blockCount);
+        longs.put(compressedOffsets, 0, blockCount);
+        longs.put(uncompressedOffsets, 0, blockCount);
+        final FileChannel channel = new RandomAccessFile(tmp, "rw").getChannel();
+        try {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        }
+        finally {
+            channel.close();
+        }
+        if (!tmp.renameTo(indexFile)) {
+            indexFile.delete();
+            if (!tmp.renameTo(indexFile)) {
+                tmp.delete();
+                throw new IOException("Could not rename [" + tmp + "] to [" + indexFile + "]");
+            }
+        }
+    }
+
+    /**
+     * @return the size of the indexed (compressed) file
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * @return the size of the inflated data
+     */
+    public long getUncompressedSize() {
+        return uncompressedSize;
+    }
+
+    /**
+     * @return the number of blocks holding data
+     */
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * @param block the block number
+     * @return the compressed offset at which the block starts
+     */
+    public long getCompressedOffset(int block) {
+        return compressedOffsets[block];
+    }
+
+    /**
+     * @param block the block number
+     * @return the offset of the first byte of the block in the inflated data
+     */
+    public long getUncompressedOffset(int block) {
+        return uncompressedOffsets[block];
+    }
+
+    /**
+     * Returns the block holding the given byte of the inflated data.
+     *
+     * @param uncompressedOffset the offset in the inflated data
+     * @return the block number
+     */
+    public int blockOf(long uncompressedOffset) {
+        return Math.max(search(uncompressedOffsets, uncompressedOffset) - 1, 0);
+    }
+
+    /**
+     * Returns the first block starting at or after the given compressed offset.
+     *
+     * @param compressedOffset the offset in the compressed file
+     * @return the block number or {@link #getBlockCount()} if there is no such block
+     */
+    public int ceilingBlock(long compressedOffset) {
+        return search(compressedOffsets, compressedOffset - 1);
+    }
+
+    /**
+     * Returns the first index whose value is strictly greater than the given one.
+     */
+    private int search(long[] values, long value) {
+        int low = 0;
+        int high = blockCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (values[mid] <= value) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Opens the inflated data of the file at the start of the given block.
+     *
+     * @param file the indexed file
+     * @param block the block number
+     * @param bufferSize the size of the buffer of compressed bytes
+     * @return the inflating stream, to be closed by the caller
+     * @throws IOException if the file could not be opened
+     */
+    public InputStream open(File file, int block, int bufferSize) throws IOException {
+        return openAt(file, compressedOffsets[block], bufferSize);
+    }
+
+    /**
+     * Opens the inflated data of the file at the block starting at the given compressed offset.
+     *
+     * @param file the compressed file
+     * @param blockAt the compressed offset of a block
+     * @param bufferSize the size of the buffer of compressed bytes
+     * @return the inflating stream, to be closed by the caller
+     * @throws IOException if the file could not be opened
+     */
+    public static InputStream openAt(File file, long blockAt, int bufferSize) throws IOException {
+        final FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            channel.position(blockAt);
+            return new GzipBlockInputStream(Channels.newInputStream(channel), bufferSize);
+        }
+        catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Collects the entries while the file is read.
+     */
+    private static class Builder {
+
+        private long[] compressedOffsets = new long[16];
+
+        private long[] uncompressedOffsets = new long[16];
+
+        private int count = 0;
+
+        private long uncompressedSize = 0;
+
+        void add(long compressedOffset, long uncompressedOffset) {
+            if (count == compressedOffsets.length) {
+                compressedOffsets = Arrays.copyOf(compressedOffsets, count * 2);
+                uncompressedOffsets = Arrays.copyOf(uncompressedOffsets, count * 2);
+            }
+            compressedOffsets[count] = compressedOffset;
+            uncompressedOffsets[count] = uncompressedOffset;
+            count++;
+        }
+
+        void clear() {
+            count = 0;
+            uncompressedSize = 0;
+        }
+    }
+}
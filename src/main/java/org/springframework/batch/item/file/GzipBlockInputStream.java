@@ -0,0 +1,229 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.item.file;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Inflates a sequence of gzip members (RFC 1952), such as a file written by concatenating gzip files or a BGZF
+ * file, starting at the beginning of any member.
+ * <p/>
+ * Unlike {@link java.util.zip.GZIPInputStream} the stream keeps track of the compressed offset at which each
+ * member starts, see {@link #memberStarted(long, long)}, and never relies on {@link InputStream#available()} to
+ * detect the next member.
+ */
+public class GzipBlockInputStream extends InputStream {
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final InputStream in;
+
+    private final byte[] buffer;
+
+    private final Inflater inflater = new Inflater(true);
+
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * The compressed offset of <tt>buffer[0]</tt>, relative to the start of the stream.
+     */
+    private long bufferOffset = 0;
+
+    private int position = 0;
+
+    private int limit = 0;
+
+    private long uncompressedOffset = 0;
+
+    private long memberSize;
+
+    private boolean inMember = false;
+
+    private boolean eof = false;
+
+    private final byte[] single = new byte[1];
+
+    /**
+     * @param in the compressed stream, positioned at the start of a member
+     * @param bufferSize the size of the buffer of compressed bytes
+     */
+    public GzipBlockInputStream(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (!eof) {
+            if (!inMember && !startMember()) {
+                eof = true;
+                break;
+            }
+            final int inflated;
+            try {
+                inflated = inflater.inflate(b, off, len);
+            }
+            catch (DataFormatException e) {
+                throw new ZipException("Corrupt gzip member: " + e.getMessage());
+            }
+            if (inflated > 0) {
+                crc.update(b, off, inflated);
+                memberSize += inflated;
+                uncompressedOffset += inflated;
+                return inflated;
+            }
+            if (inflater.finished()) {
+                position = limit - inflater.getRemaining();
+                readTrailer();
+                inMember = false;
+            }
+            else if (inflater.needsDictionary()) {
+                throw new ZipException("Gzip member needs a preset dictionary");
+            }
+            else if (inflater.needsInput()) {
+                if (position == limit && !fill()) {
+                    throw new EOFException("Unexpected end of the gzip member");
+                }
+                inflater.setInput(buffer, position, limit - position);
+                position = limit;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+
+    /**
+     * Called when a member header has been read.
+     *
+     * @param compressedOffset the offset of the member relative to the start of the stream
+     * @param uncompressedOffset the number of bytes inflated before the member
+     */
+    protected void memberStarted(long compressedOffset, long uncompressedOffset) {
+    }
+
+    /**
+     * Reads the header of the next member.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean startMember() throws IOException {
+        if (position == limit && !fill()) {
+            return false;
+        }
+        final long memberOffset = bufferOffset + position;
+        if (readUnsignedByte() != 0x1f || readUnsignedByte() != 0x8b) {
+            throw new ZipException("Not in gzip format at offset " + memberOffset);
+        }
+        if (readUnsignedByte() != 8) {
+            throw new ZipException("Unsupported compression method at offset " + memberOffset);
+        }
+        final int flags = readUnsignedByte();
+        skip(6); // MTIME, XFL, OS
+        if ((flags & FEXTRA) != 0) {
+            skip(readUnsignedShort());
+        }
+        if ((flags & FNAME) != 0) {
+            while (readUnsignedByte() != 0) {
+                // skip the file name
+            }
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (readUnsignedByte() != 0) {
+                // skip the comment
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            skip(2);
+        }
+        inflater.reset();
+        crc.reset();
+        memberSize = 0;
+        inMember = true;
+        memberStarted(memberOffset, uncompressedOffset);
+        return true;
+    }
+
+    private void readTrailer() throws IOException {
+        final long expectedCrc = readUnsignedInt();
+        final long expectedSize = readUnsignedInt();
+        if (expectedCrc != crc.getValue()) {
+            throw new ZipException("Corrupt gzip member, CRC mismatch");
+        }
+        if (expectedSize != (memberSize & 0xffffffffL)) {
+            throw new ZipException("Corrupt gzip member, size mismatch");
+        }
+    }
+
+    /**
+     * Reads the next compressed bytes into the buffer, once all the buffered ones have been consumed.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean fill() throws IOException {
+        bufferOffset += limit;
+        position = 0;
+        limit = 0;
+        final int read = in.read(buffer, 0, buffer.length);
+        if (read > 0) {
+            limit = read;
+        }
+        return limit > 0;
+    }
+
+    private int readUnsignedByte() throws IOException {
+        if (position == limit && !fill()) {
+            throw new EOFException("Unexpected end of the gzip member");
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    private int readUnsignedShort() throws IOException {
+        return readUnsignedByte() | (readUnsignedByte() << 8);
+    }
+
+    private long readUnsignedInt() throws IOException {
+        return readUnsignedShort() | ((long) readUnsignedShort() << 16);
+    }
+
+    private void skip(int bytes) throws IOException {
+        for (int i = 0; i < bytes; i++) {
+            readUnsignedByte();
+        }
+    }
+}
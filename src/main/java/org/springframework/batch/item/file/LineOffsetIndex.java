@@ -0,0 +1,414 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.item.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+/**
+ * A sparse index of line start offsets for a flat text file.
+ * <p/>
+ * Records the byte offset of every <tt>interval</tt>-th line, so entry <tt>k</tt> is the offset at which
+ * line <tt>k * interval</tt> (0-based) starts. Any other line can be located by seeking to the closest entry
+ * and scanning forward at most <tt>interval</tt> lines.
+ * <p/>
+ * The index is stored in a sidecar file as a plain array of longs: a fixed header holding the size,
+ * modification time and path hash of the indexed file, followed by the offsets. An index is only
+ * loaded when the header still matches the file, so a changed file is indexed again.
+ */
+public class LineOffsetIndex {
+
+    /**
+     * The suffix appended to the indexed file name to build the sidecar file name.
+     */
+    public static final String DEFAULT_SUFFIX = ".lidx";
+
+    /**
+     * Default number of lines between two index entries.
+     */
+    public static final int DEFAULT_INTERVAL = 1024;
+
+    private static final long MAGIC = 0x4C494458L; // "LIDX"
+
+    private static final long VERSION = 1L;
+
+    private static final int HEADER_LONGS = 9;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static Log logger = LogFactory.getLog(LineOffsetIndex.class);
+
+    private final long fileSize;
+    private final long lastModified;
+    private final long pathHash;
+    private final int interval;
+    private final byte separator;
+    private final long lineCount;
+    private final long[] offsets;
+    private final int entryCount;
+
+    private LineOffsetIndex(long fileSize, long lastModified, long pathHash, int interval, byte separator,
+            long lineCount, long[] offsets, int entryCount) {
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.pathHash = pathHash;
+        this.interval = interval;
+        this.separator = separator;
+        this.lineCount = lineCount;
+        this.offsets = offsets;
+        this.entryCount = entryCount;
+    }
+
+    /**
+     * Returns the sidecar file holding the index of the given file. When no index directory is given the
+     * sidecar is stored next to the file, otherwise in the directory under a name derived from the file path.
+     *
+     * @param file the indexed file
+     * @param indexDirectory the directory to store the index in, may be null
+     * @return the index file
+     */
+    public static File sidecarFor(File file, File indexDirectory) {
+        if (indexDirectory == null) {
+            return new File(file.getPath() + DEFAULT_SUFFIX);
+        }
+        return new File(indexDirectory, file.getName() + "-" + Long.toHexString(pathHash(file)) + DEFAULT_SUFFIX);
+    }
+
+    /**
+     * Loads the index from the sidecar file, or builds and stores it if the sidecar is missing or stale.
+     * A failure to store the index is logged and the index built in memory is returned.
+     *
+     * @param file the indexed file
+     * @param indexFile the sidecar file
+     * @param interval the number of lines between two entries when the index has to be built
+     * @param separator the line separator character
+     * @return the index
+     * @throws IOException if the file could not be read
+     */
+    public static LineOffsetIndex obtain(File file, File indexFile, int interval, char separator) throws IOException {
+        final LineOffsetIndex existing = load(file, indexFile);
+        if (existing != null && existing.separator == (byte) separator) {
+            return existing;
+        }
+        final LineOffsetIndex index = build(file, interval, separator);
+        try {
+            index.save(indexFile);
+        }
+        catch (IOException e) {
+            logger.warn("Line index could not be stored in [" + indexFile + "], continuing without it", e);
+        }
+        return index;
+    }
+
+    /**
+     * Loads the index of the given file from the sidecar file.
+     *
+     * @param file the indexed file
+     * @param indexFile the sidecar file
+     * @return the index or null if the sidecar does not exist or does not match the file any more
+     * @throws IOException if the sidecar could not be read
+     */
+    public static LineOffsetIndex load(File file, File indexFile) throws IOException {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        final FileChannel channel = new RandomAccessFile(indexFile, "r").getChannel();
+        try {
+            final long size = channel.size();
+            if (size < HEADER_LONGS * 8L || size % 8 != 0) {
+                return null;
+            }
+            final ByteBuffer bytes = ByteBuffer.allocate((int) size);
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                // fill the buffer
+            }
+            bytes.flip();
+            final LongBuffer longs = bytes.asLongBuffer();
+            if (longs.get() != MAGIC || longs.get() != VERSION) {
+                return null;
+            }
+            final long fileSize = longs.get();
+            final long lastModified = longs.get();
+            final long pathHash = longs.get();
+            if (fileSize != file.length() || lastModified != file.lastModified() || pathHash != pathHash(file)) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Line index [" + indexFile + "] is stale for [" + file + "]");
+                }
+                return null;
+            }
+            final int interval = (int) longs.get();
+            final byte separator = (byte) longs.get();
+            final long lineCount = longs.get();
+            final int entryCount = (int) longs.get();
+            if (longs.remaining() != entryCount) {
+                return null;
+            }
+            final long[] offsets = new long[entryCount];
+            longs.get(offsets);
+            return new LineOffsetIndex(fileSize, lastModified, pathHash, interval, separator, lineCount, offsets, entryCount);
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads the file through once and builds its index.
+     *
+     * @param file the file to index
+     * @param interval the number of lines between two entries
+     * @param separator the line separator character
+     * @return the index
+     * @throws IOException if the file could not be read
+     */
+    public static LineOffsetIndex build(File file, int interval, char separator) throws IOException {
+        Assert.isTrue(interval > 0, "Index interval must be greater than 0");
+        final LineScanner scanner = new LineScanner(separator);
+        final byte sep = scanner.getSeparator();
+        final long lastModified = file.lastModified();
+        final FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            final long size = channel.size();
+            long[] offsets = new long[16];
+            int entryCount = 0;
+            long lines = 0;
+            byte lastSeen = sep;
+            if (size > 0) {
+                offsets[entryCount++] = 0L;
+            }
+            final LineScanner.Source source = LineScanner.Source.map(channel, 0, size, LineScanner.DEFAULT_WINDOW_SIZE, false);
+            long position = 0;
+            ByteBuffer buffer;
+            while ((buffer = source.next()) != null) {
+                final int to = buffer.limit();
+                int from = buffer.position();
+                lastSeen = buffer.get(to - 1);
+                int found;
+                while (from < to && (found = scanner.indexOf(buffer, from, to)) >= 0) {
+                    lines++;
+                    from = found + 1;
+                    if (lines % interval == 0) {
+                        final long next = position + from;
+                        if (next < size) {
+                            if (entryCount == offsets.length) {
+                                offsets = Arrays.copyOf(offsets, entryCount * 2);
+                            }
+                            offsets[entryCount++] = next;
+                        }
+                    }
+                }
+                position += to;
+            }
+            // Last line is not terminated by the separator
+            if (size > 0 && lastSeen != sep) {
+                lines++;
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Indexed [" + file + "]: " + lines + " line(s), " + entryCount + " entries");
+            }
+            return new LineOffsetIndex(size, lastModified, pathHash(file), interval, sep, lines, offsets, entryCount);
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Stores the index into the given file. The index is written to a temporary file first and renamed,
+     * so that concurrent readers never see a partial index.
+     *
+     * @param indexFile the sidecar file
+     * @throws IOException if the index could not be written
+     */
+    public void save(File indexFile) throws IOException {
+        final File directory = indexFile.getAbsoluteFile().getParentFile();
+        final File tmp = File.createTempFile(indexFile.getName(), ".tmp", directory);
+        final ByteBuffer bytes = ByteBuffer.allocate((HEADER_LONGS + entryCount) * 8);
+        final LongBuffer longs = bytes.asLongBuffer();
+        longs.put(MAGIC).put(VERSION).put(fileSize).put(lastModified).put(pathHash)
+                .put(interval).put(separator).put(lineCount).put(entryCount);
+        longs.put(offsets, 0, entryCount);
+        final FileChannel channel = new RandomAccessFile(tmp, "rw").getChannel();
+        try {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        }
+        finally {
+            channel.close();
+        }
+        if (!tmp.renameTo(indexFile)) {
+            indexFile.delete();
+            if (!tmp.renameTo(indexFile)) {
+                tmp.delete();
+                throw new IOException("Could not rename [" + tmp + "] to [" + indexFile + "]");
+            }
+        }
+    }
+
+    /**
+     * @return the total number of lines, an unterminated last line included
+     */
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return the number of lines between two entries
+     */
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return the size of the indexed file
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * @return the number of entries in the index
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @param entry the entry number
+     * @return the byte offset at which the line of the entry starts
+     */
+    public long getEntryOffset(int entry) {
+        return offsets[entry];
+    }
+
+    /**
+     * @param entry the entry number
+     * @return the (0-based) number of the line the entry points to
+     */
+    public long getEntryLine(int entry) {
+        return (long) entry * interval;
+    }
+
+    /**
+     * Returns the first entry pointing strictly after the given offset.
+     *
+     * @param offset the byte offset
+     * @return the entry number or {@link #getEntryCount()} if there is no such entry
+     */
+    public int higherEntry(long offset) {
+        int low = 0;
+        int high = entryCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (offsets[mid] <= offset) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the byte offset at which the given line starts, reading at most {@link #getInterval()} lines
+     * from the channel.
+     *
+     * @param channel the channel of the indexed file
+     * @param line the (0-based) line number
+     * @return the byte offset or the file size if the line does not exist
+     * @throws IOException if the file could not be read
+     */
+    public long offsetOfLine(FileChannel channel, long line) throws IOException {
+        if (line >= lineCount) {
+            return fileSize;
+        }
+        final int entry = (int) (line / interval);
+        long position = offsets[entry];
+        long linesToSkip = line - getEntryLine(entry);
+        final LineScanner scanner = new LineScanner((char) separator);
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        while (linesToSkip > 0 && position < fileSize) {
+            buffer.clear();
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            int from = 0;
+            int found;
+            while (linesToSkip > 0 && (found = scanner.indexOf(buffer, from, read)) >= 0) {
+                linesToSkip--;
+                from = found + 1;
+            }
+            position += linesToSkip > 0 ? read : from;
+        }
+        return position;
+    }
+
+    /**
+     * Returns the number of the line starting at the given byte offset, reading at most up to one
+     * {@link #getInterval()} lines from the channel.
+     *
+     * @param channel the channel of the indexed file
+     * @param offset the byte offset of a line start
+     * @return the (0-based) line number
+     * @throws IOException if the file could not be read
+     */
+    public long lineAt(FileChannel channel, long offset) throws IOException {
+        if (offset >= fileSize) {
+            return lineCount;
+        }
+        final int entry = Math.max(higherEntry(offset) - 1, 0);
+        long line = getEntryLine(entry);
+        long position = offsets[entry];
+        final LineScanner scanner = new LineScanner((char) separator);
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        while (position < offset) {
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_SIZE, offset - position));
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            line += scanner.count(buffer, 0, read);
+            position += read;
+        }
+        return line;
+    }
+
+    static long pathHash(File file) {
+        // 64 bit FNV-1a of the absolute path
+        final String path = file.getAbsolutePath();
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < path.length(); i++) {
+            hash ^= path.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
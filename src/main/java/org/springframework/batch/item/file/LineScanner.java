@@ -0,0 +1,326 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.item.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Finds and counts line separators in {@link ByteBuffer}s eight bytes at a time.
+ * <p/>
+ * Each 8 byte word is XOR-ed with the separator repeated in every byte, which turns the separator bytes into
+ * zero bytes, and the zero bytes are then flagged in their high bit without any carry between the bytes
+ * (SWAR, "SIMD within a register"). Counting is a population count of the flags, locating the first separator
+ * is a count of the trailing (or leading, for big endian buffers) zero bits.
+ * <p/>
+ * The scanner works on heap, direct and memory-mapped buffers alike; a {@link Source} supplies large
+ * memory-mapped windows of a file or direct buffers filled from a stream.
+ */
+public class LineScanner {
+
+    /**
+     * Default size of the memory-mapped windows of a file.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Default size of the direct buffer used when reading from a stream.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private static final long ONES = 0x0101010101010101L;
+
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    private static final long HIGH_BITS = ~LOW_BITS;
+
+    private final byte separator;
+
+    private final long pattern;
+
+    public LineScanner(char separator) {
+        this.separator = (byte) separator;
+        this.pattern = ONES * (this.separator & 0xFF);
+    }
+
+    public byte getSeparator() {
+        return separator;
+    }
+
+    /**
+     * Returns the index of the first separator between the given absolute indexes of the buffer.
+     *
+     * @param buffer the buffer to scan, its position and limit are not used nor changed
+     * @param from the first index to scan
+     * @param to the index after the last one to scan
+     * @return the index of the separator or -1 if there is none
+     */
+    public int indexOf(ByteBuffer buffer, int from, int to) {
+        final boolean littleEndian = buffer.order() == ByteOrder.LITTLE_ENDIAN;
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            final long match = matches(buffer.getLong(i));
+            if (match != 0) {
+                return i + ((littleEndian ? Long.numberOfTrailingZeros(match) : Long.numberOfLeadingZeros(match)) >>> 3);
+            }
+        }
+        for (; i < to; ++i) {
+            if (buffer.get(i) == separator) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of separators between the given absolute indexes of the buffer.
+     *
+     * @param buffer the buffer to scan, its position and limit are not used nor changed
+     * @param from the first index to scan
+     * @param to the index after the last one to scan
+     * @return the number of separators
+     */
+    public long count(ByteBuffer buffer, int from, int to) {
+        long count = 0;
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            count += Long.bitCount(matches(buffer.getLong(i)));
+        }
+        for (; i < to; ++i) {
+            if (buffer.get(i) == separator) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Tells whether all bytes between the given absolute indexes of the buffer are 7 bit ASCII.
+     *
+     * @param buffer the buffer to check, its position and limit are not used nor changed
+     * @param from the first index to check
+     * @param to the index after the last one to check
+     * @return true if no byte has its high bit set
+     */
+    public static boolean isAscii(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            if ((buffer.getLong(i) & HIGH_BITS) != 0) {
+                return false;
+            }
+        }
+        for (; i < to; ++i) {
+            if (buffer.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts the lines of the source, skipping the given number of lines first.
+     * An unterminated last line is counted as a line.
+     *
+     * @param source the bytes to scan
+     * @param linesToSkip the number of lines to skip at the start
+     * @return the counter holding the number of lines and the number of skipped bytes
+     * @throws IOException if the source could not be read
+     */
+    public LineCounter countLines(Source source, long linesToSkip) throws IOException {
+        final LineCounter counter = new LineCounter(linesToSkip);
+        ByteBuffer buffer;
+        while ((buffer = source.next()) != null) {
+            counter.update(buffer);
+        }
+        return counter;
+    }
+
+    /**
+     * Flags the separator bytes of the word in their high bit.
+     */
+    private long matches(long word) {
+        final long x = word ^ pattern;
+        return ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+    }
+
+    /**
+     * Accumulates the line count over consecutive buffers.
+     */
+    public class LineCounter {
+
+        private long linesToSkip;
+        private long bytesToSkip = 0;
+        private long count = 0;
+        private byte lastByte = 0;
+        private boolean contentExists = false;
+
+        LineCounter(long linesToSkip) {
+            this.linesToSkip = linesToSkip;
+        }
+
+        /**
+         * Scans the remaining bytes of the buffer and moves its position to the limit.
+         *
+         * @param buffer the next bytes of the input
+         */
+        public void update(ByteBuffer buffer) {
+            int from = buffer.position();
+            final int to = buffer.limit();
+            if (from == to) {
+                return;
+            }
+            contentExists = true;
+            lastByte = buffer.get(to - 1);
+            while (linesToSkip > 0 && from < to) {
+                final int found = indexOf(buffer, from, to);
+                if (found < 0) {
+                    bytesToSkip += to - from;
+                    from = to;
+                }
+                else {
+                    bytesToSkip += found + 1 - from;
+                    linesToSkip--;
+                    from = found + 1;
+                }
+            }
+            count += count(buffer, from, to);
+            buffer.position(to);
+        }
+
+        /**
+         * @return the number of bytes of the skipped lines
+         */
+        public long getBytesToSkip() {
+            return bytesToSkip;
+        }
+
+        /**
+         * @return the number of lines after the skipped ones, an unterminated last line included
+         */
+        public long getLinesCount() {
+            // last line is not empty but is not terminated by the separator
+            if (contentExists && lastByte != separator && linesToSkip == 0) {
+                return count + 1;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Supplies the bytes to scan as a sequence of buffers.
+     */
+    public abstract static class Source implements Closeable {
+
+        /**
+         * @return the next buffer, positioned at its first byte, or null at the end of the input
+         * @throws IOException if the input could not be read
+         */
+        public abstract ByteBuffer next() throws IOException;
+
+        /**
+         * Maps the given byte range of the file window by window.
+         *
+         * @param file the file to scan
+         * @param from the first byte offset
+         * @param to the byte offset after the last byte, or a negative value for the end of the file
+         * @param windowSize the maximal size of a mapped window
+         * @return the source, which has to be closed
+         * @throws IOException if the file could not be opened
+         */
+        public static Source map(File file, long from, long to, int windowSize) throws IOException {
+            final FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+            return map(channel, from, to < 0 ? channel.size() : Math.min(to, channel.size()), windowSize, true);
+        }
+
+        /**
+         * Maps the given byte range of the channel window by window.
+         *
+         * @param channel the channel to scan
+         * @param from the first byte offset
+         * @param to the byte offset after the last byte
+         * @param windowSize the maximal size of a mapped window
+         * @param closeChannel whether closing the source closes the channel
+         * @return the source
+         */
+        public static Source map(final FileChannel channel, final long from, final long to, final int windowSize,
+                final boolean closeChannel) {
+            return new Source() {
+                private long position = from;
+
+                @Override
+                public ByteBuffer next() throws IOException {
+                    if (position >= to) {
+                        return null;
+                    }
+                    final long length = Math.min(windowSize, to - position);
+                    final ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                    window.order(ByteOrder.nativeOrder());
+                    position += length;
+                    return window;
+                }
+
+                public void close() throws IOException {
+                    if (closeChannel) {
+                        channel.close();
+                    }
+                }
+            };
+        }
+
+        /**
+         * Reads the stream into a reused direct buffer.
+         *
+         * @param in the stream to scan
+         * @param bufferSize the size of the buffer
+         * @param closeStream whether closing the source closes the stream
+         * @return the source
+         */
+        public static Source read(final InputStream in, int bufferSize, final boolean closeStream) {
+            final ReadableByteChannel channel = Channels.newChannel(in);
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.nativeOrder());
+            return new Source() {
+                @Override
+                public ByteBuffer next() throws IOException {
+                    buffer.clear();
+                    int read = 0;
+                    while (read == 0) {
+                        read = channel.read(buffer);
+                    }
+                    if (read < 0) {
+                        return null;
+                    }
+                    buffer.flip();
+                    return buffer;
+                }
+
+                public void close() throws IOException {
+                    if (closeStream) {
+                        in.close();
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.item.file;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A line of a file as a view on the bytes of a buffer, without the line separator.
+ * <p/>
+ * Lines of 7 bit ASCII are read as characters straight from the buffer. Other lines are decoded with the
+ * charset on the first access to their characters only. The slice keeps the buffer, typically a memory-mapped
+ * window of the file, from being released while it is referenced.
+ */
+public class LineSlice implements CharSequence {
+
+    private static final int UNKNOWN = 0;
+
+    private static final int ASCII = 1;
+
+    private static final int ENCODED = 2;
+
+    private final ByteBuffer buffer;
+
+    private final int offset;
+
+    private final int length;
+
+    private final long position;
+
+    private final Charset charset;
+
+    private int content = UNKNOWN;
+
+    private String decoded;
+
+    /**
+     * @param buffer the buffer holding the line, its position and limit are not used
+     * @param offset the index of the first byte of the line in the buffer
+     * @param length the number of bytes of the line
+     * @param position the byte offset of the line in the file
+     * @param charset the encoding of the line, which has to be a superset of ASCII
+     */
+    public LineSlice(ByteBuffer buffer, int offset, int length, long position, Charset charset) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        this.position = position;
+        this.charset = charset;
+    }
+
+    /**
+     * @return the byte offset of the line in the file
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the number of bytes of the line
+     */
+    public int getByteLength() {
+        return length;
+    }
+
+    /**
+     * @return a read-only buffer holding the bytes of the line only
+     */
+    public ByteBuffer getBytes() {
+        final ByteBuffer bytes = buffer.duplicate();
+        bytes.limit(offset + length);
+        bytes.position(offset);
+        return bytes.slice().asReadOnlyBuffer();
+    }
+
+    public int length() {
+        return isAscii() ? length : decoded().length();
+    }
+
+    public char charAt(int index) {
+        if (isAscii()) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length);
+            }
+            return (char) buffer.get(offset + index);
+        }
+        return decoded().charAt(index);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        if (isAscii()) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("Range: [" + start + ", " + end + "), length: " + length);
+            }
+            return new LineSlice(buffer, offset + start, end - start, position + start, charset);
+        }
+        return decoded().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return decoded();
+    }
+
+    private boolean isAscii() {
+        if (content == UNKNOWN) {
+            content = LineScanner.isAscii(buffer, offset, offset + length) ? ASCII : ENCODED;
+        }
+        return content == ASCII;
+    }
+
+    private String decoded() {
+        if (decoded == null) {
+            final byte[] bytes = new byte[length];
+            final ByteBuffer source = buffer.duplicate();
+            source.position(offset);
+            source.get(bytes);
+            decoded = new String(bytes, charset);
+        }
+        return decoded;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.item.file;
+
+/**
+ * Maps a line handed out as a {@link LineSlice} to an item, the counterpart of the {@link LineMapper}
+ * for the {@link MappedFlatFileItemReader}.
+ */
+public interface LineSliceMapper<T> {
+
+    /**
+     * @param line the line, a view on the bytes of the file that stays valid while referenced
+     * @param lineNumber the number of the line within the partition
+     * @return the item
+     * @throws Exception if the line could not be mapped
+     */
+    T mapLine(LineSlice line, int lineNumber) throws Exception;
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.item.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.support.AbstractItemCountingItemStreamItemReader;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.io.Resource;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+/**
+ * A memory-mapped sibling of the {@link MultiThreadedFlatFileItemReader} that maps only the byte range
+ * of its partition and hands the lines to a {@link LineSliceMapper} as {@link LineSlice}s, views on the
+ * mapped bytes that are decoded only when their characters are accessed.
+ * <p/>
+ * With the {@link org.springframework.batch.item.file.mapping.PassThroughLineSliceMapper} the items are the
+ * slices themselves, so a line costs one small object instead of a decoded char array and a String.
+ * The slices can not be reused between lines since the chunk holds on to the items until they are written.
+ * <p/>
+ * The range is mapped in windows of {@link #setWindowSize(int) windowSize} bytes, a window is released by the
+ * garbage collector once no slice of it is referenced. The resource has to be a file and the encoding has to
+ * store the line separators as single ASCII bytes, e.g. UTF-8 or ISO-8859-1. Lines are terminated by <tt>\n</tt>
+ * or <tt>\r\n</tt> and each item is stored on exactly one line.
+ * <p/>
+ * The properties are set from the <tt>stepExecutionContext</tt> populated by the
+ * {@link org.springframework.batch.core.partition.support.FlatFilePartitioner} like the ones of the
+ * {@link MultiThreadedFlatFileItemReader}, and restarts seek to the byte offset saved at the last commit.
+ */
+public class MappedFlatFileItemReader<T> extends AbstractItemCountingItemStreamItemReader<T> implements
+        ResourceAwareItemReaderItemStream<T>, InitializingBean {
+
+    private static final byte LF = '\n';
+
+    private static final byte CR = '\r';
+
+    private final LineScanner scanner = new LineScanner((char) LF);
+
+    private Resource resource;
+
+    private LineSliceMapper<T> lineSliceMapper;
+
+    private String encoding = FlatFileItemReader.DEFAULT_CHARSET;
+
+    private Charset charset;
+
+    private int windowSize = LineScanner.DEFAULT_WINDOW_SIZE;
+
+    private long startAt = 0;
+
+    private long endAt = -1;
+
+    private long seekTo;
+
+    private boolean positioned = false;
+
+    private FileChannel channel;
+
+    private long limit;
+
+    private ByteBuffer window;
+
+    private long windowStart;
+
+    private long position;
+
+    private int lineCount = 0;
+
+    public MappedFlatFileItemReader() {
+        setName(ClassUtils.getShortName(MappedFlatFileItemReader.class));
+    }
+
+    public void setResource(Resource resource) {
+        this.resource = resource;
+    }
+
+    /**
+     * @param lineSliceMapper maps the lines to items
+     */
+    public void setLineSliceMapper(LineSliceMapper<T> lineSliceMapper) {
+        this.lineSliceMapper = lineSliceMapper;
+    }
+
+    /**
+     * @param encoding the encoding of the file, defaults to {@link FlatFileItemReader#DEFAULT_CHARSET}
+     */
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    /**
+     * Sets the maximal number of bytes mapped at once, defaults to {@link LineScanner#DEFAULT_WINDOW_SIZE}.
+     * A window grows beyond it to hold a longer line.
+     *
+     * @param windowSize the window size in bytes
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * @param startAt the byte offset at which this instance should start reading
+     */
+    public void setStartAt(long startAt) {
+        this.startAt = startAt;
+    }
+
+    /**
+     * @param endAt the byte offset (exclusive) at which this instance should stop reading,
+     * a negative value, the default, reads up to the end of the file
+     */
+    public void setEndAt(long endAt) {
+        this.endAt = endAt;
+    }
+
+    /**
+     * A negative count means the number of items is unknown, the reader is then bound by the <tt>endAt</tt>
+     * offset or the end of the file only.
+     */
+    @Override
+    public void setMaxItemCount(int count) {
+        super.setMaxItemCount(count < 0 ? Integer.MAX_VALUE : count);
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(lineSliceMapper, "LineSliceMapper is required");
+        Assert.isTrue(windowSize > 0, "Window size must be positive");
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        seekTo = startAt;
+        if (isSaveState()) {
+            Assert.notNull(executionContext, "ExecutionContext must not be null");
+            final String startAtKey = getExecutionContextKey(MultiThreadedFlatFileItemReader.START_AT_KEY);
+            if (executionContext.containsKey(startAtKey)) {
+                startAt = executionContext.getLong(startAtKey);
+                seekTo = startAt;
+            }
+            final String positionKey = getExecutionContextKey(MultiThreadedFlatFileItemReader.POSITION_KEY);
+            if (executionContext.containsKey(positionKey)) {
+                seekTo = executionContext.getLong(positionKey);
+                positioned = true;
+            }
+        }
+        try {
+            super.open(executionContext);
+        }
+        finally {
+            positioned = false;
+        }
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        super.update(executionContext);
+        if (isSaveState() && channel != null) {
+            executionContext.putLong(getExecutionContextKey(MultiThreadedFlatFileItemReader.START_AT_KEY), startAt);
+            executionContext.putLong(getExecutionContextKey(MultiThreadedFlatFileItemReader.POSITION_KEY), position);
+        }
+    }
+
+    @Override
+    protected void doOpen() throws Exception {
+        Assert.notNull(resource, "Input resource must be set");
+        charset = Charset.forName(encoding);
+        Assert.state(PositionTrackingBufferedReader.supports(charset), "Encoding " + encoding
+                + " does not store the line separators as single bytes");
+        final File file = resource.getFile();
+        channel = new RandomAccessFile(file, "r").getChannel();
+        final long size = channel.size();
+        limit = endAt < 0 ? size : Math.min(endAt, size);
+        position = seekTo;
+        window = null;
+        lineCount = 0;
+    }
+
+    @Override
+    protected T doRead() throws Exception {
+        final LineSlice line = nextLine();
+        if (line == null) {
+            return null;
+        }
+        try {
+            return lineSliceMapper.mapLine(line, lineCount);
+        }
+        catch (Exception ex) {
+            throw new FlatFileParseException("Parsing error at line: " + lineCount + " in resource=["
+                    + resource.getDescription() + "], input=[" + line + "]", ex, line.toString(), lineCount);
+        }
+    }
+
+    /**
+     * Moves past the processed lines without mapping them unless the reader is already positioned at
+     * the restart item.
+     */
+    @Override
+    protected void jumpToItem(int itemIndex) throws Exception {
+        if (positioned) {
+            return;
+        }
+        for (int i = 0; i < itemIndex && nextLine() != null; i++) {
+        }
+    }
+
+    @Override
+    protected void doClose() throws Exception {
+        window = null;
+        if (channel != null) {
+            try {
+                channel.close();
+            }
+            finally {
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * @return the next line or null at the end of the range
+     */
+    private LineSlice nextLine() throws IOException {
+        if (position >= limit) {
+            return null;
+        }
+        int size = windowSize;
+        while (true) {
+            if (window == null || position >= windowStart + window.limit()) {
+                map(position, size);
+            }
+            final int from = (int) (position - windowStart);
+            final int found = scanner.indexOf(window, from, window.limit());
+            if (found >= 0 || windowStart + window.limit() >= limit) {
+                final int end = found >= 0 ? found : window.limit();
+                int length = end - from;
+                if (length > 0 && window.get(end - 1) == CR) {
+                    length--;
+                }
+                final LineSlice line = new LineSlice(window, from, length, position, charset);
+                position = windowStart + end + (found >= 0 ? 1 : 0);
+                lineCount++;
+                return line;
+            }
+            // the line continues beyond the window, map it again from the line start
+            if (from == 0) {
+                size = (int) Math.min(2L * size, Integer.MAX_VALUE);
+            }
+            window = null;
+        }
+    }
+
+    private void map(long start, int size) throws IOException {
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size, limit - start));
+        window.order(ByteOrder.nativeOrder());
+        windowStart = start;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.item.file;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.batch.item.ItemStreamSupport;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Reads the {@link FileSegment}s of a partition one after the other, as created by the
+ * {@link org.springframework.batch.core.partition.support.MultiResourceFlatFilePartitioner}:
+ * <p/>
+ * <pre>
+ *  &lt;bean id="myReader" class="org.springframework.batch.item.file.MultiResourceSegmentItemReader" scope="step"&gt;
+ *      &lt;property name="segments" value="#{stepExecutionContext['segments']}"/&gt;
+ *      &lt;property name="lineMapper" ref="lineMapper"/&gt;
+ *  &lt;/bean&gt;
+ * </pre>
+ * Each segment is read by a {@link MultiThreadedFlatFileItemReader} bound by the segment's offsets. The reader
+ * saves the index of the current segment together with the state of the segment's reader, so a restarted
+ * partition seeks straight to the first record not yet committed.
+ */
+public class MultiResourceSegmentItemReader<T> extends ItemStreamSupport implements ItemStreamReader<T>,
+        InitializingBean {
+
+    /**
+     * The index of the segment being read.
+     */
+    public static final String SEGMENT_INDEX_KEY = "segment.index";
+
+    /**
+     * The name of the segment readers, their state is saved under this prefix.
+     */
+    private static final String DELEGATE_NAME = "delegate";
+
+    private List<FileSegment> segments;
+
+    private LineMapper<T> lineMapper;
+
+    private String encoding = FlatFileItemReader.DEFAULT_CHARSET;
+
+    private int bufferSize = MultiThreadedFlatFileItemReader.DEFAULT_BUFFER_SIZE;
+
+    private ResourceLoader resourceLoader = new DefaultResourceLoader();
+
+    private boolean saveState = true;
+
+    private int current;
+
+    private MultiThreadedFlatFileItemReader<T> delegate;
+
+    public MultiResourceSegmentItemReader() {
+        setName(ClassUtils.getShortName(MultiResourceSegmentItemReader.class));
+    }
+
+    /**
+     * @param segments the segments to read, encoded by {@link FileSegment#format(List)}
+     */
+    public void setSegments(String segments) {
+        this.segments = FileSegment.parse(segments);
+    }
+
+    /**
+     * @param lineMapper maps the lines of all segments to items
+     */
+    public void setLineMapper(LineMapper<T> lineMapper) {
+        this.lineMapper = lineMapper;
+    }
+
+    /**
+     * @param encoding the encoding of the files, {@link FlatFileItemReader#DEFAULT_CHARSET} by default
+     */
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    /**
+     * @param bufferSize the buffer size of the segment readers
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @param resourceLoader resolves the locations of the segments
+     */
+    public void setResourceLoader(ResourceLoader resourceLoader) {
+        this.resourceLoader = resourceLoader;
+    }
+
+    /**
+     * @param saveState false to start over from the first segment on restart
+     */
+    public void setSaveState(boolean saveState) {
+        this.saveState = saveState;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(segments, "Segments must be provided");
+        Assert.notNull(lineMapper, "LineMapper is required");
+    }
+
+    public T read() throws Exception {
+        while (delegate != null) {
+            final T item = delegate.read();
+            if (item != null) {
+                return item;
+            }
+            delegate.close();
+            delegate = null;
+            if (++current < segments.size()) {
+                delegate = openSegment(current, new ExecutionContext());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        Assert.notNull(executionContext, "ExecutionContext must not be null");
+        current = 0;
+        final ExecutionContext delegateContext = new ExecutionContext();
+        if (saveState && executionContext.containsKey(getExecutionContextKey(SEGMENT_INDEX_KEY))) {
+            current = executionContext.getInt(getExecutionContextKey(SEGMENT_INDEX_KEY));
+            final String prefix = getExecutionContextKey(DELEGATE_NAME + ".");
+            for (Map.Entry<String, Object> entry : executionContext.entrySet()) {
+                if (entry.getKey().startsWith(prefix)) {
+                    delegateContext.put(DELEGATE_NAME + "." + entry.getKey().substring(prefix.length()),
+                            entry.getValue());
+                }
+            }
+        }
+        delegate = current < segments.size() ? openSegment(current, delegateContext) : null;
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        if (!saveState) {
+            return;
+        }
+        executionContext.putInt(getExecutionContextKey(SEGMENT_INDEX_KEY), current);
+        // drop the state of the previous segment's reader
+        final String prefix = getExecutionContextKey(DELEGATE_NAME + ".");
+        final List<String> keys = new ArrayList<String>();
+        for (Map.Entry<String, Object> entry : executionContext.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                keys.add(entry.getKey());
+            }
+        }
+        for (String key : keys) {
+            executionContext.remove(key);
+        }
+        if (delegate != null) {
+            final ExecutionContext delegateContext = new ExecutionContext();
+            delegate.update(delegateContext);
+            for (Map.Entry<String, Object> entry : delegateContext.entrySet()) {
+                executionContext.put(getExecutionContextKey(entry.getKey()), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws ItemStreamException {
+        if (delegate != null) {
+            delegate.close();
+            delegate = null;
+        }
+    }
+
+    private MultiThreadedFlatFileItemReader<T> openSegment(int index, ExecutionContext executionContext) {
+        final FileSegment segment = segments.get(index);
+        final MultiThreadedFlatFileItemReader<T> reader = new MultiThreadedFlatFileItemReader<T>();
+        reader.setName(DELEGATE_NAME);
+        reader.setResource(resourceLoader.getResource(segment.getLocation()));
+        reader.setLineMapper(lineMapper);
+        reader.setEncoding(encoding);
+        reader.setBufferSize(bufferSize);
+        reader.setStartAt(segment.getStartAt());
+        reader.setEndAt(segment.getEndAt());
+        reader.setMaxItemCount((int) Math.min(segment.getItemsCount(), Integer.MAX_VALUE));
+        reader.open(executionContext);
+        return reader;
+    }
+}
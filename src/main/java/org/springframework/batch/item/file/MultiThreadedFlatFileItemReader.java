@@ -16,14 +16,32 @@
 
 package org.springframework.batch.item.file;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.aop.scope.ScopedObject;
 import org.springframework.batch.item.ExecutionContext;
 import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.file.separator.RecordSeparatorPolicy;
+import org.springframework.batch.support.metrics.Histogram;
+import org.springframework.batch.support.metrics.MetricRegistry;
+import org.springframework.batch.support.metrics.StripedCounter;
 import org.springframework.core.io.Resource;
 import org.springframework.util.Assert;
 import org.springframework.util.ClassUtils;
@@ -49,8 +67,43 @@ import org.springframework.util.ClassUtils;
  *      &lt;property name="resource" value="#{stepExecutionContext['resource']}"/&gt;
  *      &lt;property name="maxItemCount" value="#{stepExecutionContext['itemsCount']}" /&gt;
  *      &lt;property name="startAt" value="#{stepExecutionContext['startAt']}"/&gt;
+ *      &lt;property name="endAt" value="#{stepExecutionContext['endAt'] ?: -1}"/&gt;
  *  &lt;/bean&gt;
  * </pre>
+ * When the partitioner does not know the number of lines of a partition it passes a negative <tt>itemsCount</tt>;
+ * the reader then reads until the <tt>endAt</tt> byte offset.
+ * <p/>
+ * The reader saves the byte offset of the next line to read on every update, so a restarted partition seeks
+ * straight to the first record not yet committed. This requires an encoding that stores the line separators as
+ * single ASCII bytes (e.g. UTF-8 or ISO-8859-1), see {@link PositionTrackingBufferedReader}. For other encodings,
+ * or with an execution context saved without the offset, the parent implementation re-reads and discards
+ * the lines already processed. With {@link #setUseLineIndex(boolean) useLineIndex} switched on the reader
+ * looks up the {@link LineOffsetIndex} stored by the partitioner in that case and seeks to the first line not
+ * yet read. This assumes that each item is stored on exactly one line.
+ * <p/>
+ * Resources that resolve to a file are opened through a {@link FileChannel} positioned directly at the start
+ * offset, so a partition does not pay for reading the bytes of the previous ones. Other resources are skipped
+ * through with a checked skip loop.
+ * <p/>
+ * With {@link #setStopAtRecordEnd(boolean) stopAtRecordEnd} switched on the stream is not cut at <tt>endAt</tt>:
+ * the reader completes the record holding the offset and stops before the first record starting at or after it,
+ * which suits records spanning several lines read with a quote-aware record separator policy.
+ * <p/>
+ * For a gzip file partitioned by its {@link GzipBlockIndex} the <tt>blockAt</tt> and <tt>blockOffset</tt>
+ * properties take the virtual address of the partition start set by the partitioner. The reader then inflates
+ * from that block on, and the offsets are offsets in the inflated data:
+ * <pre>
+ *      &lt;property name="blockAt" value="#{stepExecutionContext['blockAt'] ?: -1}"/&gt;
+ *      &lt;property name="blockOffset" value="#{stepExecutionContext['blockOffset'] ?: 0}"/&gt;
+ * </pre>
+ * <p/>
+ * With a {@link #setPrefetchSize(int) prefetchSize} the lines are read and mapped ahead by a producer thread of the
+ * partition into a bounded buffer, while the chunk loop takes the items from it, so reading overlaps with writing.
+ * The producer never reads more than the items left to the <tt>maxItemCount</tt>, and each buffered item carries
+ * the byte offset following it: the counts and the offset saved on update are those of the items handed out, not
+ * of the items read ahead. Read and mapping errors are handed out in order, in place of their items.
+ * As the producer thread runs outside of the step scope, the <tt>lineMapper</tt> and the
+ * <tt>recordSeparatorPolicy</tt> of a reader reading ahead must not be step scoped beans.
  * @author Sergey Shcherbakov
  */
 public class MultiThreadedFlatFileItemReader<T> extends FlatFileItemReader<T> {
@@ -60,8 +113,81 @@ public class MultiThreadedFlatFileItemReader<T> extends FlatFileItemReader<T> {
      */
     public static final String START_AT_KEY = "start.at";
 
+    /**
+     * The number of items read, as saved by the parent implementation.
+     */
+    private static final String READ_COUNT_KEY = "read.count";
+
+    /**
+     * The byte offset of the first line not yet committed.
+     */
+    public static final String POSITION_KEY = "position";
+
+    /**
+     * Default size of the byte and character buffers of the reader.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static Log logger = LogFactory.getLog(MultiThreadedFlatFileItemReader.class);
+
+    private static final Histogram SEEK_TIME = MetricRegistry.getInstance().histogram("reader.seek.us");
+
+    private static final Histogram LINE_RATE = MetricRegistry.getInstance().histogram("reader.linesPerSecond");
+
+    private static final StripedCounter LINES = MetricRegistry.getInstance().counter("reader.lines");
+
+    private static final Histogram PREFETCH_WAIT = MetricRegistry.getInstance().histogram("reader.prefetch.wait.us");
+
+    private Resource resource;
+
     private long startAt = 0;
 
+    private long endAt = -1;
+
+    private boolean useLineIndex = false;
+
+    private File lineIndexDirectory;
+
+    private boolean positioned = false;
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    private long blockAt = -1;
+
+    private long blockOffset = 0;
+
+    private String encoding = DEFAULT_CHARSET;
+
+    private boolean stopAtRecordEnd = false;
+
+    private long recordEndAt = -1;
+
+    private long openedAt;
+
+    private long linesRead;
+
+    private long linesReported;
+
+    private PositionalBufferedReaderFactory readerFactory;
+
+    private int maxItemCount = Integer.MAX_VALUE;
+
+    private int prefetchSize = 0;
+
+    private LineMapper<T> lineMapper;
+
+    private RecordSeparatorPolicy recordSeparatorPolicy;
+
+    private BlockingQueue<Prefetched<T>> prefetched;
+
+    private Thread producer;
+
+    private volatile boolean producing = false;
+
+    private boolean exhausted = false;
+
+    private long consumedPosition = -1;
+
     public MultiThreadedFlatFileItemReader() {
         setName(ClassUtils.getShortName(MultiThreadedFlatFileItemReader.class));
     }
@@ -76,38 +202,431 @@ public class MultiThreadedFlatFileItemReader<T> extends FlatFileItemReader<T> {
     public void setStartAt(long startAt) {
         this.startAt = startAt;
     }
+
+    /**
+     * Sets the byte offset within the file (exclusive) at which this instance should stop reading.
+     * A negative value, the default, reads up to the end of the file.
+     *
+     * @param endAt the byte offset at which this instance should stop reading
+     */
+    public void setEndAt(long endAt) {
+        this.endAt = endAt;
+    }
+
+    /**
+     * A negative count means the number of items is unknown, the reader is then bound by the <tt>endAt</tt>
+     * offset or the end of the file only.
+     */
+    @Override
+    public void setMaxItemCount(int count) {
+        this.maxItemCount = count < 0 ? Integer.MAX_VALUE : count;
+        super.setMaxItemCount(maxItemCount);
+    }
+
+    /**
+     * Sets the number of items read ahead by a producer thread, 0 (the default) to read on the caller's thread.
+     * The producer maps the lines outside of the step scope: the <tt>lineMapper</tt> and the
+     * <tt>recordSeparatorPolicy</tt> must then not be step scoped, which is checked on open.
+     *
+     * @param prefetchSize the capacity of the buffer of items read ahead
+     */
+    public void setPrefetchSize(int prefetchSize) {
+        this.prefetchSize = prefetchSize;
+    }
+
+    /**
+     * Sets the size of the byte and character buffers used when reading the resource.
+     * Defaults to {@link #DEFAULT_BUFFER_SIZE}.
+     *
+     * @param bufferSize the buffer size in bytes
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Sets the compressed offset of the gzip block holding the start offset. A negative value, the default,
+     * means the resource is not compressed.
+     *
+     * @param blockAt the compressed offset of the block
+     */
+    public void setBlockAt(long blockAt) {
+        this.blockAt = blockAt;
+    }
+
+    /**
+     * Sets the offset of the start offset within its inflated block, see {@link #setBlockAt(long)}.
+     *
+     * @param blockOffset the offset within the block
+     */
+    public void setBlockOffset(long blockOffset) {
+        this.blockOffset = blockOffset;
+    }
+
+    /**
+     * Switches on the record-aware stop condition: the reader stops at the first record starting at or after
+     * the <tt>endAt</tt> offset instead of cutting the stream at the offset. Requires an encoding whose offsets are
+     * tracked, see {@link PositionTrackingBufferedReader}, otherwise the stream is cut. Defaults to false.
+     *
+     * @param stopAtRecordEnd true to complete the record holding the end offset
+     */
+    public void setStopAtRecordEnd(boolean stopAtRecordEnd) {
+        this.stopAtRecordEnd = stopAtRecordEnd;
+    }
+
+    @Override
+    public void setLineMapper(LineMapper<T> lineMapper) {
+        super.setLineMapper(lineMapper);
+        this.lineMapper = lineMapper;
+    }
+
+    @Override
+    public void setRecordSeparatorPolicy(RecordSeparatorPolicy recordSeparatorPolicy) {
+        super.setRecordSeparatorPolicy(recordSeparatorPolicy);
+        this.recordSeparatorPolicy = recordSeparatorPolicy;
+    }
+
+    @Override
+    public void setEncoding(String encoding) {
+        super.setEncoding(encoding);
+        this.encoding = encoding;
+    }
+
+    @Override
+    public void setResource(Resource resource) {
+        super.setResource(resource);
+        this.resource = resource;
+    }
+
+    /**
+     * Switches on restarting from the {@link LineOffsetIndex} of the resource, if the partitioner stored one.
+     * Defaults to false.
+     *
+     * @param useLineIndex true to seek to the restart position by the line index
+     */
+    public void setUseLineIndex(boolean useLineIndex) {
+        this.useLineIndex = useLineIndex;
+    }
+
+    /**
+     * The directory the partitioner stores the line index in. By default the index is looked up next to the resource.
+     *
+     * @param lineIndexDirectory the directory
+     */
+    public void setLineIndexDirectory(File lineIndexDirectory) {
+        this.lineIndexDirectory = lineIndexDirectory;
+    }
     
     @Override
 	public void open(ExecutionContext executionContext) throws ItemStreamException {
+    	if (prefetchSize > 0) {
+    		Assert.state(!(lineMapper instanceof ScopedObject),
+    				"The lineMapper must not be step scoped when reading ahead, its producer thread has no step context");
+    		Assert.state(!(recordSeparatorPolicy instanceof ScopedObject),
+    				"The recordSeparatorPolicy must not be step scoped when reading ahead, its producer thread has no step context");
+    	}
+    	openedAt = System.nanoTime();
+    	linesRead = 0;
+    	linesReported = 0;
+    	long seekTo = this.startAt;
     	if (isSaveState()) {
 			Assert.notNull(executionContext, "ExecutionContext must not be null");
     		if (executionContext.containsKey(getExecutionContextKey(START_AT_KEY))) {
     			startAt = executionContext.getLong(getExecutionContextKey(START_AT_KEY));
+    			seekTo = startAt;
+    		}
+    		if (executionContext.containsKey(getExecutionContextKey(POSITION_KEY))) {
+    			seekTo = executionContext.getLong(getExecutionContextKey(POSITION_KEY));
+    			positioned = true;
+    		}
+    		else if (useLineIndex && blockAt < 0 && executionContext.containsKey(getExecutionContextKey(READ_COUNT_KEY))) {
+    			final long offset = offsetOfItem(executionContext.getInt(getExecutionContextKey(READ_COUNT_KEY)));
+    			if (offset >= 0) {
+    				seekTo = offset;
+    				positioned = true;
+    			}
+    		}
+    	}
+    	long streamEndAt = this.endAt;
+    	recordEndAt = -1;
+    	if (stopAtRecordEnd && endAt >= 0) {
+    		if (PositionTrackingBufferedReader.supports(Charset.forName(encoding))) {
+    			recordEndAt = endAt;
+    			streamEndAt = -1;
+    		}
+    		else {
+    			logger.warn("Offsets are not tracked for the encoding " + encoding + ", cutting the stream at " + endAt);
     		}
     	}
     	// replace the DefaultBufferedReaderFactory with an implementation that seeks to the start before reading
-        setBufferedReaderFactory(new SkippingBufferedReaderFactory(this.startAt));
-    	super.open(executionContext);
+        readerFactory = blockAt < 0 ? new PositionalBufferedReaderFactory(seekTo, streamEndAt, this.bufferSize)
+        		: createBlockReaderFactory(seekTo, streamEndAt);
+        setBufferedReaderFactory(readerFactory);
+        try {
+        	super.open(executionContext);
+        }
+        finally {
+        	positioned = false;
+        	SEEK_TIME.recordSince(openedAt);
+        }
+        if (prefetchSize > 0) {
+        	startProducer();
+        }
 	}
 
+    /**
+     * Starts reading ahead the items left, once the parent has positioned the reader at the restart item.
+     */
+    private void startProducer() {
+    	final int limit = maxItemCount - getCurrentItemCount();
+    	consumedPosition = readerFactory.getPosition();
+    	exhausted = false;
+    	prefetched = new ArrayBlockingQueue<Prefetched<T>>(prefetchSize);
+    	producing = true;
+    	producer = new Thread(new Runnable() {
+    		public void run() {
+    			produce(limit);
+    		}
+    	}, Thread.currentThread().getName() + "-prefetch");
+    	producer.setDaemon(true);
+    	producer.start();
+    }
+
+    private void produce(int limit) {
+    	int produced = 0;
+    	try {
+    		while (producing) {
+    			Prefetched<T> next;
+    			if (produced >= limit) {
+    				next = new Prefetched<T>(null, null, readerFactory.getPosition());
+    			}
+    			else {
+    				try {
+    					next = new Prefetched<T>(readDirectly(), null, readerFactory.getPosition());
+    				}
+    				catch (Exception e) {
+    					next = new Prefetched<T>(null, e, readerFactory.getPosition());
+    				}
+    				produced++;
+    			}
+    			prefetched.put(next);
+    			if (next.item == null && next.error == null) {
+    				return;
+    			}
+    		}
+    	}
+    	catch (InterruptedException e) {
+    		// closed while waiting for room in the buffer
+    	}
+    }
+
+    /**
+     * Stops the producer before the parent closes the reader: the byte stream is closed first so a read in progress
+     * fails, and the buffer emptied so the producer's last item finds room, then the producer is waited for.
+     */
+    private void stopProducer() {
+    	producing = false;
+    	if (producer != null) {
+    		producer.interrupt();
+    		try {
+    			readerFactory.closeStream();
+    		}
+    		catch (IOException e) {
+    			logger.debug("Could not close the stream read by " + producer.getName(), e);
+    		}
+    		prefetched.clear();
+    		boolean interrupted = false;
+    		while (producer.isAlive()) {
+    			try {
+    				producer.join();
+    			}
+    			catch (InterruptedException e) {
+    				interrupted = true;
+    			}
+    		}
+    		if (interrupted) {
+    			Thread.currentThread().interrupt();
+    		}
+    	}
+    	producer = null;
+    	prefetched = null;
+    }
+
+    /**
+     * Records the lines per second of the partition.
+     */
+    @Override
+    public void close() throws ItemStreamException {
+    	stopProducer();
+    	super.close();
+    	reportLines();
+    	if (linesRead > 0) {
+    		LINE_RATE.record((long) (linesRead * 1e9 / Math.max(System.nanoTime() - openedAt, 1)));
+    	}
+    	linesRead = 0;
+    	linesReported = 0;
+    }
+
+    /**
+     * Creates the factory inflating from the block holding the given offset: the partition's first block, or
+     * when restarting the block found in the {@link GzipBlockIndex}, if it is stored.
+     */
+    private PositionalBufferedReaderFactory createBlockReaderFactory(long seekTo, long streamEndAt) {
+    	long fromBlock = blockAt;
+    	long blockStart = startAt - blockOffset;
+    	if (seekTo != startAt && resource != null) {
+    		try {
+    			final File file = resource.getFile();
+    			final GzipBlockIndex index = GzipBlockIndex.load(file, GzipBlockIndex.sidecarFor(file, lineIndexDirectory));
+    			if (index != null) {
+    				final int block = index.blockOf(seekTo);
+    				fromBlock = index.getCompressedOffset(block);
+    				blockStart = index.getUncompressedOffset(block);
+    			}
+    		}
+    		catch (IOException e) {
+    			logger.warn("Block index of [" + resource + "] could not be used, inflating from the partition start", e);
+    		}
+    	}
+    	return new GzipBlockBufferedReaderFactory(seekTo, streamEndAt, this.bufferSize, fromBlock, blockStart);
+    }
+
+    /**
+     * Stops before the first record starting at or after the end offset when the stop condition is record-aware.
+     */
+    @Override
+    protected T doRead() throws Exception {
+    	final T item = prefetched == null ? readDirectly() : takePrefetched();
+    	if (item != null) {
+    		linesRead++;
+    	}
+    	return item;
+    }
+
+    private T readDirectly() throws Exception {
+    	if (recordEndAt >= 0 && readerFactory.getPosition() >= recordEndAt) {
+    		return null;
+    	}
+    	return super.doRead();
+    }
+
+    /**
+     * Takes the next item read ahead, and the offset following it as the position to save.
+     */
+    private T takePrefetched() throws Exception {
+    	if (exhausted) {
+    		return null;
+    	}
+    	Prefetched<T> next = prefetched.poll();
+    	if (next == null) {
+    		final long waitStarted = System.nanoTime();
+    		next = prefetched.take();
+    		PREFETCH_WAIT.recordSince(waitStarted);
+    	}
+    	consumedPosition = next.position;
+    	if (next.error != null) {
+    		throw next.error;
+    	}
+    	exhausted = next.item == null;
+    	return next.item;
+    }
+
+    /**
+     * Skips the parent's re-reading of the processed lines when the reader is already positioned at the restart item.
+     */
+    @Override
+    protected void jumpToItem(int itemIndex) throws Exception {
+    	if (!positioned) {
+    		super.jumpToItem(itemIndex);
+    	}
+    }
+
+    /**
+     * Looks up the byte offset of the given item of this partition in the line index.
+     *
+     * @return the byte offset or -1 if there is no usable index
+     */
+    private long offsetOfItem(int itemIndex) {
+    	if (itemIndex <= 0 || resource == null) {
+    		return -1;
+    	}
+    	try {
+    		final File file = resource.getFile();
+    		final LineOffsetIndex index = LineOffsetIndex.load(file, LineOffsetIndex.sidecarFor(file, lineIndexDirectory));
+    		if (index == null) {
+    			return -1;
+    		}
+    		final FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+    		try {
+    			return index.offsetOfLine(channel, index.lineAt(channel, startAt) + itemIndex);
+    		}
+    		finally {
+    			channel.close();
+    		}
+    	}
+    	catch (IOException e) {
+    		logger.warn("Line index of [" + resource + "] could not be used, skipping the processed lines instead", e);
+    		return -1;
+    	}
+    }
+
     @Override
 	public void update(ExecutionContext executionContext) throws ItemStreamException {
 		super.update(executionContext);
+		reportLines();
 		if (isSaveState()) {
 			executionContext.putLong(getExecutionContextKey(START_AT_KEY), startAt);
+			final long position = readerFactory == null ? -1
+					: (prefetched == null ? readerFactory.getPosition() : consumedPosition);
+			if (position >= 0) {
+				executionContext.putLong(getExecutionContextKey(POSITION_KEY), position);
+			}
 		}
 	}
 
+    /**
+     * Adds the lines read since the last report to the shared counter, once per chunk rather than per line.
+     */
+    private void reportLines() {
+    	LINES.add(linesRead - linesReported);
+    	linesReported = linesRead;
+    }
+
+    /**
+     * An item read ahead, or the error reading it, or the end of the partition if both are null.
+     */
+    private static class Prefetched<T> {
+
+    	private final T item;
+
+    	private final Exception error;
+
+    	private final long position;
+
+    	Prefetched(T item, Exception error, long position) {
+    		this.item = item;
+    		this.error = error;
+    		this.position = position;
+    	}
+    }
+
     public static class SkippingBufferedReaderFactory implements BufferedReaderFactory {
     	
     	private long skipBytes;
 
+    	private long endAt;
+
     	public SkippingBufferedReaderFactory() {
     		this(0L);
     	}
     	
     	public SkippingBufferedReaderFactory(long skipBytes) {
+    		this(skipBytes, -1L);
+    	}
+
+    	public SkippingBufferedReaderFactory(long skipBytes, long endAt) {
     		this.skipBytes = skipBytes;
+    		this.endAt = endAt;
     	}
     	
     	/* (non-Javadoc)
@@ -115,7 +634,10 @@ public class MultiThreadedFlatFileItemReader<T> extends FlatFileItemReader<T> {
     	 */
     	public BufferedReader create(Resource resource, String encoding) throws UnsupportedEncodingException, IOException {
     		InputStream is = resource.getInputStream();
-    		is.skip(this.skipBytes);
+    		skipFully(is, this.skipBytes);
+    		if (this.endAt >= 0) {
+    			is = new BoundedInputStream(is, this.endAt - this.skipBytes);
+    		}
     		return new BufferedReader(new InputStreamReader(is, encoding));
     	}
     	
@@ -123,6 +645,216 @@ public class MultiThreadedFlatFileItemReader<T> extends FlatFileItemReader<T> {
     		this.skipBytes = skipBytes;
     	}
 
+    	public void setEndAt(long endAt) {
+    		this.endAt = endAt;
+    	}
+
+    }
+
+    /**
+     * Opens resources that resolve to a file through a {@link FileChannel} positioned at the start offset,
+     * so no byte before the offset is read. Other resources fall back to skipping through the stream.
+     * <p/>
+     * The readers track the byte offset of the next line when the encoding allows, see {@link #getPosition()}.
+     */
+    public static class PositionalBufferedReaderFactory implements BufferedReaderFactory {
+
+    	private final long startAt;
+
+    	private final long endAt;
+
+    	private final int bufferSize;
+
+    	private PositionTrackingBufferedReader reader;
+
+    	private InputStream stream;
+
+    	public PositionalBufferedReaderFactory(long startAt, long endAt, int bufferSize) {
+    		this.startAt = startAt;
+    		this.endAt = endAt;
+    		this.bufferSize = bufferSize;
+    	}
+
+    	/* (non-Javadoc)
+    	 * @see org.springframework.batch.item.file.BufferedReaderFactory#create(org.springframework.core.io.Resource, java.lang.String)
+    	 */
+    	public BufferedReader create(Resource resource, String encoding) throws UnsupportedEncodingException, IOException {
+    		final Charset charset = Charset.forName(encoding);
+    		stream = open(resource);
+    		if (!PositionTrackingBufferedReader.supports(charset)) {
+    			reader = null;
+    			return new BufferedReader(new InputStreamReader(new BufferedInputStream(stream, bufferSize),
+    					charset), bufferSize);
+    		}
+    		reader = new PositionTrackingBufferedReader(stream, charset, bufferSize, startAt);
+    		return reader;
+    	}
+
+    	/**
+    	 * Closes the byte stream of the last created reader, failing a read in progress on another thread.
+    	 */
+    	public void closeStream() throws IOException {
+    		if (stream != null) {
+    			stream.close();
+    		}
+    	}
+
+    	/**
+    	 * @return the byte offset of the next line of the last created reader, or -1 if the offset is not tracked
+    	 */
+    	public long getPosition() {
+    		return reader == null ? -1 : reader.getPosition();
+    	}
+
+    	/**
+    	 * Opens the byte stream of the resource positioned at the start offset and bound by the end offset.
+    	 */
+    	protected InputStream open(Resource resource) throws IOException {
+    		final File file = fileOf(resource);
+    		InputStream is;
+    		if (file != null) {
+    			final FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+    			channel.position(startAt);
+    			is = Channels.newInputStream(channel);
+    		}
+    		else {
+    			is = resource.getInputStream();
+    			skipFully(is, startAt);
+    		}
+    		if (endAt >= 0) {
+    			is = new BoundedInputStream(is, endAt - startAt);
+    		}
+    		return is;
+    	}
+
+    	private static File fileOf(Resource resource) {
+    		try {
+    			return resource.getFile();
+    		}
+    		catch (FileNotFoundException e) {
+    			return null;
+    		}
+    		catch (IOException e) {
+    			return null;
+    		}
+    	}
+    }
+
+    /**
+     * Inflates a gzip file from the start of the block at the given compressed offset, see {@link GzipBlockIndex}.
+     * The start and end offsets are offsets in the inflated data.
+     */
+    public static class GzipBlockBufferedReaderFactory extends PositionalBufferedReaderFactory {
+
+    	private final long startAt;
+
+    	private final long endAt;
+
+    	private final int bufferSize;
+
+    	private final long blockAt;
+
+    	private final long blockStart;
+
+    	/**
+    	 * @param startAt the offset of the first line in the inflated data
+    	 * @param endAt the offset (exclusive) at which to stop in the inflated data, negative for the end of the file
+    	 * @param bufferSize the buffer size
+    	 * @param blockAt the compressed offset of a block at or before the start offset
+    	 * @param blockStart the offset of the first byte of that block in the inflated data
+    	 */
+    	public GzipBlockBufferedReaderFactory(long startAt, long endAt, int bufferSize, long blockAt, long blockStart) {
+    		super(startAt, endAt, bufferSize);
+    		Assert.isTrue(blockStart <= startAt, "The block must start before the start offset");
+    		this.startAt = startAt;
+    		this.endAt = endAt;
+    		this.bufferSize = bufferSize;
+    		this.blockAt = blockAt;
+    		this.blockStart = blockStart;
+    	}
+
+    	@Override
+    	protected InputStream open(Resource resource) throws IOException {
+    		InputStream is = GzipBlockIndex.openAt(resource.getFile(), blockAt, bufferSize);
+    		skipFully(is, startAt - blockStart);
+    		if (endAt >= 0) {
+    			is = new BoundedInputStream(is, endAt - startAt);
+    		}
+    		return is;
+    	}
+    }
+
+    /**
+     * Skips exactly the given number of bytes, {@link InputStream#skip(long)} may skip less.
+     *
+     * @throws EOFException if the stream ends before
+     */
+    static void skipFully(InputStream is, long bytes) throws IOException {
+    	long remaining = bytes;
+    	while (remaining > 0) {
+    		long skipped = is.skip(remaining);
+    		if (skipped <= 0) {
+    			if (is.read() < 0) {
+    				throw new EOFException("Stream ended " + remaining + " byte(s) before the start offset " + bytes);
+    			}
+    			skipped = 1;
+    		}
+    		remaining -= skipped;
+    	}
+    }
+
+    /**
+     * Reports the end of the stream once the given number of bytes has been read.
+     */
+    static class BoundedInputStream extends FilterInputStream {
+
+    	private long remaining;
+
+    	BoundedInputStream(InputStream in, long limit) {
+    		super(in);
+    		this.remaining = Math.max(limit, 0L);
+    	}
+
+    	@Override
+    	public int read() throws IOException {
+    		if (remaining <= 0) {
+    			return -1;
+    		}
+    		final int b = super.read();
+    		if (b >= 0) {
+    			remaining--;
+    		}
+    		return b;
+    	}
+
+    	@Override
+    	public int read(byte[] b, int off, int len) throws IOException {
+    		if (remaining <= 0) {
+    			return -1;
+    		}
+    		final int read = super.read(b, off, (int) Math.min(len, remaining));
+    		if (read > 0) {
+    			remaining -= read;
+    		}
+    		return read;
+    	}
+
+    	@Override
+    	public long skip(long n) throws IOException {
+    		final long skipped = super.skip(Math.min(n, remaining));
+    		remaining -= skipped;
+    		return skipped;
+    	}
+
+    	@Override
+    	public int available() throws IOException {
+    		return (int) Math.min(super.available(), remaining);
+    	}
+
+    	@Override
+    	public boolean markSupported() {
+    		return false;
+    	}
     }
 
 }
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.item.file;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A {@link BufferedReader} that splits the raw bytes into lines itself and so knows the byte offset of the
+ * next line to read.
+ * <p/>
+ * Lines are terminated by <tt>\n</tt> or <tt>\r\n</tt>, the way the {@link org.springframework.batch.core.partition.support.FlatFilePartitioner}
+ * splits the file; a lone <tt>\r</tt> is kept in the line. The characters read one by one or into an array are
+ * taken from the next line decoded with its separator, so the position then moves a line at a time. The encoding
+ * has to represent the line separators as single ASCII bytes, see {@link #supports(Charset)}.
+ */
+public class PositionTrackingBufferedReader extends BufferedReader {
+
+    private static final byte LF = '\n';
+
+    private static final byte CR = '\r';
+
+    private final InputStream in;
+
+    private final Charset charset;
+
+    private final LineScanner scanner = new LineScanner((char) LF);
+
+    private final byte[] buffer;
+
+    private final ByteBuffer wrapped;
+
+    private int pos = 0;
+
+    private int limit = 0;
+
+    private byte[] line = new byte[256];
+
+    private long position;
+
+    private String pending;
+
+    private int pendingPos;
+
+    /**
+     * @param in the stream, positioned at the given offset
+     * @param charset the encoding of the stream
+     * @param bufferSize the size of the byte buffer
+     * @param position the byte offset of the stream's first byte
+     */
+    public PositionTrackingBufferedReader(InputStream in, Charset charset, int bufferSize, long position) {
+        super(new StringReader(""), 1);
+        this.in = in;
+        this.charset = charset;
+        this.buffer = new byte[bufferSize];
+        this.wrapped = ByteBuffer.wrap(buffer).order(ByteOrder.nativeOrder());
+        this.position = position;
+    }
+
+    /**
+     * @return true if the encoding represents the line separators as the single ASCII bytes
+     */
+    public static boolean supports(Charset charset) {
+        return Arrays.equals("\r\n".getBytes(charset), new byte[] { CR, LF });
+    }
+
+    /**
+     * @return the byte offset of the next line, i.e. after the separator of the last line read or of the line the
+     * last characters read were taken from
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        if (pending != null) {
+            String rest = pending.substring(pendingPos);
+            pending = null;
+            if (rest.length() > 0) {
+                // the rest of the line partly read as characters
+                if (rest.endsWith("\n")) {
+                    rest = rest.substring(0, rest.length() - 1);
+                }
+                return rest.endsWith("\r") ? rest.substring(0, rest.length() - 1) : rest;
+            }
+        }
+        return nextLine(false);
+    }
+
+    /**
+     * Reads the next line and moves the position past its separator.
+     *
+     * @param keepSeparator true to keep the separator at the end of the line
+     */
+    private String nextLine(boolean keepSeparator) throws IOException {
+        int length = 0;
+        while (true) {
+            if (pos == limit && !fill()) {
+                return length == 0 ? null : decode(line, 0, length, !keepSeparator);
+            }
+            final int found = scanner.indexOf(wrapped, pos, limit);
+            final int end = found < 0 ? limit : found + 1;
+            if (length == 0 && found >= 0) {
+                // the whole line is in the buffer
+                position += end - pos;
+                final String result = keepSeparator ? decode(buffer, pos, end - pos, false)
+                        : decode(buffer, pos, found - pos, true);
+                pos = end;
+                return result;
+            }
+            length = append(length, end);
+            position += end - pos;
+            pos = end;
+            if (found >= 0) {
+                return keepSeparator ? decode(line, 0, length, false) : decode(line, 0, length - 1, true);
+            }
+        }
+    }
+
+    private int append(int length, int end) {
+        final int count = end - pos;
+        if (length + count > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, length + count));
+        }
+        System.arraycopy(buffer, pos, line, length, count);
+        return length + count;
+    }
+
+    private String decode(byte[] bytes, int offset, int length, boolean stripCr) {
+        if (stripCr && length > 0 && bytes[offset + length - 1] == CR) {
+            length--;
+        }
+        return new String(bytes, offset, length, charset);
+    }
+
+    private boolean fill() throws IOException {
+        int read = 0;
+        while (read == 0) {
+            read = in.read(buffer, 0, buffer.length);
+        }
+        pos = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final char[] c = new char[1];
+        return read(c, 0, 1) < 0 ? -1 : c[0];
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > cbuf.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (pending == null || pendingPos == pending.length()) {
+            pending = nextLine(true);
+            pendingPos = 0;
+            if (pending == null) {
+                return -1;
+            }
+        }
+        final int count = Math.min(len, pending.length() - pendingPos);
+        pending.getChars(pendingPos, pendingPos + count, cbuf, off);
+        pendingPos += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n < 0) {
+            throw new IllegalArgumentException("skip value is negative");
+        }
+        final char[] skipped = new char[(int) Math.min(n, 8192)];
+        long remaining = n;
+        while (remaining > 0) {
+            final int read = read(skipped, 0, (int) Math.min(remaining, skipped.length));
+            if (read < 0) {
+                break;
+            }
+            remaining -= read;
+        }
+        return n - remaining;
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        return (pending != null && pendingPos < pending.length()) || pos < limit || in.available() > 0;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
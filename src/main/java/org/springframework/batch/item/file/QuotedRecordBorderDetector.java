@@ -0,0 +1,203 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.item.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.springframework.util.Assert;
+
+/**
+ * Finds the start of a delimited record near any byte offset of a file whose quoted fields may hold line
+ * separators, without reading the file from its start.
+ * <p/>
+ * Whether a byte offset is inside a quoted field cannot be told locally, so the detector parses forward from the
+ * offset under both hypotheses, outside and inside a quoted field, and discards a hypothesis as soon as it
+ * contradicts the record structure: a quote opening a field must follow a delimiter, a line end or another quote,
+ * a quote closing a field must precede one of them, and a quoted field cannot be longer than
+ * {@link #setMaxRecordLength(int) maxRecordLength}. The record start is the first line end outside a quoted field
+ * under the surviving hypothesis. When both hypotheses survive the scan of two maximal record lengths, the
+ * border is reported as {@link Border#isAmbiguous() ambiguous} and the one of the outside hypothesis is returned.
+ * <p/>
+ * The file has to follow RFC 4180: fields holding quotes are quoted and the quotes inside them doubled. The
+ * quote, delimiter and line separator characters have to be single byte characters of the encoding.
+ */
+public class QuotedRecordBorderDetector {
+
+    /**
+     * Default upper bound of the length of a record in bytes.
+     */
+    public static final int DEFAULT_MAX_RECORD_LENGTH = 64 * 1024;
+
+    private static final int OUTSIDE = 0;
+
+    private static final int INSIDE = 1;
+
+    private byte quote = '"';
+
+    private byte delimiter = ',';
+
+    private byte separator = '\n';
+
+    private int maxRecordLength = DEFAULT_MAX_RECORD_LENGTH;
+
+    /**
+     * @param quoteCharacter the quote character, <tt>"</tt> by default
+     */
+    public void setQuoteCharacter(char quoteCharacter) {
+        this.quote = (byte) quoteCharacter;
+    }
+
+    /**
+     * @param delimiter the field delimiter, <tt>,</tt> by default
+     */
+    public void setDelimiter(char delimiter) {
+        this.delimiter = (byte) delimiter;
+    }
+
+    /**
+     * @param separator the line separator character, <tt>\n</tt> by default
+     */
+    public void setLineSeparatorCharacter(char separator) {
+        this.separator = (byte) separator;
+    }
+
+    /**
+     * @param maxRecordLength the upper bound of the length of a record in bytes, which also bounds the scan
+     */
+    public void setMaxRecordLength(int maxRecordLength) {
+        Assert.isTrue(maxRecordLength > 0, "Max record length must be greater than 0");
+        this.maxRecordLength = maxRecordLength;
+    }
+
+    /**
+     * Returns the start of the first record starting after the given offset. Reads the byte before the offset
+     * and at most two maximal record lengths after it.
+     *
+     * @param channel the channel of the file
+     * @param from the offset to search from, greater than 0
+     * @param sizeInBytes the size of the file
+     * @return the border, at the file size if no record starts before the end of the file, at -1 if no record
+     * starts in the scanned range
+     * @throws IOException if the file could not be read
+     */
+    public Border find(FileChannel channel, long from, long sizeInBytes) throws IOException {
+        Assert.isTrue(from > 0, "The offset must be greater than 0");
+        if (from >= sizeInBytes) {
+            return new Border(sizeInBytes, false);
+        }
+        final long windowStart = from - 1;
+        final int windowSize = (int) Math.min(sizeInBytes - windowStart, 2L * maxRecordLength + 1);
+        final ByteBuffer buffer = ByteBuffer.allocate(windowSize);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, windowStart + buffer.position()) < 0) {
+                break;
+            }
+        }
+        final int length = buffer.position();
+        final byte[] bytes = buffer.array();
+        final boolean windowEndsFile = windowStart + length >= sizeInBytes;
+
+        final boolean[] valid = { true, true };
+        final boolean[] inside = { false, true };
+        final int[] quotedSince = { -1, 1 };
+        final int[] recordStart = { -1, -1 };
+        for (int i = 1; i < length; i++) {
+            final byte c = bytes[i];
+            for (int h = OUTSIDE; h <= INSIDE; h++) {
+                if (!valid[h]) {
+                    continue;
+                }
+                if (c == quote) {
+                    if (!inside[h]) {
+                        final byte previous = bytes[i - 1];
+                        if (previous != delimiter && previous != separator && previous != '\r' && previous != quote) {
+                            valid[h] = false;
+                            continue;
+                        }
+                        inside[h] = true;
+                        quotedSince[h] = i;
+                    }
+                    else {
+                        if (i + 1 < length) {
+                            final byte next = bytes[i + 1];
+                            if (next != delimiter && next != separator && next != '\r' && next != quote) {
+                                valid[h] = false;
+                                continue;
+                            }
+                        }
+                        else if (!windowEndsFile) {
+                            continue;
+                        }
+                        inside[h] = false;
+                    }
+                }
+                else if (c == separator && !inside[h] && recordStart[h] < 0) {
+                    recordStart[h] = i + 1;
+                }
+                if (inside[h] && i - quotedSince[h] > maxRecordLength) {
+                    valid[h] = false;
+                }
+            }
+            if (valid[OUTSIDE] != valid[INSIDE]) {
+                final int h = valid[OUTSIDE] ? OUTSIDE : INSIDE;
+                if (recordStart[h] >= 0) {
+                    return new Border(windowStart + recordStart[h], false);
+                }
+            }
+            else if (!valid[OUTSIDE]) {
+                break;
+            }
+        }
+        final int h = valid[OUTSIDE] != valid[INSIDE] && valid[INSIDE] ? INSIDE : OUTSIDE;
+        final boolean ambiguous = valid[OUTSIDE] == valid[INSIDE];
+        if (recordStart[h] < 0) {
+            return new Border(windowEndsFile ? sizeInBytes : -1, ambiguous || !windowEndsFile);
+        }
+        return new Border(windowStart + recordStart[h], ambiguous);
+    }
+
+    /**
+     * A record start found by the detector.
+     */
+    public static class Border {
+
+        private final long offset;
+
+        private final boolean ambiguous;
+
+        Border(long offset, boolean ambiguous) {
+            this.offset = offset;
+            this.ambiguous = ambiguous;
+        }
+
+        /**
+         * @return the byte offset at which the record starts, or -1 if none was found
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return true if the quote state at the border could not be established
+         */
+        public boolean isAmbiguous() {
+            return ambiguous;
+        }
+    }
+}
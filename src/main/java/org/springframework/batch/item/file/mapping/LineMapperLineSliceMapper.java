@@ -0,0 +1,53 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.item.file.mapping;
+
+import org.springframework.batch.item.file.LineMapper;
+import org.springframework.batch.item.file.LineSlice;
+import org.springframework.batch.item.file.LineSliceMapper;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Adapts a {@link LineMapper} to a {@link LineSliceMapper}, decoding each line to a String first.
+ */
+public class LineMapperLineSliceMapper<T> implements LineSliceMapper<T>, InitializingBean {
+
+    private LineMapper<T> lineMapper;
+
+    public LineMapperLineSliceMapper() {
+    }
+
+    public LineMapperLineSliceMapper(LineMapper<T> lineMapper) {
+        this.lineMapper = lineMapper;
+    }
+
+    /**
+     * @param lineMapper the mapper of the decoded lines
+     */
+    public void setLineMapper(LineMapper<T> lineMapper) {
+        this.lineMapper = lineMapper;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(lineMapper, "LineMapper is required");
+    }
+
+    public T mapLine(LineSlice line, int lineNumber) throws Exception {
+        return lineMapper.mapLine(line.toString(), lineNumber);
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.item.file.mapping;
+
+import org.springframework.batch.item.file.LineSlice;
+import org.springframework.batch.item.file.LineSliceMapper;
+
+/**
+ * Pass through {@link LineSliceMapper} useful for passing the original line slice back directly,
+ * without decoding it.
+ */
+public class PassThroughLineSliceMapper implements LineSliceMapper<LineSlice> {
+
+    public LineSlice mapLine(LineSlice line, int lineNumber) throws Exception {
+        return line;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.repeat.policy;
+
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.ItemWriteListener;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.repeat.RepeatContext;
+import org.springframework.batch.repeat.context.RepeatContextSupport;
+import org.springframework.batch.support.metrics.Histogram;
+import org.springframework.batch.support.metrics.MetricRegistry;
+import org.springframework.util.Assert;
+
+/**
+ * Sizes the chunks of a step so that each takes about {@link #setTargetDuration(long) targetDuration}
+ * milliseconds, within {@link #setMinChunkSize(int) minChunkSize} and {@link #setMaxChunkSize(int) maxChunkSize}.
+ * <p/>
+ * After each chunk the time per item of reading and writing, and the time of the commit that follows, are
+ * folded into exponentially weighted moving averages; the next chunk gets as many items as fit in the target
+ * duration once the commit is paid, at most twice as many as the last one. A chunk that failed halves the size,
+ * so retrying it costs less. Without {@link #setAdaptive(boolean) adaptive} every chunk has the
+ * {@link #setChunkSize(int) chunkSize}, as with a commit interval.
+ * <p/>
+ * Must be registered as a listener of the step it completes the chunks of, and be step scoped so each partition
+ * measures its own chunks. The size chosen is recorded in the <tt>chunk.size</tt> histogram of the
+ * {@link MetricRegistry} and saved in the step's execution context under {@link #CHUNK_SIZE_KEY}, a restarted step
+ * starts with it.
+ */
+public class AdaptiveCompletionPolicy extends CompletionPolicySupport implements StepExecutionListener,
+        ItemWriteListener<Object>, ChunkListener {
+
+    /**
+     * The execution context key of the last chunk size chosen.
+     */
+    public static final String CHUNK_SIZE_KEY = "AdaptiveCompletionPolicy.chunkSize";
+
+    private static Log logger = LogFactory.getLog(AdaptiveCompletionPolicy.class);
+
+    private static final Histogram CHUNK_SIZE = MetricRegistry.getInstance().histogram("chunk.size");
+
+    private int chunkSize = 100;
+
+    private boolean adaptive = true;
+
+    private long targetDuration = 10000;
+
+    private int minChunkSize = 1;
+
+    private int maxChunkSize = Integer.MAX_VALUE;
+
+    private double smoothing = 0.3;
+
+    private int currentSize;
+
+    private long chunkStarted;
+
+    private long writeStarted;
+
+    private long writeEnded;
+
+    private long readNanos;
+
+    private long writeNanos;
+
+    private int items;
+
+    private double itemNanos = -1;
+
+    private double commitNanos = -1;
+
+    /**
+     * @param chunkSize the size of the first chunk, and of all of them if not {@link #setAdaptive(boolean)
+     * adaptive}
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param adaptive false to keep the {@link #setChunkSize(int) chunkSize}, true by default
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * @param targetDuration the time in milliseconds a chunk should take, commit included
+     */
+    public void setTargetDuration(long targetDuration) {
+        this.targetDuration = targetDuration;
+    }
+
+    /**
+     * @param minChunkSize the smallest chunk size chosen
+     */
+    public void setMinChunkSize(int minChunkSize) {
+        this.minChunkSize = minChunkSize;
+    }
+
+    /**
+     * @param maxChunkSize the largest chunk size chosen
+     */
+    public void setMaxChunkSize(int maxChunkSize) {
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    /**
+     * @param smoothing the weight of the last chunk in the moving averages, between 0 (exclusive) and 1
+     */
+    public void setSmoothing(double smoothing) {
+        Assert.isTrue(smoothing > 0 && smoothing <= 1, "Smoothing must be in (0, 1]");
+        this.smoothing = smoothing;
+    }
+
+    public void beforeStep(StepExecution stepExecution) {
+        Assert.isTrue(minChunkSize > 0 && minChunkSize <= maxChunkSize,
+                "Chunk size bounds must be greater than 0 and ordered");
+        currentSize = bound(chunkSize);
+        if (adaptive && stepExecution.getExecutionContext().containsKey(CHUNK_SIZE_KEY)) {
+            currentSize = bound(stepExecution.getExecutionContext().getInt(CHUNK_SIZE_KEY));
+            logger.debug("Restarting " + stepExecution.getStepName() + " with chunks of " + currentSize);
+        }
+    }
+
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        return null;
+    }
+
+    @Override
+    public RepeatContext start(RepeatContext parent) {
+        if (currentSize == 0) {
+            currentSize = bound(chunkSize);
+        }
+        chunkStarted = System.nanoTime();
+        items = 0;
+        return new ChunkSizeContext(parent, currentSize);
+    }
+
+    @Override
+    public boolean isComplete(RepeatContext context) {
+        return context.getStartedCount() >= ((ChunkSizeContext) context).size;
+    }
+
+    @Override
+    public void update(RepeatContext context) {
+        ((ChunkSizeContext) context).increment();
+    }
+
+    public void beforeWrite(List<? extends Object> items) {
+        writeStarted = System.nanoTime();
+        readNanos = writeStarted - chunkStarted;
+    }
+
+    public void afterWrite(List<? extends Object> items) {
+        writeEnded = System.nanoTime();
+        writeNanos = writeEnded - writeStarted;
+        this.items = items.size();
+    }
+
+    public void onWriteError(Exception exception, List<? extends Object> items) {
+    }
+
+    public void beforeChunk(ChunkContext context) {
+    }
+
+    public void afterChunk(ChunkContext context) {
+        if (items == 0) {
+            return;
+        }
+        CHUNK_SIZE.record(items);
+        if (!adaptive) {
+            return;
+        }
+        itemNanos = average(itemNanos, (double) (readNanos + writeNanos) / items);
+        commitNanos = average(commitNanos, System.nanoTime() - writeEnded);
+        final double budget = targetDuration * 1000000.0 - commitNanos;
+        final long fitting = budget <= 0 ? minChunkSize : (long) (budget / Math.max(itemNanos, 1));
+        resize(context.getStepContext().getStepExecution(), (int) Math.min(fitting, 2L * items));
+    }
+
+    public void afterChunkError(ChunkContext context) {
+        if (adaptive) {
+            resize(context.getStepContext().getStepExecution(), currentSize / 2);
+        }
+    }
+
+    private void resize(StepExecution stepExecution, int size) {
+        final int bounded = bound(size);
+        if (bounded != currentSize && logger.isDebugEnabled()) {
+            logger.debug("Chunks of " + stepExecution.getStepName() + " resized from " + currentSize + " to "
+                    + bounded);
+        }
+        currentSize = bounded;
+        stepExecution.getExecutionContext().putInt(CHUNK_SIZE_KEY, currentSize);
+    }
+
+    private double average(double average, double sample) {
+        return average < 0 ? sample : average + smoothing * (sample - average);
+    }
+
+    private int bound(int size) {
+        return Math.max(minChunkSize, Math.min(maxChunkSize, size));
+    }
+
+    /**
+     * A chunk, complete once it has read its size.
+     */
+    private static class ChunkSizeContext extends RepeatContextSupport {
+
+        private final int size;
+
+        ChunkSizeContext(RepeatContext parent, int size) {
+            super(parent);
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.support.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the distribution of non-negative values, e.g. durations in microseconds, in logarithmic buckets with
+ * 8 linear sub-buckets each, so a recorded value costs two atomic additions and a percentile is off by at most
+ * 12.5%. Values below 16 are counted exactly.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Values below this limit each have a bucket of their own.
+     */
+    private static final int EXACT_LIMIT = 2 * SUB_BUCKETS;
+
+    private static final int BUCKETS = EXACT_LIMIT + (64 - SUB_BUCKET_BITS - 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final StripedCounter count = new StripedCounter();
+
+    private final StripedCounter sum = new StripedCounter();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value the value to record, negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Records the microseconds elapsed since the given {@link System#nanoTime()}.
+     *
+     * @param startNanos the time the measured operation started
+     */
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        final long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return the upper bound of the bucket holding the percentile, 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        final long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    static int bucketOf(long value) {
+        if (value < EXACT_LIMIT) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return EXACT_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < EXACT_LIMIT) {
+            return bucket;
+        }
+        final int exponent = (bucket - EXACT_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        final long subBucket = (bucket - EXACT_LIMIT) % SUB_BUCKETS;
+        final long lowerBound = (1L << exponent) + (subBucket << (exponent - SUB_BUCKET_BITS));
+        return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
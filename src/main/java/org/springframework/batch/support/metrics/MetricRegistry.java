@@ -0,0 +1,85 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.support.metrics;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The named {@link StripedCounter}s and {@link Histogram}s of a JVM. The instrumented classes look their metrics
+ * up once, typically into static fields, from the {@link #getInstance() shared registry}, which the
+ * {@link MetricsMBean} exposes over JMX.
+ * <p/>
+ * By convention durations are recorded in microseconds and their names end with <tt>.us</tt>.
+ */
+public class MetricRegistry {
+
+    private static final MetricRegistry INSTANCE = new MetricRegistry();
+
+    private final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * @return the registry shared by the whole JVM
+     */
+    public static MetricRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the counter of the given name, created on first use
+     */
+    public StripedCounter counter(String name) {
+        return metric(name, StripedCounter.class);
+    }
+
+    /**
+     * @return the histogram of the given name, created on first use
+     */
+    public Histogram histogram(String name) {
+        return metric(name, Histogram.class);
+    }
+
+    /**
+     * @return the metrics sorted by name
+     */
+    public SortedMap<String, Object> getMetrics() {
+        return new TreeMap<String, Object>(metrics);
+    }
+
+    private <T> T metric(String name, Class<T> type) {
+        Object metric = metrics.get(name);
+        if (metric == null) {
+            try {
+                metric = type.newInstance();
+            }
+            catch (Exception e) {
+                throw new IllegalStateException("Could not create the metric " + name, e);
+            }
+            final Object existing = metrics.putIfAbsent(name, metric);
+            if (existing != null) {
+                metric = existing;
+            }
+        }
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + metric.getClass().getSimpleName()
+                    + ", not a " + type.getSimpleName());
+        }
+        return type.cast(metric);
+    }
+}
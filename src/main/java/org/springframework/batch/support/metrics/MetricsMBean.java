@@ -0,0 +1,129 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.support.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Exposes the metrics of a {@link MetricRegistry} as read-only JMX attributes, created as the metrics are: a
+ * counter <tt>name</tt> as the attribute <tt>name</tt>, a histogram <tt>name</tt> as the attributes
+ * <tt>name.count</tt>, <tt>name.mean</tt>, <tt>name.max</tt>, <tt>name.p50</tt>, <tt>name.p90</tt> and
+ * <tt>name.p99</tt>.
+ */
+public class MetricsMBean implements DynamicMBean {
+
+    private static final String[] HISTOGRAM_ATTRIBUTES = { "count", "mean", "max", "p50", "p90", "p99" };
+
+    private MetricRegistry registry = MetricRegistry.getInstance();
+
+    /**
+     * @param registry the registry to expose, the shared one by default
+     */
+    public void setRegistry(MetricRegistry registry) {
+        this.registry = registry;
+    }
+
+    public Object getAttribute(String attribute) throws AttributeNotFoundException, MBeanException,
+            ReflectionException {
+        final Map<String, Object> metrics = registry.getMetrics();
+        final Object counter = metrics.get(attribute);
+        if (counter instanceof StripedCounter) {
+            return ((StripedCounter) counter).get();
+        }
+        final int dot = attribute.lastIndexOf('.');
+        final Object histogram = dot < 0 ? null : metrics.get(attribute.substring(0, dot));
+        if (histogram instanceof Histogram) {
+            final Histogram h = (Histogram) histogram;
+            final String statistic = attribute.substring(dot + 1);
+            if ("count".equals(statistic)) {
+                return h.getCount();
+            }
+            if ("mean".equals(statistic)) {
+                return h.getMean();
+            }
+            if ("max".equals(statistic)) {
+                return h.getMax();
+            }
+            if (statistic.startsWith("p")) {
+                try {
+                    return h.getPercentile(Double.parseDouble(statistic.substring(1)));
+                }
+                catch (NumberFormatException e) {
+                    // not a percentile
+                }
+            }
+        }
+        throw new AttributeNotFoundException("No metric " + attribute);
+    }
+
+    public AttributeList getAttributes(String[] attributes) {
+        final AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            }
+            catch (Exception e) {
+                // left out, as the contract of getAttributes allows
+            }
+        }
+        return list;
+    }
+
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metric " + attribute.getName() + " is read-only");
+    }
+
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName), "No operation " + actionName);
+    }
+
+    public MBeanInfo getMBeanInfo() {
+        final List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        for (Map.Entry<String, Object> entry : registry.getMetrics().entrySet()) {
+            if (entry.getValue() instanceof Histogram) {
+                for (String statistic : HISTOGRAM_ATTRIBUTES) {
+                    attributes.add(new MBeanAttributeInfo(entry.getKey() + "." + statistic,
+                            "mean".equals(statistic) ? Double.class.getName() : Long.class.getName(), statistic
+                                    + " of " + entry.getKey(), true, false, false));
+                }
+            }
+            else {
+                attributes.add(new MBeanAttributeInfo(entry.getKey(), Long.class.getName(), entry.getKey(), true,
+                        false, false));
+            }
+        }
+        return new MBeanInfo(getClass().getName(), "Batch metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+                new MBeanOperationInfo[0], null);
+    }
+}
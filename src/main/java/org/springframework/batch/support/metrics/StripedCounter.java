@@ -0,0 +1,66 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.support.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter spread over several cells picked by the id of the adding thread, so concurrent partitions do not
+ * contend on a single atomic value. Each cell sits on a cache line of its own. Reading sums all cells, so the
+ * counter suits values added often and read rarely.
+ */
+public class StripedCounter {
+
+    /**
+     * Longs per cache line, only the first one of each line is used.
+     */
+    private static final int PADDING = 8;
+
+    private static final int STRIPES = stripes();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long value) {
+        cells.addAndGet(((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING, value);
+    }
+
+    /**
+     * @return the sum of all values added, not a snapshot while values are being added
+     */
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * @return the power of 2 at or above twice the number of processors
+     */
+    private static int stripes() {
+        int stripes = 1;
+        while (stripes < 2 * Runtime.getRuntime().availableProcessors()) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.core.repository.dao;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.StreamCorruptedException;
+
+import org.junit.Test;
+
+public class Base64CodecTests {
+
+    @Test
+    public void testVectorsOfRfc4648() throws Exception {
+        final String[] plain = { "", "f", "fo", "foo", "foob", "fooba", "foobar" };
+        final String[] encoded = { "", "Zg==", "Zm8=", "Zm9v", "Zm9vYg==", "Zm9vYmE=", "Zm9vYmFy" };
+        for (int i = 0; i < plain.length; i++) {
+            assertEquals(encoded[i], Base64Codec.encode(plain[i].getBytes("US-ASCII")));
+            assertArrayEquals(plain[i].getBytes("US-ASCII"), Base64Codec.decode(encoded[i]));
+        }
+    }
+
+    @Test
+    public void testRoundTripOfAllByteValues() throws Exception {
+        final byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        assertEquals("+/8=", Base64Codec.encode(new byte[] { (byte) 0xfb, (byte) 0xff }));
+        assertArrayEquals(bytes, Base64Codec.decode(Base64Codec.encode(bytes)));
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testUnpaddedText() throws Exception {
+        Base64Codec.decode("Zm8");
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testPaddingInsideText() throws Exception {
+        Base64Codec.decode("Zg==Zm8=");
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testCharacterOutsideAlphabet() throws Exception {
+        Base64Codec.decode("Zm9\u00e9");
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.core.repository.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.batch.core.repository.ExecutionContextSerializer;
+
+public class CompactExecutionContextSerializerTests {
+
+    private final CompactExecutionContextSerializer serializer = new CompactExecutionContextSerializer();
+
+    @Before
+    public void setUp() throws Exception {
+        serializer.setFallback(new ExecutionContextSerializer() {
+            public void serialize(Map<String, Object> context, OutputStream out) throws IOException {
+                throw new UnsupportedOperationException();
+            }
+
+            public Map<String, Object> deserialize(InputStream in) throws IOException {
+                return Collections.<String, Object> singletonMap("fallback", true);
+            }
+        });
+        serializer.afterPropertiesSet();
+    }
+
+    @Test
+    public void testRoundTripOfPartitionContext() throws Exception {
+        final Map<String, Object> context = new HashMap<String, Object>();
+        context.put("startAt", 123456789L);
+        context.put("endAt", 223456789L);
+        context.put("itemsCount", -1L);
+        context.put("resource", "file:/data/exchanges.txt");
+        context.put("MultiThreadedFlatFileItemReader.read.count", 3000);
+        context.put("MultiThreadedFlatFileItemReader.position", 123556789L);
+        final String serialized = serialize(context);
+        assertTrue(serialized, serialized.startsWith("~1"));
+        assertEquals(context, deserialize(serialized));
+    }
+
+    @Test
+    public void testRoundTripOfAllValueTypes() throws Exception {
+        final Map<String, Object> context = new HashMap<String, Object>();
+        context.put("string", "\u00e9t\u00e9");
+        context.put("empty", "");
+        context.put("long", Long.MIN_VALUE);
+        context.put("int", -5);
+        context.put("double", 1.5);
+        context.put("true", true);
+        context.put("false", false);
+        context.put("date", new Date(1234567890123L));
+        final Timestamp timestamp = new Timestamp(1234567890123L);
+        timestamp.setNanos(123456789);
+        context.put("timestamp", timestamp);
+        context.put("list", new ArrayList<String>(Arrays.asList("a", "b")));
+        context.put("null", null);
+        final Map<String, Object> read = deserialize(serialize(context));
+        assertEquals(context, read);
+        assertEquals(Timestamp.class, read.get("timestamp").getClass());
+        assertEquals(123456789, ((Timestamp) read.get("timestamp")).getNanos());
+    }
+
+    @Test
+    public void testRoundTripOfKeysAppendedToTheKeyTable() throws Exception {
+        final Map<String, Object> context = new HashMap<String, Object>();
+        // more keys than fit a single byte index
+        for (int i = 0; i < 300; i++) {
+            context.put("custom.key." + i, (long) i);
+        }
+        context.put("startAt", 0L);
+        assertEquals(context, deserialize(serialize(context)));
+    }
+
+    @Test
+    public void testRepeatedKeysAreWrittenOnce() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final CompactDataOutput out = new CompactDataOutput(bytes);
+        final Map<String, Object> first = Collections.<String, Object> singletonMap("a.rather.long.custom.key", 1L);
+        out.writeMap(first);
+        final int firstSize = bytes.size();
+        out.writeMap(first);
+        assertTrue(bytes.size() - firstSize < 5);
+        final CompactDataInput in = new CompactDataInput(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(first, in.readMap());
+        assertEquals(first, in.readMap());
+    }
+
+    @Test
+    public void testContextWithoutMarkerIsReadByFallback() throws Exception {
+        assertEquals(Collections.singletonMap("fallback", true), deserialize("{\"map\":\"\"}"));
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testCorruptedContext() throws Exception {
+        deserialize("~1AB");
+    }
+
+    private String serialize(Map<String, Object> context) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.serialize(context, out);
+        return out.toString("US-ASCII");
+    }
+
+    private Map<String, Object> deserialize(String serialized) throws IOException {
+        return serializer.deserialize(new ByteArrayInputStream(serialized.getBytes("US-ASCII")));
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.integration.partition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameter;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.item.ExecutionContext;
+
+public class CompactStepExecutionMessageConverterTests {
+
+    private final CompactStepExecutionMessageConverter converter = new CompactStepExecutionMessageConverter();
+
+    @Test
+    public void testRequestRoundTrip() throws Exception {
+        final Message message = converter.toMessage(new StepExecutionRequest("importExchangesStep", 7L, 99L),
+                new MessageProperties());
+        assertEquals(CompactStepExecutionMessageConverter.CONTENT_TYPE, message.getMessageProperties().getContentType());
+        final StepExecutionRequest request = (StepExecutionRequest) converter.fromMessage(message);
+        assertEquals("importExchangesStep", request.getStepName());
+        assertEquals(Long.valueOf(7L), request.getJobExecutionId());
+        assertEquals(Long.valueOf(99L), request.getStepExecutionId());
+    }
+
+    @Test
+    public void testProgressRoundTrip() throws Exception {
+        final PartitionProgress progress = (PartitionProgress) converter.fromMessage(converter.toMessage(
+                new PartitionProgress(7L, 99L, "importExchangesStep:partition3", 3000, 2990, 1234567890123L),
+                new MessageProperties()));
+        assertEquals(Long.valueOf(7L), progress.getJobExecutionId());
+        assertEquals(Long.valueOf(99L), progress.getStepExecutionId());
+        assertEquals("importExchangesStep:partition3", progress.getStepName());
+        assertEquals(3000, progress.getReadCount());
+        assertEquals(2990, progress.getWriteCount());
+        assertEquals(1234567890123L, progress.getPosition());
+    }
+
+    @Test
+    public void testStepExecutionRoundTrip() throws Exception {
+        final Timestamp timestamp = new Timestamp(1234567890123L);
+        final Map<String, JobParameter> parameters = new LinkedHashMap<String, JobParameter>();
+        parameters.put("input.file", new JobParameter("/data/exchanges.txt", true));
+        parameters.put("run.id", new JobParameter(17L, true));
+        parameters.put("ratio", new JobParameter(2.5, false));
+        parameters.put("date", new JobParameter(new Date(1234567890000L), true));
+        // as read back by the JDBC job repository
+        parameters.put("timestamp", new JobParameter(timestamp, false));
+        final JobExecution jobExecution = new JobExecution(new JobInstance(3L, "importExchangesJob"), 7L,
+                new JobParameters(parameters), "importExchangesJob.xml");
+        final StepExecution stepExecution = new StepExecution("importExchangesStep:partition3", jobExecution, 99L);
+        stepExecution.setVersion(4);
+        stepExecution.setStatus(BatchStatus.FAILED);
+        stepExecution.setExitStatus(new ExitStatus("FAILED", "java.lang.IllegalStateException: broken"));
+        stepExecution.setReadCount(3000);
+        stepExecution.setWriteCount(2990);
+        stepExecution.setCommitCount(30);
+        stepExecution.setRollbackCount(2);
+        stepExecution.setReadSkipCount(3);
+        stepExecution.setProcessSkipCount(4);
+        stepExecution.setWriteSkipCount(5);
+        stepExecution.setFilterCount(1);
+        stepExecution.setStartTime(new Date(1000L));
+        stepExecution.setEndTime(new Date(2000L));
+        final ExecutionContext executionContext = new ExecutionContext();
+        executionContext.putLong("startAt", 123456789L);
+        executionContext.putString("resource", "file:/data/exchanges.txt");
+        // a key of the job parameters, which is already in the key table, and a new one
+        executionContext.putString("input.file", "/data/exchanges.txt");
+        executionContext.putLong("custom.position", -1L);
+        stepExecution.setExecutionContext(executionContext);
+
+        final StepExecution read = (StepExecution) converter.fromMessage(converter.toMessage(stepExecution,
+                new MessageProperties()));
+
+        assertEquals(Long.valueOf(7L), read.getJobExecutionId());
+        assertEquals(Long.valueOf(3L), read.getJobExecution().getJobInstance().getId());
+        assertEquals("importExchangesJob", read.getJobExecution().getJobInstance().getJobName());
+        assertEquals("importExchangesJob.xml", read.getJobExecution().getJobConfigurationName());
+        final Map<String, JobParameter> readParameters = read.getJobExecution().getJobParameters().getParameters();
+        assertEquals(parameters.keySet(), readParameters.keySet());
+        for (Map.Entry<String, JobParameter> entry : parameters.entrySet()) {
+            final JobParameter parameter = readParameters.get(entry.getKey());
+            assertEquals(entry.getKey(), entry.getValue().getType(), parameter.getType());
+            assertEquals(entry.getKey(), entry.getValue().isIdentifying(), parameter.isIdentifying());
+        }
+        assertEquals("/data/exchanges.txt", readParameters.get("input.file").getValue());
+        assertEquals(17L, readParameters.get("run.id").getValue());
+        assertEquals(2.5, readParameters.get("ratio").getValue());
+        assertEquals(1234567890000L, ((Date) readParameters.get("date").getValue()).getTime());
+        assertEquals(timestamp.getTime(), ((Date) readParameters.get("timestamp").getValue()).getTime());
+
+        assertEquals("importExchangesStep:partition3", read.getStepName());
+        assertEquals(Long.valueOf(99L), read.getId());
+        assertEquals(Integer.valueOf(4), read.getVersion());
+        assertEquals(BatchStatus.FAILED, read.getStatus());
+        assertEquals(stepExecution.getExitStatus(), read.getExitStatus());
+        assertEquals(3000, read.getReadCount());
+        assertEquals(2990, read.getWriteCount());
+        assertEquals(30, read.getCommitCount());
+        assertEquals(2, read.getRollbackCount());
+        assertEquals(3, read.getReadSkipCount());
+        assertEquals(4, read.getProcessSkipCount());
+        assertEquals(5, read.getWriteSkipCount());
+        assertEquals(1, read.getFilterCount());
+        assertEquals(new Date(1000L), read.getStartTime());
+        assertEquals(new Date(2000L), read.getEndTime());
+        assertFalse(read.isTerminateOnly());
+        assertEquals(123456789L, read.getExecutionContext().getLong("startAt"));
+        assertEquals("file:/data/exchanges.txt", read.getExecutionContext().getString("resource"));
+        assertEquals("/data/exchanges.txt", read.getExecutionContext().getString("input.file"));
+        assertEquals(-1L, read.getExecutionContext().getLong("custom.position"));
+        assertEquals(4, read.getExecutionContext().size());
+    }
+
+    @Test
+    public void testStepExecutionWithoutJobInstance() throws Exception {
+        final StepExecution stepExecution = new StepExecution("step", new JobExecution(null, 7L,
+                new JobParameters(), null), null);
+        stepExecution.setTerminateOnly();
+        final StepExecution read = (StepExecution) converter.fromMessage(converter.toMessage(stepExecution,
+                new MessageProperties()));
+        assertNull(read.getJobExecution().getJobInstance());
+        assertNull(read.getId());
+        assertNull(read.getVersion());
+        assertNull(read.getEndTime());
+        assertTrue(read.isTerminateOnly());
+        assertTrue(read.getJobExecution().getJobParameters().getParameters().isEmpty());
+    }
+
+    @Test
+    public void testOtherPayloadsUseTheFallback() throws Exception {
+        final Message message = converter.toMessage("hello", new MessageProperties());
+        assertFalse(CompactStepExecutionMessageConverter.CONTENT_TYPE.equals(
+                message.getMessageProperties().getContentType()));
+        assertEquals("hello", converter.fromMessage(message));
+        assertEquals("hello", converter.fromMessage(new SimpleMessageConverter().toMessage("hello",
+                new MessageProperties())));
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.item.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GzipBlockIndexTests {
+
+    private static final String[] MEMBERS = { "first\nsecond\n", "third\nfourth\nfifth\n", "sixth\n" };
+
+    private File file;
+
+    private File indexFile;
+
+    private final long[] compressedOffsets = new long[MEMBERS.length];
+
+    private final long[] uncompressedOffsets = new long[MEMBERS.length];
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("gzip-block-index", ".gz");
+        indexFile = GzipBlockIndex.sidecarFor(file, null);
+    }
+
+    @After
+    public void deleteFiles() {
+        file.delete();
+        indexFile.delete();
+    }
+
+    @Test
+    public void testIsGzip() throws Exception {
+        writeMembers(false);
+        assertTrue(GzipBlockIndex.isGzip(file));
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write("plain\n".getBytes("ISO-8859-1"));
+        }
+        finally {
+            out.close();
+        }
+        assertFalse(GzipBlockIndex.isGzip(file));
+    }
+
+    @Test
+    public void testBuildFromConcatenatedMembers() throws Exception {
+        writeMembers(false);
+        assertIndexed(GzipBlockIndex.build(file));
+    }
+
+    @Test
+    public void testBuildFromBgzfHeaders() throws Exception {
+        writeMembers(true);
+        assertIndexed(GzipBlockIndex.build(file));
+    }
+
+    @Test
+    public void testBlockOf() throws Exception {
+        writeMembers(false);
+        final GzipBlockIndex index = GzipBlockIndex.build(file);
+        assertEquals(0, index.blockOf(0));
+        assertEquals(0, index.blockOf(uncompressedOffsets[1] - 1));
+        assertEquals(1, index.blockOf(uncompressedOffsets[1]));
+        assertEquals(1, index.blockOf(uncompressedOffsets[2] - 1));
+        assertEquals(2, index.blockOf(uncompressedOffsets[2]));
+        // past the end the last block is returned
+        assertEquals(2, index.blockOf(index.getUncompressedSize() + 100));
+    }
+
+    @Test
+    public void testCeilingBlock() throws Exception {
+        writeMembers(true);
+        final GzipBlockIndex index = GzipBlockIndex.build(file);
+        assertEquals(0, index.ceilingBlock(0));
+        assertEquals(1, index.ceilingBlock(1));
+        assertEquals(1, index.ceilingBlock(compressedOffsets[1]));
+        assertEquals(2, index.ceilingBlock(compressedOffsets[1] + 1));
+        assertEquals(2, index.ceilingBlock(compressedOffsets[2]));
+        assertEquals(index.getBlockCount(), index.ceilingBlock(compressedOffsets[2] + 1));
+    }
+
+    @Test
+    public void testOpenAtBlock() throws Exception {
+        writeMembers(false);
+        final GzipBlockIndex index = GzipBlockIndex.build(file);
+        for (int block = 0; block < MEMBERS.length; block++) {
+            final StringBuilder expected = new StringBuilder();
+            for (int i = block; i < MEMBERS.length; i++) {
+                expected.append(MEMBERS[i]);
+            }
+            assertEquals(expected.toString(), readFully(index.open(file, block, 16)));
+        }
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        writeMembers(true);
+        GzipBlockIndex.build(file).save(indexFile);
+        final GzipBlockIndex index = GzipBlockIndex.load(file, indexFile);
+        assertNotNull(index);
+        assertIndexed(index);
+        assertTrue(file.setLastModified(file.lastModified() - 10000));
+        assertNull(GzipBlockIndex.load(file, indexFile));
+    }
+
+    private void assertIndexed(GzipBlockIndex index) throws IOException {
+        assertEquals(file.length(), index.getFileSize());
+        assertEquals(MEMBERS.length, index.getBlockCount());
+        assertEquals(uncompressedOffsets[MEMBERS.length - 1] + MEMBERS[MEMBERS.length - 1].length(),
+                index.getUncompressedSize());
+        for (int block = 0; block < MEMBERS.length; block++) {
+            assertEquals(compressedOffsets[block], index.getCompressedOffset(block));
+            assertEquals(uncompressedOffsets[block], index.getUncompressedOffset(block));
+        }
+    }
+
+    /**
+     * Writes each of the {@link #MEMBERS} as a gzip member of its own, with a BGZF header if asked for, followed
+     * by the empty block ending BGZF files.
+     */
+    private void writeMembers(boolean bgzf) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            long compressed = 0;
+            long uncompressed = 0;
+            for (int i = 0; i < MEMBERS.length; i++) {
+                final byte[] data = MEMBERS[i].getBytes("ISO-8859-1");
+                final byte[] member = bgzf ? bgzfMember(data) : gzipMember(data);
+                compressedOffsets[i] = compressed;
+                uncompressedOffsets[i] = uncompressed;
+                out.write(member);
+                compressed += member.length;
+                uncompressed += data.length;
+            }
+            if (bgzf) {
+                out.write(bgzfMember(new byte[0]));
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static byte[] gzipMember(byte[] data) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(data);
+        gzip.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] bgzfMember(byte[] data) throws IOException {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        final byte[] deflated = new byte[data.length + 64];
+        int length = 0;
+        while (!deflater.finished()) {
+            length += deflater.deflate(deflated, length, deflated.length - length);
+        }
+        deflater.end();
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // ID1 ID2 CM FLG MTIME(4) XFL OS XLEN(2) SI1 SI2 SLEN(2) BSIZE(2)
+        bytes.write(new byte[] { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0 });
+        writeLittleEndian(bytes, 18 + length + 8 - 1, 2);
+        bytes.write(deflated, 0, length);
+        writeLittleEndian(bytes, crc.getValue(), 4);
+        writeLittleEndian(bytes, data.length, 4);
+        return bytes.toByteArray();
+    }
+
+    private static void writeLittleEndian(ByteArrayOutputStream out, long value, int length) {
+        for (int i = 0; i < length; i++) {
+            out.write((int) (value >>> (8 * i)));
+        }
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[7];
+            int read;
+            while ((read = in.read(buffer, 0, buffer.length)) >= 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toString("ISO-8859-1");
+        }
+        finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.item.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LineOffsetIndexTests {
+
+    private static final String CONTENT = "zero\none\ntwo\nthree\nfour\nfive\nsix\nseven\neight\nnine\nten";
+
+    private File file;
+
+    private File indexFile;
+
+    private File copy;
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("line-offset-index", ".txt");
+        write(file, CONTENT);
+        indexFile = LineOffsetIndex.sidecarFor(file, null);
+    }
+
+    @After
+    public void deleteFiles() {
+        for (File each : new File[] { file, indexFile, copy }) {
+            if (each != null) {
+                each.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testBuild() throws Exception {
+        final LineOffsetIndex index = LineOffsetIndex.build(file, 3, '\n');
+        assertEquals(11, index.getLineCount());
+        assertEquals(CONTENT.length(), index.getFileSize());
+        // lines 0, 3, 6 and 9
+        assertEquals(4, index.getEntryCount());
+        for (int entry = 0; entry < index.getEntryCount(); entry++) {
+            assertEquals(offsetOf(entry * 3), index.getEntryOffset(entry));
+            assertEquals(entry * 3, index.getEntryLine(entry));
+        }
+    }
+
+    @Test
+    public void testOffsetOfLineAndLineAt() throws Exception {
+        final LineOffsetIndex index = LineOffsetIndex.build(file, 3, '\n');
+        final FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            for (int line = 0; line < 11; line++) {
+                assertEquals("line " + line, offsetOf(line), index.offsetOfLine(channel, line));
+                assertEquals("line " + line, line, index.lineAt(channel, offsetOf(line)));
+            }
+            assertEquals(CONTENT.length(), index.offsetOfLine(channel, 11));
+            assertEquals(11, index.lineAt(channel, CONTENT.length()));
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void testHigherEntry() throws Exception {
+        final LineOffsetIndex index = LineOffsetIndex.build(file, 3, '\n');
+        assertEquals(1, index.higherEntry(0));
+        assertEquals(1, index.higherEntry(offsetOf(3) - 1));
+        assertEquals(2, index.higherEntry(offsetOf(3)));
+        assertEquals(index.getEntryCount(), index.higherEntry(CONTENT.length()));
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        LineOffsetIndex.build(file, 4, '\n').save(indexFile);
+        final LineOffsetIndex index = LineOffsetIndex.load(file, indexFile);
+        assertNotNull(index);
+        assertEquals(4, index.getInterval());
+        assertEquals(11, index.getLineCount());
+        assertEquals(3, index.getEntryCount());
+        assertEquals(offsetOf(8), index.getEntryOffset(2));
+    }
+
+    @Test
+    public void testMissingIndexIsNotLoaded() throws Exception {
+        assertNull(LineOffsetIndex.load(file, indexFile));
+    }
+
+    @Test
+    public void testIndexOfChangedContentIsStale() throws Exception {
+        LineOffsetIndex.build(file, 4, '\n').save(indexFile);
+        final long lastModified = file.lastModified();
+        write(file, CONTENT + "\neleven");
+        file.setLastModified(lastModified);
+        assertNull(LineOffsetIndex.load(file, indexFile));
+    }
+
+    @Test
+    public void testIndexOfTouchedFileIsStale() throws Exception {
+        LineOffsetIndex.build(file, 4, '\n').save(indexFile);
+        assertTrue(file.setLastModified(file.lastModified() - 10000));
+        assertNull(LineOffsetIndex.load(file, indexFile));
+    }
+
+    @Test
+    public void testIndexOfAnotherPathIsStale() throws Exception {
+        LineOffsetIndex.build(file, 4, '\n').save(indexFile);
+        copy = new File(file.getPath() + ".copy");
+        write(copy, CONTENT);
+        copy.setLastModified(file.lastModified());
+        assertNull(LineOffsetIndex.load(copy, indexFile));
+    }
+
+    @Test
+    public void testObtainRebuildsStaleIndex() throws Exception {
+        LineOffsetIndex.build(file, 4, '\n').save(indexFile);
+        write(file, "a\nb\nc\n");
+        file.setLastModified(file.lastModified() - 10000);
+        final LineOffsetIndex index = LineOffsetIndex.obtain(file, indexFile, 2, '\n');
+        assertEquals(3, index.getLineCount());
+        assertEquals(2, index.getInterval());
+        final LineOffsetIndex stored = LineOffsetIndex.load(file, indexFile);
+        assertNotNull(stored);
+        assertEquals(3, stored.getLineCount());
+    }
+
+    @Test
+    public void testSidecarInIndexDirectory() throws Exception {
+        final File directory = file.getParentFile();
+        final File sidecar = LineOffsetIndex.sidecarFor(file, directory);
+        assertEquals(directory, sidecar.getParentFile());
+        assertTrue(sidecar.getName().startsWith(file.getName() + "-"));
+        assertTrue(sidecar.getName().endsWith(LineOffsetIndex.DEFAULT_SUFFIX));
+        assertEquals(file.getPath() + LineOffsetIndex.DEFAULT_SUFFIX, indexFile.getPath());
+    }
+
+    private static long offsetOf(int line) {
+        int offset = 0;
+        for (int i = 0; i < line; i++) {
+            offset = CONTENT.indexOf('\n', offset) + 1;
+        }
+        return offset;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("ISO-8859-1"));
+        }
+        finally {
+            out.close();
+        }
+    }
+}
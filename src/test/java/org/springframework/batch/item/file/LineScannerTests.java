@@ -0,0 +1,198 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.item.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class LineScannerTests {
+
+    private final LineScanner scanner = new LineScanner('\n');
+
+    private File file;
+
+    @After
+    public void deleteFile() {
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testIndexOfAtEveryPositionOfTheWords() {
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN }) {
+            for (int at = 0; at < 24; at++) {
+                final byte[] bytes = filled(24, (byte) 'x');
+                bytes[at] = '\n';
+                final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(order);
+                for (int from = 0; from <= at; from++) {
+                    assertEquals(order + " from " + from, at, scanner.indexOf(buffer, from, bytes.length));
+                }
+                assertEquals(-1, scanner.indexOf(buffer, at + 1, bytes.length));
+                assertEquals(-1, scanner.indexOf(buffer, 0, at));
+            }
+        }
+    }
+
+    @Test
+    public void testIndexOfReturnsTheFirstOfAdjacentSeparators() {
+        final byte[] bytes = "abcdef\n\n\n\nghij".getBytes();
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN }) {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(order);
+            assertEquals(6, scanner.indexOf(buffer, 0, bytes.length));
+            assertEquals(7, scanner.indexOf(buffer, 7, bytes.length));
+            assertEquals(9, scanner.indexOf(buffer, 9, bytes.length));
+            assertEquals(4, scanner.count(buffer, 0, bytes.length));
+        }
+    }
+
+    @Test
+    public void testBytesCloseToTheSeparatorDoNotMatch() {
+        // the separator with its high bit set, its neighbours, and zero bytes around a separator
+        final byte[] bytes = { (byte) 0x8A, 0x0B, 0x09, 0x00, (byte) 0xFF, 0x0A, 0x00, 0x0B,
+                (byte) 0x8A, (byte) 0x80, 0x7F, 0x01, 0x0A, 0x0A, (byte) 0xF5, 0x02 };
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN }) {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(order);
+            assertEquals(5, scanner.indexOf(buffer, 0, bytes.length));
+            assertEquals(12, scanner.indexOf(buffer, 6, bytes.length));
+            assertEquals(3, scanner.count(buffer, 0, bytes.length));
+        }
+    }
+
+    @Test
+    public void testCountMatchesByteByByteCount() {
+        final Random random = new Random(42);
+        final byte[] bytes = new byte[1000];
+        random.nextBytes(bytes);
+        for (int i = 0; i < bytes.length; i += 1 + random.nextInt(20)) {
+            bytes[i] = '\n';
+        }
+        final ByteBuffer heap = ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder());
+        final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.BIG_ENDIAN);
+        direct.put(bytes);
+        for (int from = 0; from < 16; from++) {
+            for (int to = bytes.length - 16; to <= bytes.length; to++) {
+                final long expected = countSeparators(bytes, from, to);
+                assertEquals(expected, scanner.count(heap, from, to));
+                assertEquals(expected, scanner.count(direct, from, to));
+            }
+        }
+    }
+
+    @Test
+    public void testIsAscii() {
+        final byte[] bytes = filled(20, (byte) 'a');
+        assertTrue(LineScanner.isAscii(ByteBuffer.wrap(bytes), 0, bytes.length));
+        for (int at = 0; at < bytes.length; at++) {
+            final byte[] copy = bytes.clone();
+            copy[at] = (byte) 0xC3;
+            assertFalse(LineScanner.isAscii(ByteBuffer.wrap(copy), 0, copy.length));
+            assertTrue(LineScanner.isAscii(ByteBuffer.wrap(copy), at + 1, copy.length));
+        }
+    }
+
+    @Test
+    public void testCountLinesAcrossBufferBoundaries() throws Exception {
+        final byte[] bytes = "first\nsecond line\n\nfourth\nthe fifth line is longer than a word\nsixth".getBytes();
+        for (int bufferSize = 1; bufferSize <= bytes.length + 1; bufferSize++) {
+            for (int linesToSkip = 0; linesToSkip <= 7; linesToSkip++) {
+                final LineScanner.LineCounter counter = scanner.countLines(
+                        LineScanner.Source.read(new ByteArrayInputStream(bytes), bufferSize, true), linesToSkip);
+                final String label = "buffer " + bufferSize + ", skipping " + linesToSkip;
+                assertEquals(label, Math.max(6 - linesToSkip, 0), counter.getLinesCount());
+                assertEquals(label, bytesOfLines(bytes, linesToSkip), counter.getBytesToSkip());
+            }
+        }
+    }
+
+    @Test
+    public void testCountLinesOfMappedWindows() throws Exception {
+        final byte[] bytes = "a\nbb\nccc\ndddd\neeeee\nffffff\nggggggg\nhhhhhhhh\n".getBytes();
+        file = File.createTempFile("line-scanner", ".txt");
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        }
+        finally {
+            out.close();
+        }
+        for (int windowSize = 1; windowSize <= bytes.length; windowSize++) {
+            assertEquals(8, countLines(LineScanner.Source.map(file, 0, -1, windowSize), 0).getLinesCount());
+            assertEquals(7, countLines(LineScanner.Source.map(file, 0, -1, windowSize), 1).getLinesCount());
+            // the range ends inside the fourth line, which is then not terminated
+            assertEquals(4, countLines(LineScanner.Source.map(file, 0, 11, windowSize), 0).getLinesCount());
+            assertEquals(2, countLines(LineScanner.Source.map(file, 5, 11, windowSize), 0).getLinesCount());
+        }
+    }
+
+    @Test
+    public void testEmptyInputHasNoLines() throws Exception {
+        final LineScanner.LineCounter counter = scanner.countLines(
+                LineScanner.Source.read(new ByteArrayInputStream(new byte[0]), 8, true), 0);
+        assertEquals(0, counter.getLinesCount());
+        assertEquals(0, counter.getBytesToSkip());
+    }
+
+    private LineScanner.LineCounter countLines(LineScanner.Source source, long linesToSkip) throws IOException {
+        try {
+            return scanner.countLines(source, linesToSkip);
+        }
+        finally {
+            source.close();
+        }
+    }
+
+    private static byte[] filled(int length, byte value) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = value;
+        }
+        return bytes;
+    }
+
+    private static long countSeparators(byte[] bytes, int from, int to) {
+        long count = 0;
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long bytesOfLines(byte[] bytes, int lines) {
+        int offset = 0;
+        while (lines > 0 && offset < bytes.length) {
+            if (bytes[offset++] == '\n') {
+                lines--;
+            }
+        }
+        return offset;
+    }
+}
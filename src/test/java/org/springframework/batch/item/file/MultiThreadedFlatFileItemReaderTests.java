@@ -0,0 +1,312 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.item.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.scope.ScopedObject;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.file.mapping.PassThroughLineMapper;
+import org.springframework.core.io.FileSystemResource;
+
+public class MultiThreadedFlatFileItemReaderTests {
+
+    private static final String CONTENT = "line0\nline1\nline2\nline3\nline4\nline5\nline6\nline7\nline8\nline9\n";
+
+    private MultiThreadedFlatFileItemReader<String> reader;
+
+    private File file;
+
+    private File indexFile;
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("multi-threaded-reader", ".txt");
+        write(file, CONTENT, "ISO-8859-1");
+        indexFile = LineOffsetIndex.sidecarFor(file, null);
+        reader = createReader();
+    }
+
+    @After
+    public void closeReader() {
+        reader.close();
+        file.delete();
+        indexFile.delete();
+    }
+
+    @Test
+    public void testRestartFromPosition() throws Exception {
+        reader.open(new ExecutionContext());
+        assertEquals("line0", reader.read());
+        assertEquals("line1", reader.read());
+        assertEquals("line2", reader.read());
+        final ExecutionContext executionContext = new ExecutionContext();
+        reader.update(executionContext);
+        reader.close();
+        assertEquals(offsetOf(3), executionContext.getLong(reader.getExecutionContextKey("position")));
+
+        reader = createReader();
+        reader.open(executionContext);
+        assertEquals("line3", reader.read());
+        reader.update(executionContext);
+        assertEquals(4, executionContext.getInt(reader.getExecutionContextKey("read.count")));
+        assertEquals(offsetOf(4), executionContext.getLong(reader.getExecutionContextKey("position")));
+    }
+
+    @Test
+    public void testRestartFromPositionOfPartition() throws Exception {
+        reader.setStartAt(offsetOf(2));
+        reader.setMaxItemCount(5);
+        reader.open(new ExecutionContext());
+        assertEquals("line2", reader.read());
+        assertEquals("line3", reader.read());
+        final ExecutionContext executionContext = new ExecutionContext();
+        reader.update(executionContext);
+        reader.close();
+
+        reader = createReader();
+        reader.setStartAt(offsetOf(2));
+        reader.setMaxItemCount(5);
+        reader.open(executionContext);
+        assertEquals("line4", reader.read());
+        assertEquals("line5", reader.read());
+        assertEquals("line6", reader.read());
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void testPositionTakesPrecedenceOverReadCount() throws Exception {
+        final ExecutionContext executionContext = readCount(3);
+        executionContext.putLong(reader.getExecutionContextKey("position"), offsetOf(7));
+        reader.open(executionContext);
+        assertEquals("line7", reader.read());
+    }
+
+    @Test
+    public void testRestartFromPositionInMultiByteEncoding() throws Exception {
+        write(file, "\u00e90\n\u00e91\n\u00e92\n\u00e93\n", "UTF-8");
+        reader.setEncoding("UTF-8");
+        reader.open(new ExecutionContext());
+        assertEquals("\u00e90", reader.read());
+        assertEquals("\u00e91", reader.read());
+        final ExecutionContext executionContext = new ExecutionContext();
+        reader.update(executionContext);
+        reader.close();
+        // two bytes per accented character
+        assertEquals(8, executionContext.getLong(reader.getExecutionContextKey("position")));
+
+        reader = createReader();
+        reader.setEncoding("UTF-8");
+        reader.open(executionContext);
+        assertEquals("\u00e92", reader.read());
+    }
+
+    @Test
+    public void testRestartFromPositionWithPrefetch() throws Exception {
+        reader.setPrefetchSize(4);
+        reader.open(new ExecutionContext());
+        assertEquals("line0", reader.read());
+        assertEquals("line1", reader.read());
+        assertEquals("line2", reader.read());
+        // let the producer read ahead, the saved position is the one of the items handed out
+        Thread.sleep(100);
+        final ExecutionContext executionContext = new ExecutionContext();
+        reader.update(executionContext);
+        reader.close();
+        assertEquals(3, executionContext.getInt(reader.getExecutionContextKey("read.count")));
+        assertEquals(offsetOf(3), executionContext.getLong(reader.getExecutionContextKey("position")));
+
+        reader = createReader();
+        reader.setPrefetchSize(4);
+        reader.open(executionContext);
+        for (int line = 3; line < 10; line++) {
+            assertEquals("line" + line, reader.read());
+        }
+        assertNull(reader.read());
+        reader.update(executionContext);
+        assertEquals(CONTENT.length(), executionContext.getLong(reader.getExecutionContextKey("position")));
+    }
+
+    @Test
+    public void testRestartFromPositionOfPartitionWithPrefetch() throws Exception {
+        reader.setPrefetchSize(2);
+        reader.setStartAt(offsetOf(2));
+        reader.setMaxItemCount(5);
+        reader.open(new ExecutionContext());
+        assertEquals("line2", reader.read());
+        assertEquals("line3", reader.read());
+        Thread.sleep(100);
+        final ExecutionContext executionContext = new ExecutionContext();
+        reader.update(executionContext);
+        reader.close();
+
+        reader = createReader();
+        reader.setPrefetchSize(2);
+        reader.setStartAt(offsetOf(2));
+        reader.setMaxItemCount(5);
+        reader.open(executionContext);
+        assertEquals("line4", reader.read());
+        assertEquals("line5", reader.read());
+        assertEquals("line6", reader.read());
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void testMappingErrorsAreHandedOutInOrderWithPrefetch() throws Exception {
+        reader.setLineMapper(new LineMapper<String>() {
+            public String mapLine(String line, int lineNumber) throws Exception {
+                if ("line2".equals(line)) {
+                    throw new IllegalArgumentException(line);
+                }
+                return line;
+            }
+        });
+        reader.setPrefetchSize(4);
+        reader.open(new ExecutionContext());
+        assertEquals("line0", reader.read());
+        assertEquals("line1", reader.read());
+        try {
+            reader.read();
+            fail("Expected the mapping error of line2");
+        }
+        catch (Exception e) {
+            // expected, possibly wrapped by the parent
+        }
+        assertEquals("line3", reader.read());
+    }
+
+    @Test
+    public void testCloseWaitsForTheProducer() throws Exception {
+        reader.setPrefetchSize(1);
+        reader.open(new ExecutionContext());
+        assertEquals("line0", reader.read());
+        // let the producer fill the buffer and wait for room
+        Thread.sleep(100);
+        reader.close();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            assertFalse(thread.getName(), thread.getName().equals(Thread.currentThread().getName() + "-prefetch"));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testStepScopedMapperIsRejectedWithPrefetch() throws Exception {
+        reader.setLineMapper(new ScopedLineMapper());
+        reader.setPrefetchSize(4);
+        reader.open(new ExecutionContext());
+    }
+
+    @Test
+    public void testStepScopedMapperIsAcceptedWithoutPrefetch() throws Exception {
+        reader.setLineMapper(new ScopedLineMapper());
+        reader.open(new ExecutionContext());
+        assertEquals("line0", reader.read());
+    }
+
+    @Test
+    public void testRestartFromLineIndex() throws Exception {
+        LineOffsetIndex.build(file, 4, '\n').save(indexFile);
+        reader.setUseLineIndex(true);
+        reader.setStartAt(offsetOf(2));
+        reader.setMaxItemCount(6);
+        reader.open(readCount(3));
+        assertEquals("line5", reader.read());
+        assertEquals("line6", reader.read());
+        assertEquals("line7", reader.read());
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void testRestartFromLineIndexInIndexDirectory() throws Exception {
+        indexFile = LineOffsetIndex.sidecarFor(file, file.getParentFile());
+        LineOffsetIndex.build(file, 3, '\n').save(indexFile);
+        reader.setUseLineIndex(true);
+        reader.setLineIndexDirectory(file.getParentFile());
+        reader.setStartAt(offsetOf(1));
+        reader.open(readCount(7));
+        assertEquals("line8", reader.read());
+        assertEquals("line9", reader.read());
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void testRestartWithStaleLineIndexSkipsTheReadLines() throws Exception {
+        LineOffsetIndex.build(file, 4, '\n').save(indexFile);
+        file.setLastModified(file.lastModified() - 10000);
+        reader.setUseLineIndex(true);
+        reader.setStartAt(offsetOf(2));
+        reader.open(readCount(3));
+        assertEquals("line5", reader.read());
+    }
+
+    @Test
+    public void testRestartWithoutLineIndexSkipsTheReadLines() throws Exception {
+        reader.setUseLineIndex(true);
+        reader.setStartAt(offsetOf(2));
+        reader.open(readCount(3));
+        assertEquals("line5", reader.read());
+    }
+
+    /**
+     * Stands for the proxy of a step scoped mapper.
+     */
+    private static class ScopedLineMapper extends PassThroughLineMapper implements ScopedObject {
+
+        public Object getTargetObject() {
+            return this;
+        }
+
+        public void removeFromScope() {
+        }
+    }
+
+    private MultiThreadedFlatFileItemReader<String> createReader() {
+        final MultiThreadedFlatFileItemReader<String> reader = new MultiThreadedFlatFileItemReader<String>();
+        reader.setResource(new FileSystemResource(file));
+        reader.setLineMapper(new PassThroughLineMapper());
+        return reader;
+    }
+
+    private ExecutionContext readCount(int count) {
+        final ExecutionContext executionContext = new ExecutionContext();
+        executionContext.putInt(reader.getExecutionContextKey("read.count"), count);
+        return executionContext;
+    }
+
+    private static long offsetOf(int line) {
+        return line * "lineN\n".length();
+    }
+
+    private static void write(File file, String content, String encoding) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(encoding));
+        }
+        finally {
+            out.close();
+        }
+    }
+}
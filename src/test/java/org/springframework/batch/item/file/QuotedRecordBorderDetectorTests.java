@@ -0,0 +1,159 @@
+/*
+ * Copyright 2006-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.batch.item.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QuotedRecordBorderDetectorTests {
+
+    private final QuotedRecordBorderDetector detector = new QuotedRecordBorderDetector();
+
+    private File file;
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("quoted-record-border", ".csv");
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void testBorderAfterOffsetOutsideQuotes() throws Exception {
+        final String content = "1,\"a\",x\n2,\"b\",y\n3,\"c\",z\n";
+        final QuotedRecordBorderDetector.Border border = find(content, content.indexOf("\"b\""));
+        assertEquals(content.indexOf("3,"), border.getOffset());
+        assertFalse(border.isAmbiguous());
+    }
+
+    @Test
+    public void testBorderInsideQuotedField() throws Exception {
+        final String content = "1,\"x\ny\nz\",2\n3,\"w\",4\n";
+        final QuotedRecordBorderDetector.Border border = find(content, content.indexOf("y"));
+        assertEquals(content.indexOf("3,"), border.getOffset());
+        assertFalse(border.isAmbiguous());
+    }
+
+    @Test
+    public void testLineOfQuotedFieldLookingLikeRecord() throws Exception {
+        final String content = "a,\"first\nb,c\nd\",e\nf,g\n";
+        final QuotedRecordBorderDetector.Border border = find(content, content.indexOf("b,c"));
+        assertEquals(content.indexOf("f,g"), border.getOffset());
+        assertFalse(border.isAmbiguous());
+    }
+
+    @Test
+    public void testDoubledQuotesInsideQuotedField() throws Exception {
+        final String content = "1,\"say \"\"hi\"\"\nthere\",2\n3,\"\"\"quoted\"\"\",4\n5,x,6\n";
+        for (String at : new String[] { "say", "hi", "\"\"\n", "there" }) {
+            final QuotedRecordBorderDetector.Border border = find(content, content.indexOf(at));
+            assertEquals("from " + at, content.indexOf("3,"), border.getOffset());
+            assertFalse(border.isAmbiguous());
+        }
+        final QuotedRecordBorderDetector.Border border = find(content, content.indexOf("quoted"));
+        assertEquals(content.indexOf("5,"), border.getOffset());
+    }
+
+    @Test
+    public void testCarriageReturnLineFeed() throws Exception {
+        final String content = "1,\"x\r\ny\",2\r\n\"3\",z\r\n";
+        final QuotedRecordBorderDetector.Border border = find(content, content.indexOf("y"));
+        assertEquals(content.indexOf("\"3\""), border.getOffset());
+        assertFalse(border.isAmbiguous());
+    }
+
+    @Test
+    public void testUnquotedContentIsAmbiguousWithinRecordLength() throws Exception {
+        final String content = "a,b\nc,d\ne,f\n";
+        final QuotedRecordBorderDetector.Border border = find(content, 1);
+        assertEquals(content.indexOf("c,d"), border.getOffset());
+        assertTrue(border.isAmbiguous());
+    }
+
+    @Test
+    public void testUnquotedContentBeyondRecordLength() throws Exception {
+        detector.setMaxRecordLength(8);
+        final String content = "a,b\nc,d\ne,f\ng,h\ni,j\nk,l\n";
+        final QuotedRecordBorderDetector.Border border = find(content, 1);
+        assertEquals(content.indexOf("c,d"), border.getOffset());
+        assertFalse(border.isAmbiguous());
+    }
+
+    @Test
+    public void testNoBorderBeforeEndOfFile() throws Exception {
+        final String content = "a,b\nlast,record";
+        final QuotedRecordBorderDetector.Border border = find(content, content.indexOf("last"));
+        assertEquals(content.length(), border.getOffset());
+    }
+
+    @Test
+    public void testNoBorderInScannedRange() throws Exception {
+        detector.setMaxRecordLength(4);
+        final String content = "a,b\nthis,record,is,longer,than,the,scanned,range\nz\n";
+        final QuotedRecordBorderDetector.Border border = find(content, content.indexOf("this"));
+        assertEquals(-1, border.getOffset());
+        assertTrue(border.isAmbiguous());
+    }
+
+    @Test
+    public void testOffsetAtEndOfFile() throws Exception {
+        final String content = "a,b\n";
+        final QuotedRecordBorderDetector.Border border = find(content, content.length());
+        assertEquals(content.length(), border.getOffset());
+        assertFalse(border.isAmbiguous());
+    }
+
+    @Test
+    public void testOtherDelimiterAndQuote() throws Exception {
+        detector.setDelimiter(';');
+        detector.setQuoteCharacter('\'');
+        final String content = "1;'x\ny';2\n3;'w';4\n";
+        final QuotedRecordBorderDetector.Border border = find(content, content.indexOf("y"));
+        assertEquals(content.indexOf("3;"), border.getOffset());
+    }
+
+    private QuotedRecordBorderDetector.Border find(String content, long from) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("ISO-8859-1"));
+        }
+        finally {
+            out.close();
+        }
+        final FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            return detector.find(channel, from, channel.size());
+        }
+        finally {
+            channel.close();
+        }
+    }
+}